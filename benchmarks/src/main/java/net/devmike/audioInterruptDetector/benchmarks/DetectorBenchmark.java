@@ -0,0 +1,99 @@
+package net.devmike.audioInterruptDetector.benchmarks;
+
+import java.awt.GraphicsEnvironment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devmike.audioInterruptDetector.AudioInterruptDetector;
+import net.devmike.audioInterruptDetector.AudioInterruptVisualizer;
+
+/**
+ * Benchmarks {@link AudioInterruptDetector#processAudioData}.<br />
+ * <br />
+ * Every invocation streams {@link TestSignals#NUM_SAMPLES} samples through the detector in chunks of
+ * <code>chunkSize</code> bytes, so the reported time is per sample. Run with <code>-prof gc</code> to see the
+ * allocation rate. The visualizer opens a window, so <code>visualizer=true</code> needs a display.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class DetectorBenchmark
+{
+	// 16 bytes as in Main.streamFromFile, 180 bytes as in Main.streamFromMic
+	@Param({"16", "180", "4096", "65536"})
+	public int chunkSize;
+	
+	@Param({"false", "true"})
+	public boolean bigEndian;
+	
+	// quiet signal with few pulses and a pulse dense one
+	@Param({"testFlowMeter.wav", "testFlowMeterVeryFast.wav"})
+	public String signal;
+	
+	@Param({"false", "true"})
+	public boolean visualizer;
+	
+	private byte[]                 data;
+	private ByteBuffer             directData;
+	private AudioInterruptDetector detector;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		data = TestSignals.load(signal, bigEndian);
+		
+		directData = ByteBuffer.allocateDirect(data.length).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		directData.put(data).flip();
+		
+		if (visualizer && GraphicsEnvironment.isHeadless())
+			throw new IllegalStateException("The visualizer needs a display. Run with -p visualizer=false");
+		
+		detector = visualizer ?
+				new AudioInterruptDetector(new AudioInterruptVisualizer(AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD)) :
+				new AudioInterruptDetector();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(TestSignals.NUM_SAMPLES)
+	public int processByteArray()
+	{
+		int numInterrupts = 0;
+		
+		for (int offset = 0; offset < data.length; offset += chunkSize)
+			numInterrupts += detector.processAudioData(data, offset, Math.min(chunkSize, data.length - offset), bigEndian);
+		
+		return numInterrupts;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(TestSignals.NUM_SAMPLES)
+	public int processByteBuffer()
+	{
+		int numInterrupts = 0;
+		
+		for (int offset = 0; offset < data.length; offset += chunkSize)
+		{
+			directData.limit(Math.min(offset + chunkSize, data.length)).position(offset);
+			numInterrupts += detector.processAudioData(directData);
+		}
+		
+		return numInterrupts;
+	}
+}
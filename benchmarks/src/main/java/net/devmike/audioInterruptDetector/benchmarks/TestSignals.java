@@ -0,0 +1,53 @@
+package net.devmike.audioInterruptDetector.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.devmike.audioInterruptDetector.WavFile;
+
+/**
+ * Loads the test recordings in res/ as benchmark input.
+ */
+public class TestSignals
+{
+	// directory of the test recordings. Benchmarks are run from the benchmarks directory by default
+	private static final String RES_DIR = System.getProperty("audioInterruptDetector.res", ".." + File.separatorChar + "res");
+	
+	// number of samples in the audio data created for benchmarks
+	public static final int NUM_SAMPLES = 1024 * 1024;
+	
+	/**
+	 * Loads a test recording and repeats it to create {@link #NUM_SAMPLES} samples of 16 bit mono audio data.
+	 * 
+	 * @param name      - File name of the recording in res/.
+	 * @param bigEndian - If the audio data should be big-endian (true) or little-endian (false).
+	 * 
+	 * @return The audio data.
+	 * 
+	 * @throws IOException If the recording could not be read.
+	 */
+	public static byte[] load(String name, boolean bigEndian) throws IOException
+	{
+		byte[] data = new byte[NUM_SAMPLES * 2];
+		
+		try (WavFile wavFile = WavFile.open(new File(RES_DIR, name)))
+		{
+			ByteBuffer recording = wavFile.mapData(0, (int)wavFile.getDataLength() & ~1);
+			
+			// repeat the recording until we have enough data
+			for (int i = 0; i < data.length; i += 2)
+			{
+				if (!recording.hasRemaining())
+					recording.rewind();
+				
+				short amplitude = recording.getShort();
+				
+				data[i]     = (byte)(bigEndian ? amplitude >> 8 : amplitude);
+				data[i + 1] = (byte)(bigEndian ? amplitude : amplitude >> 8);
+			}
+		}
+		
+		return data;
+	}
+}
@@ -0,0 +1,70 @@
+package net.devmike.audioInterruptDetector.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devmike.audioInterruptDetector.AudioInterruptDetector;
+
+/**
+ * Compares the detector with the SIMD kernels to the detector with the plain Java kernels.<br />
+ * <br />
+ * The kernels are picked once when the detector class is loaded, so each value of <code>vectorKernels</code> runs
+ * in its own fork with the system property set before the detector is created. The reported time is per sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class VectorKernelsBenchmark
+{
+	@Param({"false", "true"})
+	public boolean vectorKernels;
+	
+	@Param({"4096", "65536"})
+	public int chunkSize;
+	
+	@Param({"false", "true"})
+	public boolean bigEndian;
+	
+	// quiet signal with few pulses and a pulse dense one
+	@Param({"testFlowMeter.wav", "testFlowMeterVeryFast.wav"})
+	public String signal;
+	
+	private byte[]                 data;
+	private AudioInterruptDetector detector;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		System.setProperty("audioInterruptDetector.vectorKernels", Boolean.toString(vectorKernels));
+		
+		data     = TestSignals.load(signal, bigEndian);
+		detector = new AudioInterruptDetector();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(TestSignals.NUM_SAMPLES)
+	public int processByteArray()
+	{
+		int numInterrupts = 0;
+		
+		for (int offset = 0; offset < data.length; offset += chunkSize)
+			numInterrupts += detector.processAudioData(data, offset, Math.min(chunkSize, data.length - offset), bigEndian);
+		
+		return numInterrupts;
+	}
+}
@@ -1,36 +1,70 @@
 package net.devmike.audioInterruptDetector;
 
-import net.devmike.audioInterruptDetector.Interrupt;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
 import net.devmike.audioInterruptDetector.AudioSample;
 
-public class AudioInterruptDetector
+public final class AudioInterruptDetector
 {
 	// ===================================================================
 	// Constants
 	//
 	// ===================================================================
 	
-	// the amplitude a sample must exceed to be considered part of an interrupt
+	// the amplitude a sample must exceed to be considered part of an interrupt, unless another is given
 	public static final short INTERRUPT_AMPLITUDE_THRESHOLD = AudioSample.AMPLITUDE_MAX_VALUE / 2; // put the threshold at %50
 	
 	// number of samples to use to create a normalized sample
-	private static final int NUM_SAMPLES_IN_NORMALIZED_GROUP = 10;
+	static final int NUM_SAMPLES_IN_NORMALIZED_GROUP = 10;
 	
 	// the time to calculate the amplitude delta (change of amplitude) over
-	private static final int AMPLITUDE_DELTA_DURATION = 6;
+	static final int AMPLITUDE_DELTA_DURATION = 6;
 	
 	// the minimum amplitude delta required for a sample above the amplitude threshold to be considered the start of an interrupt
-	private static final int MIN_AMPLITUDE_DELTA_TO_START_INTERRUPT = AudioSample.AMPLITUDE_MAX_VALUE / 4; // must rise/fall %25
+	static final int MIN_AMPLITUDE_DELTA_TO_START_INTERRUPT = AudioSample.AMPLITUDE_MAX_VALUE / 4; // must rise/fall %25
 	
-	private static final int MIN_INTERRUPT_DURATION = 20;   // min duration of a valid interrupt
-	private static final int MAX_INTERRUPT_DURATION = 4000; // max duration of a valid interrupt
+	// min and max duration of a valid interrupt, unless others are given
+	static final int MIN_INTERRUPT_DURATION = 20;
+	static final int MAX_INTERRUPT_DURATION = 4000;
 	
 	// time the amplitude must remain under the threshold for an interrupt to end 
-	private static final int DURATION_UNDER_THRESHOLD_TO_END_INTERRUPT = 10;
+	static final int DURATION_UNDER_THRESHOLD_TO_END_INTERRUPT = 10;
+	
+	// the number of normalized samples to keep for interrupt checks and operations that require looking back in time
+	// this must cover the amplitude delta look-back plus the samples since a possible end when restoring a snapshot. Must be a power of 2
+	static final int NORMALIZED_SAMPLE_HISTORY_SIZE = 32;
+	static final int NORMALIZED_SAMPLE_HISTORY_MASK = NORMALIZED_SAMPLE_HISTORY_SIZE - 1;
+	
+	// number of raw samples to decode and average at once when no visualizer is attached. Must be a multiple of NUM_SAMPLES_IN_NORMALIZED_GROUP
+	private static final int BLOCK_NUM_SAMPLES = 1280;
+	
+	// inner loops for processing blocks of samples. SIMD versions are used when available
+	static final SampleKernels KERNELS = SampleKernels.create();
+	
+	// if blocks are checked for raw samples above the threshold before averaging them. Finding the peak of a block
+	// only costs less than averaging it with SIMD
+	private static final boolean PRESCAN_BLOCKS = KERNELS.isVectorized();
+	
+	// identifies the layout of state snapshots. Must be changed whenever the layout changes
+	private static final int STATE_FORMAT_VERSION = 2;
 	
-	// the number of normalized samples to keep after processAudioData to use at the beginning of the next processAudioData
-	// this is used for interrupt checks and operations that require looking back in time
-	private static final int NUM_NORMALIZED_SAMPLES_TO_BACKFILL_FOR_CHECKS = 10;
+	// number of bytes in a state snapshot before the detection strategy's status
+	private static final int STREAM_STATE_SIZE =
+			4 +                                          // format version
+			8 +                                          // time
+			1 + SampleDecoder.MAX_BYTES_PER_SAMPLE - 1 + // number of leftover bytes and the bytes
+			4 + 1 +                                      // current group total and number of raw samples
+			NORMALIZED_SAMPLE_HISTORY_SIZE * 2 +         // normalized sample history
+			8 + 8;                                       // normalized sample counts
+	
+	// number of bytes in a state snapshot of a detector with the default strategy and a fixed threshold. See
+	// getStateSize for others
+	public static final int STATE_SIZE = STREAM_STATE_SIZE + ThresholdDetectionStrategy.STATE_SIZE;
 	
 	
 	
@@ -39,6 +73,10 @@ public class AudioInterruptDetector
 	//
 	// ===================================================================
 	
+	// decides what is an interrupt, and if it is passed every raw sample
+	private final DetectionStrategy strategy;
+	private final boolean           strategyNeedsRawSamples;
+	
 	// current relative time unit
 	// we assume a sample rate of 44100Hz, therefore one time unit is 1/44100 seconds
 	private long time = AudioSample.TIME_MIN_VALUE;
@@ -46,28 +84,62 @@ public class AudioInterruptDetector
 	// visualizer to add samples and interrupts to
 	private AudioInterruptVisualizer visualizer;
 	
+	// listeners to notify of interrupts. Replaced instead of changed so notifying never has to create anything
+	private InterruptListener[] interruptListeners = new InterruptListener[0];
+	
+	// metrics to record calls to, or null
+	private DetectorMetrics metrics;
+	
 	
 	// -------------------------------------------------------------------
 	// intermediate processAudioData variables
 	
-	// if we are given an odd number of bytes to read, remove the last one and use it at the start of the next processAudioData
-	private byte    leftoverAudioDataByte;
-	private boolean useLeftoverAudioDataByte = false;
+	// if we are given a partial sample at the end of the data, keep its bytes and use them at the start of the next processAudioData
+	private final byte[] leftoverBytes    = new byte[SampleDecoder.MAX_BYTES_PER_SAMPLE];
+	private int          numLeftoverBytes = 0;
+	
+	// raw samples that have not been used to create a normalized sample yet. We only need their total amplitude and how many there are
+	private int groupTotalAmplitude = 0;
+	private int groupNumRawSamples  = 0;
+	
+	// amplitudes of the most recent normalized samples kept for look-back checks and operations. Indexed by the normalized sample index
+	// masked with NORMALIZED_SAMPLE_HISTORY_MASK. The time of a normalized sample is derived from its index (see getNormalizedSampleTime)
+	private final short[] normalizedSampleAmplitudeHistory = new short[NORMALIZED_SAMPLE_HISTORY_SIZE];
 	
-	// raw samples that did not get used to create a normalized sample to be used at the start of the next processAudioData
-	private AudioSample[] leftoverRawSamples = new AudioSample[0];
+	// amplitudes of the raw and normalized samples of the block being processed
+	private final short[] blockAmplitudes           = new short[BLOCK_NUM_SAMPLES];
+	private final short[] blockNormalizedAmplitudes = new short[BLOCK_NUM_SAMPLES / NUM_SAMPLES_IN_NORMALIZED_GROUP];
 	
-	// normalized samples back-filled for look-back checks and operations to be used at the start of the next processAudioData
-	private AudioSample[] backfilledNormalizedSamples = new AudioSample[0];
+	private long numNormalizedSamples      = 0; // total number of normalized samples created
+	private long nextNormalizedSampleIndex = 0; // index of the next normalized sample to look for interrupts in
 	
-	// sign of the last interrupt
-	private int lastInterruptAmplitudeSign = 0;
 	
-	// interrupt detection status
-	private boolean insidePossibleInterrupt                           = false; // if we are inside a potential interrupt
-	private long    possibleInterruptStartTime                        = 0;     // the start time of the potential interrupt
-	private int     possibleInterruptPossibleEndNormalizedSampleIndex = -1;    // the potential end normalized sample index of the potential interrupt
-	private int     possibleInterruptAmplitudeSign                    = 0;     // sign of the potential interrupt's start amplitude (1 or -1). Defines what side the "wave" is on
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * Gives the strategy this detector's history and passes its interrupts on, without making those methods public.
+	 */
+	private class StrategyHost implements DetectionStrategy.Host
+	{
+		public short getNormalizedSampleAmplitude(long normalizedSampleIndex)
+		{
+			return AudioInterruptDetector.this.getNormalizedSampleAmplitude(normalizedSampleIndex);
+		}
+		
+		public void notifyInterrupt(long startTime, long endTime, int sign)
+		{
+			AudioInterruptDetector.this.notifyInterrupt(startTime, endTime, sign);
+		}
+		
+		public void recordAbandonedInterrupt()
+		{
+			AudioInterruptDetector.this.recordAbandonedInterrupt();
+		}
+	}
 	
 	
 	
@@ -82,7 +154,88 @@ public class AudioInterruptDetector
 	}
 	public AudioInterruptDetector(AudioInterruptVisualizer visualizer)
 	{
+		this(visualizer, INTERRUPT_AMPLITUDE_THRESHOLD, MIN_INTERRUPT_DURATION, MAX_INTERRUPT_DURATION);
+	}
+	
+	/**
+	 * Creates a detector with the given detection parameters for the default {@link ThresholdDetectionStrategy}.
+	 * 
+	 * @param visualizer           - Visualizer to show the samples and interrupts in, or null.
+	 * @param amplitudeThreshold   - Amplitude a normalized sample must exceed to be part of an interrupt.
+	 * @param minInterruptDuration - Min duration of a valid interrupt in raw samples.
+	 * @param maxInterruptDuration - Max duration of a valid interrupt in raw samples. Longer possible interrupts are
+	 *                               abandoned.
+	 * 
+	 * @throws IllegalArgumentException If the threshold is negative or the durations are not a valid range.
+	 */
+	public AudioInterruptDetector(AudioInterruptVisualizer visualizer, short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration)
+	{
+		this(visualizer, new ThresholdDetectionStrategy(amplitudeThreshold, minInterruptDuration, maxInterruptDuration));
+	}
+	
+	/**
+	 * Creates a detector that finds interrupts with the given strategy.
+	 * 
+	 * @param visualizer - Visualizer to show the samples and interrupts in, or null.
+	 * @param strategy   - Strategy to decide what is an interrupt. Can't be used by any other detector.
+	 * 
+	 * @throws IllegalStateException If the strategy already belongs to another detector.
+	 */
+	public AudioInterruptDetector(AudioInterruptVisualizer visualizer, DetectionStrategy strategy)
+	{
+		strategy.attach(new StrategyHost());
+		
 		this.visualizer = visualizer;
+		this.strategy   = strategy;
+		
+		strategyNeedsRawSamples = strategy.needsRawSamples();
+	}
+	
+	/**
+	 * Adds a listener to notify every time an interrupt is detected.<br />
+	 * <br />
+	 * Listeners are notified on the thread calling {@link #processAudioData}, in the order they were added. Slow
+	 * listeners hold up detection, so wrap them in a {@link QueuedInterruptListener} to notify them on their own thread.
+	 * 
+	 * @param interruptListener - Listener to add.
+	 */
+	public void addInterruptListener(InterruptListener interruptListener)
+	{
+		InterruptListener[] newInterruptListeners = Arrays.copyOf(interruptListeners, interruptListeners.length + 1);
+		newInterruptListeners[interruptListeners.length] = interruptListener;
+		
+		interruptListeners = newInterruptListeners;
+	}
+	
+	/**
+	 * Removes a listener added with {@link #addInterruptListener}.
+	 * 
+	 * @param interruptListener - Listener to remove.
+	 */
+	public void removeInterruptListener(InterruptListener interruptListener)
+	{
+		for (int i = 0; i < interruptListeners.length; ++i)
+		{
+			if (interruptListeners[i] == interruptListener)
+			{
+				InterruptListener[] newInterruptListeners = new InterruptListener[interruptListeners.length - 1];
+				System.arraycopy(interruptListeners, 0,     newInterruptListeners, 0, i);
+				System.arraycopy(interruptListeners, i + 1, newInterruptListeners, i, newInterruptListeners.length - i);
+				
+				interruptListeners = newInterruptListeners;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Sets the metrics to record processing in. Must be set before processing starts or from the processing thread.
+	 * 
+	 * @param metrics - Metrics to record to or null to stop recording.
+	 */
+	public void setMetrics(DetectorMetrics metrics)
+	{
+		this.metrics = metrics;
 	}
 	
 	/**
@@ -101,8 +254,8 @@ public class AudioInterruptDetector
 	 * Data passed to this method over multiple executions is treated as one data set. Meaning, data from
 	 * previous executions of this function may be used during subsequent executions. This is intended for
 	 * uses such as streaming where small data sets can be passed to this function without having to worry
-	 * about interrupts being cut off or not detected. Only necessary data is kept in memory so excessive
-	 * memory build up will not occur with multiple executions of this function.
+	 * about interrupts being cut off or not detected. Only a small, fixed amount of data is kept between
+	 * executions and no objects are created unless a visualizer is attached.
 	 * 
 	 * @param data       - Audio data.
 	 * @param dataOffset - Offset to start from in bytes.
@@ -117,344 +270,720 @@ public class AudioInterruptDetector
 		// number of detected interrupts
 		int numInterrupts = 0;
 		
+		long startNanoTime = metrics != null ? System.nanoTime() : 0;
+		long startTime     = time;
 		
-		// because we need two bytes for every sample, the data length must be kept even
-		int evenDataLength = dataLength;
-		
-		if (useLeftoverAudioDataByte) // account for the offset of using the leftover byte
-			++evenDataLength;
+		int i       = dataOffset;
+		int dataEnd = dataOffset + dataLength;
 		
-		if (evenDataLength % 2 == 1)
-			--evenDataLength;
+		// check if we should use the leftover byte
+		if (numLeftoverBytes == 1 && i < dataEnd)
+		{
+			// use the leftover byte and the first byte
+			numInterrupts += processRawSample(bytesToAmplitude(leftoverBytes[0], data[i++], bigEndian));
+			
+			// don't use the leftover byte anymore
+			numLeftoverBytes = 0;
+		}
 		
+		// the visualizer needs every raw sample, otherwise process whole blocks at a time
+		if (visualizer == null)
+		{
+			// finish the current group first so the blocks start on a group boundary
+			for (; groupNumRawSamples > 0 && i + 1 < dataEnd; i += 2)
+				numInterrupts += processRawSample(bytesToAmplitude(data[i], data[i + 1], bigEndian));
+			
+			int numBlockSamples;
+			while ((numBlockSamples = getNumBlockSamples((dataEnd - i) / 2)) > 0)
+			{
+				KERNELS.decode(data, i, blockAmplitudes, numBlockSamples, bigEndian);
+				numInterrupts += processBlock(numBlockSamples);
+				
+				i += numBlockSamples * 2;
+			}
+		}
 		
-		// calculate ahead how many raw and normalized samples will be created and used this iteration
-		int numRawSamplesWillBeCreated        = evenDataLength / 2;                                           // number of raw samples that will be created
-		int totalNumRawSamples                = leftoverRawSamples.length + numRawSamplesWillBeCreated;       // total number of raw samples (leftover and will be created)
-		int numNormalizedSamplesWillBeCreated = totalNumRawSamples / NUM_SAMPLES_IN_NORMALIZED_GROUP;         // number of normalized samples that will be created (rounded down)
-		int numRawSamplesWillBeUsed           = numNormalizedSamplesWillBeCreated * NUM_SAMPLES_IN_NORMALIZED_GROUP; // number of raw samples that will be used
+		// iterate through the rest of the data bytes two at a time and process the raw samples
+		for (; i + 1 < dataEnd; i += 2)
+			numInterrupts += processRawSample(bytesToAmplitude(data[i], data[i + 1], bigEndian));
 		
+		// check if we have a leftover byte
+		if (i < dataEnd)
+		{
+			leftoverBytes[0] = data[i];
+			numLeftoverBytes = 1;
+		}
 		
-		// -------------------------------------------------------------------
-		// raw samples
+		if (metrics != null)
+			metrics.recordCall(dataLength, time - startTime, numInterrupts, System.nanoTime() - startNanoTime, strategy.getNumPendingNormalizedSamples());
 		
-		// create an array for the raw samples
-		int numRawSamples = 0;
-		AudioSample[] rawSamples = new AudioSample[numRawSamplesWillBeUsed]; // only need to store the raw samples we will use this iteration
+		// done!
+		return numInterrupts;
+	}
+	
+	
+	/**
+	 * Processes the remaining audio data in the given buffer to find interrupts.<br />
+	 * <br />
+	 * Works the same as {@link #processAudioData(byte[], int, int, boolean)} but reads the samples straight from
+	 * the buffer without copying it, so direct and memory-mapped buffers can be used as is. The byte order of the
+	 * buffer is used as the byte order of the audio data. The buffer's position is advanced past all the data read.
+	 * If there is an odd number of bytes, the last byte is used at the start of the next call.
+	 * 
+	 * @param data - Audio data.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	public int processAudioData(ByteBuffer data)
+	{
+		// number of detected interrupts
+		int numInterrupts = 0;
 		
-		// create an array for the leftover raw samples
-		int numLeftoverRawSamples = 0;
-		AudioSample[] leftoverRawSamplesNew = new AudioSample[totalNumRawSamples - numRawSamplesWillBeUsed];
+		boolean bigEndian = data.order() == ByteOrder.BIG_ENDIAN;
 		
+		long startNanoTime = metrics != null ? System.nanoTime() : 0;
+		long startTime     = time;
+		int  dataLength    = data.remaining();
 		
-		// if we wont be using any raw samples...
-		if (numRawSamplesWillBeUsed == 0)
+		// check if we should use the leftover byte
+		if (numLeftoverBytes == 1 && data.hasRemaining())
 		{
-			// copy the old leftovers to the new leftovers
-			for (int i = 0; i < leftoverRawSamples.length; ++i)
-				leftoverRawSamplesNew[i] = leftoverRawSamples[i];
+			// use the leftover byte and the first byte
+			numInterrupts += processRawSample(bytesToAmplitude(leftoverBytes[0], data.get(), bigEndian));
 			
-			numLeftoverRawSamples = leftoverRawSamples.length;
+			// don't use the leftover byte anymore
+			numLeftoverBytes = 0;
 		}
-		else
+		
+		// view the rest of the data as samples. The view shares the buffer's content and uses its byte order
+		ShortBuffer samples = data.slice().order(data.order()).asShortBuffer();
+		int numSamples = samples.remaining();
+		int i = 0;
+		
+		// the visualizer needs every raw sample, otherwise process whole blocks at a time
+		if (visualizer == null)
 		{
-			// copy the leftovers to the array to be used
-			for (int i = 0; i < leftoverRawSamples.length; ++i)
-				rawSamples[i] = leftoverRawSamples[i];
+			// finish the current group first so the blocks start on a group boundary
+			for (; groupNumRawSamples > 0 && i < numSamples; ++i)
+				numInterrupts += processRawSample(samples.get(i));
 			
-			numRawSamples = leftoverRawSamples.length;
+			int numBlockSamples;
+			while ((numBlockSamples = getNumBlockSamples(numSamples - i)) > 0)
+			{
+				// the bulk get does the byte order conversion
+				samples.get(i, blockAmplitudes, 0, numBlockSamples);
+				numInterrupts += processBlock(numBlockSamples);
+				
+				i += numBlockSamples;
+			}
 		}
 		
-		leftoverRawSamples = leftoverRawSamplesNew;
-		leftoverRawSamplesNew = null;
+		for (; i < numSamples; ++i)
+			numInterrupts += processRawSample(samples.get(i));
+		
+		data.position(data.position() + numSamples * 2);
+		
+		// check if we have a leftover byte
+		if (data.hasRemaining())
+		{
+			leftoverBytes[0] = data.get();
+			numLeftoverBytes = 1;
+		}
+		
+		if (metrics != null)
+			metrics.recordCall(dataLength, time - startTime, numInterrupts, System.nanoTime() - startNanoTime, strategy.getNumPendingNormalizedSamples());
+		
+		// done!
+		return numInterrupts;
+	}
+	
+	
+	/**
+	 * Processes the given audio data of any supported format to find interrupts.<br />
+	 * <br />
+	 * Works the same as {@link #processAudioData(byte[], int, int, boolean)} but converts the samples with the given
+	 * decoder, a block at a time, so there is no check of the format per sample. If the data ends with a partial
+	 * sample, its bytes are used at the start of the next call. The same format must be used for the whole stream.
+	 * 
+	 * @param data       - Audio data.
+	 * @param dataOffset - Offset to start from in bytes.
+	 * @param dataLength - Number of bytes to read.
+	 * @param decoder    - Decoder for the format of the audio data.
+	 * 
+	 * @return The number of interrupts detected.
+	 * 
+	 * @see SampleDecoder#forFormat
+	 */
+	public int processAudioData(byte[] data, int dataOffset, int dataLength, SampleDecoder decoder)
+	{
+		// number of detected interrupts
+		int numInterrupts = 0;
 		
+		long startNanoTime = metrics != null ? System.nanoTime() : 0;
+		long startTime     = time;
 		
+		int bytesPerSample = decoder.getBytesPerSample();
+		int i              = dataOffset;
+		int dataEnd        = dataOffset + dataLength;
 		
-		// iterate through the data bytes and create the raw samples
-		for (int i = 0; i < evenDataLength; i += 2)
+		// check if we should complete the leftover partial sample
+		if (numLeftoverBytes > 0)
 		{
-			// select the bytes to use
-			byte byte1;
-			byte byte2;
-			
-			// check if we should use the leftover byte
-			if (useLeftoverAudioDataByte)
-			{
-				// use the leftover byte and the first byte
-				byte1 = leftoverAudioDataByte;
-				byte2 = data[dataOffset];
-				
-				// don't use the leftover byte anymore
-				useLeftoverAudioDataByte = false;
-				
-				// decrement the index to offset using the leftover byte
-				--i;
-			}
+			while (numLeftoverBytes < bytesPerSample && i < dataEnd)
+				leftoverBytes[numLeftoverBytes++] = data[i++];
 			
-			// use the normal bytes based on the index
-			else
+			if (numLeftoverBytes == bytesPerSample)
 			{
-				byte1 = data[i + dataOffset];
-				byte2 = data[i + dataOffset + 1];
+				numInterrupts += processDecodedSamples(leftoverBytes, 0, 1, decoder);
+				numLeftoverBytes = 0;
 			}
+		}
+		
+		// the visualizer needs every raw sample, otherwise process whole blocks at a time
+		if (visualizer == null)
+		{
+			// finish the current group first so the blocks start on a group boundary
+			int numGroupSamples = groupNumRawSamples > 0 ? NUM_SAMPLES_IN_NORMALIZED_GROUP - groupNumRawSamples : 0;
+			numGroupSamples = Math.min(numGroupSamples, (dataEnd - i) / bytesPerSample);
 			
+			numInterrupts += processDecodedSamples(data, i, numGroupSamples, decoder);
+			i += numGroupSamples * bytesPerSample;
 			
-			// convert the two bytes to a single short
-			// Remember! The data types are signed! (and no way to use unsigned... grumble grumble)
-			
-			// For the examples bellow I will be using the following bytes:
-			// 00110010 10110101 (12981)
-			
-			// first we convert the signed bytes, to signed shorts
-			// short1: 00000000 00110010 (50)
-			// short2: 11111111 10110101 (-75)
-			
-			// data
-			short short1;
-			short short2;
-			
-			if (bigEndian)
-			{
-				short1 = byte1;
-				short2 = byte2;
-			}
-			else
+			int numBlockSamples;
+			while ((numBlockSamples = getNumBlockSamples((dataEnd - i) / bytesPerSample)) > 0)
 			{
-				// if bytes are in little-endian, the most significant bit is last and we must reverse the order
-				short2 = byte1;
-				short1 = byte2;
-			}
-			
-			// shift the most significant byte over 8 bits
-			short1 <<= 8;
-			//    00000000 00110010
-			// << 8
-			//    -----------------
-			//    00110010 00000000
-			
-			// mask the least significant byte so all bits are 0 except the last 8. This is necessary because the value is negative.
-			// Therefore, when converting from signed byte to signed short, the extra 8 bits that are added to the beginning are 1's in order to keep the value the same and negative.
-			short2 &= 0b00000000_11111111;
-			//   11111111 10110101
-			// & 00000000 11111111
-			//   -----------------
-			//   00000000 10110101
-			
-			// finally, combine the two shorts with a bitwise OR
-			short dataVal = (short)(short1 | short2);
-			//   00110010 00000000
-			// | 00000000 10110101
-			//   -----------------
-			//   00110010 10110101
-			
-			
-			// create the raw audio sample
-			AudioSample rawSample = new AudioSample(time++, dataVal); // we assume 1 unit of time between each sample, so we just increment time
-			
-			// check if we have already created all the raw samples we are going to use
-			if (numRawSamples < numRawSamplesWillBeUsed)
-				rawSamples[numRawSamples++] = rawSample; // put in use array
-			else
-				leftoverRawSamples[numLeftoverRawSamples++] = rawSample; // put in leftover array
+				decoder.decode(data, i, blockAmplitudes, numBlockSamples);
+				numInterrupts += processBlock(numBlockSamples);
 				
-			if (visualizer != null)
-				visualizer.addRawSample(rawSample);
+				i += numBlockSamples * bytesPerSample;
+			}
 		}
 		
-		// check if we have a leftover byte
-		if (evenDataLength < dataLength)
+		// decode the rest of the whole samples a block at a time and process them one by one
+		int numSamples;
+		while ((numSamples = Math.min((dataEnd - i) / bytesPerSample, BLOCK_NUM_SAMPLES)) > 0)
 		{
-			leftoverAudioDataByte = data[dataOffset + dataLength - 1];
-			useLeftoverAudioDataByte = true;
+			numInterrupts += processDecodedSamples(data, i, numSamples, decoder);
+			i += numSamples * bytesPerSample;
 		}
 		
+		// check if we have a partial sample left over
+		if (i < dataEnd)
+		{
+			System.arraycopy(data, i, leftoverBytes, 0, dataEnd - i);
+			numLeftoverBytes = dataEnd - i;
+		}
 		
+		if (metrics != null)
+			metrics.recordCall(dataLength, time - startTime, numInterrupts, System.nanoTime() - startNanoTime, strategy.getNumPendingNormalizedSamples());
 		
-		// -------------------------------------------------------------------
-		// normalized samples
-		
-		// create an array for holding the normalized samples
-		int numNormalizedSamples = 0;
-		AudioSample[] normalizedSamples = new AudioSample[backfilledNormalizedSamples.length + numNormalizedSamplesWillBeCreated];
+		// done!
+		return numInterrupts;
+	}
+	
+	
+	/**
+	 * Converts two bytes of audio data into a single 16 bit amplitude.
+	 * 
+	 * @param byte1     - First byte in the data.
+	 * @param byte2     - Second byte in the data.
+	 * @param bigEndian - If the data is big-endian (true) or little-endian (false).
+	 * 
+	 * @return The amplitude.
+	 */
+	private static short bytesToAmplitude(byte byte1, byte byte2, boolean bigEndian)
+	{
+		// convert the two bytes to a single short
+		// Remember! The data types are signed! (and no way to use unsigned... grumble grumble)
 		
-		// add the back-filled normalized samples
-		for (int i = 0; i < backfilledNormalizedSamples.length; ++i)
-			normalizedSamples[i] = backfilledNormalizedSamples[i];
+		// For the examples bellow I will be using the following bytes:
+		// 00110010 10110101 (12981)
 		
-		numNormalizedSamples = backfilledNormalizedSamples.length;
+		// first we convert the signed bytes, to signed shorts
+		// short1: 00000000 00110010 (50)
+		// short2: 11111111 10110101 (-75)
 		
+		// data
+		short short1;
+		short short2;
 		
-		// create the normalized samples from the raw samples
-		for (int i = 0; i < numNormalizedSamplesWillBeCreated; ++i)
+		if (bigEndian)
 		{
-			// total the amplitudes
-			int totalAmplitude = 0;
-			
-			for (int j = 0; j < NUM_SAMPLES_IN_NORMALIZED_GROUP; ++j)
-				totalAmplitude += rawSamples[i * NUM_SAMPLES_IN_NORMALIZED_GROUP + j].amplitude;
-			
-			// create the normalized sample
-			AudioSample normalizedSample = new AudioSample(
-					rawSamples[i * NUM_SAMPLES_IN_NORMALIZED_GROUP].time,       // use the time of the first raw sample
-					(short)(totalAmplitude / NUM_SAMPLES_IN_NORMALIZED_GROUP)); // average the amplitudes
-			
-			// put in the array
-			normalizedSamples[numNormalizedSamples++] = normalizedSample;
-			
-			if (visualizer != null)
-				visualizer.addNormalizedSample(normalizedSample);
+			short1 = byte1;
+			short2 = byte2;
 		}
+		else
+		{
+			// if bytes are in little-endian, the most significant bit is last and we must reverse the order
+			short2 = byte1;
+			short1 = byte2;
+		}
+		
+		// shift the most significant byte over 8 bits
+		short1 <<= 8;
+		//    00000000 00110010
+		// << 8
+		//    -----------------
+		//    00110010 00000000
+		
+		// mask the least significant byte so all bits are 0 except the last 8. This is necessary because the value is negative.
+		// Therefore, when converting from signed byte to signed short, the extra 8 bits that are added to the beginning are 1's in order to keep the value the same and negative.
+		short2 &= 0b00000000_11111111;
+		//   11111111 10110101
+		// & 00000000 11111111
+		//   -----------------
+		//   00000000 10110101
+		
+		// finally, combine the two shorts with a bitwise OR
+		return (short)(short1 | short2);
+		//   00110010 00000000
+		// | 00000000 10110101
+		//   -----------------
+		//   00110010 10110101
+	}
+	
+	
+	/**
+	 * Adds a raw sample to the current normalized group and creates a normalized sample once the group is full.
+	 * 
+	 * @param amplitude - Amplitude of the raw sample.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	private int processRawSample(short amplitude)
+	{
+		if (visualizer != null)
+			visualizer.addRawSample(time, amplitude);
+		
+		int numInterrupts = strategyNeedsRawSamples ? strategy.processRawSample(time, amplitude) : 0;
 		
+		// we assume 1 unit of time between each sample, so we just increment time
+		++time;
 		
+		// total the amplitudes
+		groupTotalAmplitude += amplitude;
 		
-		// -------------------------------------------------------------------
-		// look for interrupts
+		// wait until we have enough raw samples to create a normalized sample
+		if (++groupNumRawSamples < NUM_SAMPLES_IN_NORMALIZED_GROUP)
+			return numInterrupts;
 		
-		// skip the back-filled samples
-		for (int i = backfilledNormalizedSamples.length; i < normalizedSamples.length; ++i)
+		// average the amplitudes
+		short normalizedAmplitude = (short)(groupTotalAmplitude / NUM_SAMPLES_IN_NORMALIZED_GROUP);
+		
+		groupTotalAmplitude = 0;
+		groupNumRawSamples  = 0;
+		
+		// create the normalized sample
+		long normalizedSampleIndex = numNormalizedSamples++;
+		normalizedSampleAmplitudeHistory[(int)(normalizedSampleIndex & NORMALIZED_SAMPLE_HISTORY_MASK)] = normalizedAmplitude;
+		
+		if (visualizer != null)
+			visualizer.addNormalizedSample(getNormalizedSampleTime(normalizedSampleIndex), normalizedAmplitude);
+		
+		return numInterrupts + lookForInterrupts();
+	}
+	
+	
+	/**
+	 * Decodes samples into the block buffer and processes them one raw sample at a time.
+	 * 
+	 * @param data       - Audio data.
+	 * @param dataOffset - Offset of the first sample in bytes.
+	 * @param numSamples - Number of samples to process. At most {@link #BLOCK_NUM_SAMPLES}.
+	 * @param decoder    - Decoder for the format of the audio data.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	private int processDecodedSamples(byte[] data, int dataOffset, int numSamples, SampleDecoder decoder)
+	{
+		decoder.decode(data, dataOffset, blockAmplitudes, numSamples);
+		
+		int numInterrupts = 0;
+		for (int i = 0; i < numSamples; ++i)
+			numInterrupts += processRawSample(blockAmplitudes[i]);
+		
+		return numInterrupts;
+	}
+	
+	/**
+	 * Returns the number of raw samples to process as the next block.
+	 * 
+	 * @param numSamplesAvailable - Number of raw samples left to process.
+	 * 
+	 * @return The number of raw samples that fit in a block rounded down to whole groups. 0 if not a single group.
+	 */
+	private static int getNumBlockSamples(int numSamplesAvailable)
+	{
+		int numSamples = Math.min(numSamplesAvailable, BLOCK_NUM_SAMPLES);
+		return numSamples - numSamples % NUM_SAMPLES_IN_NORMALIZED_GROUP;
+	}
+	
+	/**
+	 * Processes the raw samples in the block. Works the same as calling {@link #processRawSample} for each one but
+	 * averages the groups all at once and skips quiet blocks and samples that can't start an interrupt.<br />
+	 * <br />
+	 * Must only be used when there is no visualizer and when the block starts on a group boundary.
+	 * 
+	 * @param numSamples - Number of raw samples in the block. Must be a multiple of {@link #NUM_SAMPLES_IN_NORMALIZED_GROUP}.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	private int processBlock(int numSamples)
+	{
+		int numInterrupts = 0;
+		
+		if (strategyNeedsRawSamples)
 		{
-			AudioSample normalizedSample = normalizedSamples[i];
+			for (int i = 0; i < numSamples; ++i)
+				numInterrupts += strategy.processRawSample(time + i, blockAmplitudes[i]);
+		}
+		
+		// we assume 1 unit of time between each sample, so we just increment time
+		time += numSamples;
+		
+		int numGroups  = numSamples / NUM_SAMPLES_IN_NORMALIZED_GROUP;
+		int firstGroup = 0;
+		
+		// when the strategy is quiet and no raw sample in the block is louder than it allows, no normalized sample can be
+		// either (an average is never louder than its loudest sample), so the block can't change anything. Only the
+		// groups that end up in the history need to be averaged
+		int quietAmplitude = strategy.getQuietAmplitude();
+		if (PRESCAN_BLOCKS && quietAmplitude >= 0 && KERNELS.peak(blockAmplitudes, 0, numSamples) <= quietAmplitude)
+		{
+			firstGroup = Math.max(numGroups - NORMALIZED_SAMPLE_HISTORY_SIZE, 0);
 			
-			// check if we are already inside a possible interrupt
-			if (insidePossibleInterrupt)
+			numNormalizedSamples      += firstGroup;
+			nextNormalizedSampleIndex  = numNormalizedSamples;
+		}
+		
+		// average the groups
+		KERNELS.average(blockAmplitudes, blockNormalizedAmplitudes, firstGroup, numGroups);
+		
+		for (int g = firstGroup; g < numGroups;)
+		{
+			// when the strategy is quiet, normalized samples that are not louder than it allows don't change anything.
+			// Skip to the next one that is
+			if ((quietAmplitude = strategy.getQuietAmplitude()) >= 0)
 			{
-				// check if we are below the interrupt amplitude threshold. Using possibleInterruptSign instead of Math.abs accounts for dramatic shifts from one sign to the other 
-				if (normalizedSample.amplitude * possibleInterruptAmplitudeSign > INTERRUPT_AMPLITUDE_THRESHOLD)
-				{
-					// we are above the threshold, the interrupt is not ending
-					possibleInterruptPossibleEndNormalizedSampleIndex = -1;
-					
-					// don't go over the max interrupt length
-					if (normalizedSample.time - possibleInterruptStartTime > MAX_INTERRUPT_DURATION)
-					{
-						// reset
-						insidePossibleInterrupt = false;
-						possibleInterruptStartTime = 0;
-						possibleInterruptPossibleEndNormalizedSampleIndex = -1;
-					}
-				}
-				else
-				{
-					// we are below the threshold, the interrupt is POSSIBLY ending
-					// set the possible end if it has not been set yet
-					if (possibleInterruptPossibleEndNormalizedSampleIndex == -1)
-						possibleInterruptPossibleEndNormalizedSampleIndex = i;
-					else
-					{
-						// the possible end has already been set
-						long possibleInterruptEndTime = normalizedSamples[possibleInterruptPossibleEndNormalizedSampleIndex].time;
-						
-						// check if we have been bellow the threshold for a while now...
-						if (normalizedSample.time - possibleInterruptEndTime > DURATION_UNDER_THRESHOLD_TO_END_INTERRUPT)
-						{
-							// we have been bellow the threshold for long enough. This interrupt has ended
-							int  interruptEndNormalizedSampleIndex = possibleInterruptPossibleEndNormalizedSampleIndex;
-							int  interruptAmplitudeSign            = possibleInterruptAmplitudeSign;
-							
-							// make sure the interrupt isn't too short
-							if (possibleInterruptEndTime - possibleInterruptStartTime >= MIN_INTERRUPT_DURATION)
-							{
-								// there was an interrupt!
-								++numInterrupts;
-								
-								// create the interrupt
-								Interrupt interrupt = new Interrupt(possibleInterruptStartTime, possibleInterruptEndTime);
-								
-								if (visualizer != null)
-									visualizer.addInterrupt(interrupt);
-								
-								// set the last interrupt sign
-								lastInterruptAmplitudeSign = interruptAmplitudeSign;
-							}
-							
-							// move back to the end of this interrupt so we don't miss any interrupts that started while we were making sure this one ended
-							i = interruptEndNormalizedSampleIndex - 1; // -1 because the for loop will +1
-							
-							// reset
-							insidePossibleInterrupt = false;
-							possibleInterruptStartTime = 0;
-							possibleInterruptPossibleEndNormalizedSampleIndex = -1;
-						}
-					}
-				}
+				int end = KERNELS.indexOfAboveThreshold(blockNormalizedAmplitudes, g, numGroups, (short)quietAmplitude);
+				
+				// the skipped samples must still be in the history for look-back checks
+				for (int j = Math.max(g, end - NORMALIZED_SAMPLE_HISTORY_SIZE); j < end; ++j)
+					normalizedSampleAmplitudeHistory[(int)((numNormalizedSamples + j - g) & NORMALIZED_SAMPLE_HISTORY_MASK)] = blockNormalizedAmplitudes[j];
+				
+				numNormalizedSamples      += end - g;
+				nextNormalizedSampleIndex  = numNormalizedSamples;
+				
+				g = end;
+				if (g == numGroups)
+					break;
 			}
 			
-			
-			// we are not already inside a possible interrupt
-			// look for the start of an interrupt
-			else
-			{
-				// check if we are above the threshold
-				if (Math.abs(normalizedSample.amplitude) > INTERRUPT_AMPLITUDE_THRESHOLD)
-				{
-					// get the sign of the amplitude
-					int tempPossibleInterruptAmplitudeSign = normalizedSample.amplitude < 0 ? -1 : 1;
-					
-					// make sure we are on the opposite side of the last interrupt
-					if (tempPossibleInterruptAmplitudeSign != lastInterruptAmplitudeSign)
-					{
-						// interrupts create a large difference in the amplitude, there should be a substantial change in amplitude (delta) from a previous sample to this one
-						// go a couple of samples back
-						AudioSample previousNormalizedSample = i < AMPLITUDE_DELTA_DURATION ? new AudioSample(0l, (short)0) : normalizedSamples[i - AMPLITUDE_DELTA_DURATION];
-						
-						// make sure the amplitude delta is great enough
-						int dAmplitude = (normalizedSample.amplitude - previousNormalizedSample.amplitude);
-						
-						
-						// using the sign instead of Math.abs keeps deltas in the wrong direction from passing
-						if (dAmplitude * tempPossibleInterruptAmplitudeSign > MIN_AMPLITUDE_DELTA_TO_START_INTERRUPT)
-						{
-							// start interrupt
-							insidePossibleInterrupt        = true;
-							possibleInterruptStartTime     = normalizedSample.time;
-							possibleInterruptAmplitudeSign = tempPossibleInterruptAmplitudeSign;
-						}
-					}
-				}
-			}
+			// create the normalized sample and look for interrupts as usual
+			normalizedSampleAmplitudeHistory[(int)(numNormalizedSamples++ & NORMALIZED_SAMPLE_HISTORY_MASK)] = blockNormalizedAmplitudes[g++];
+			numInterrupts += lookForInterrupts();
 		}
 		
+		return numInterrupts;
+	}
+	
+	
+	/**
+	 * Runs the interrupt detection on all the normalized samples that have not been looked at yet.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	private int lookForInterrupts()
+	{
+		int numInterrupts = 0;
 		
+		for (long i = nextNormalizedSampleIndex; i < numNormalizedSamples; ++i)
+			numInterrupts += strategy.processNormalizedSample(i, getNormalizedSampleAmplitude(i));
 		
-		// -------------------------------------------------------------------
-		// set intermediate variables
+		nextNormalizedSampleIndex = numNormalizedSamples;
 		
-		// get the index of the normalized sample to back-fill to
-		int backfillToIndex = normalizedSamples.length;
+		return numInterrupts;
+	}
+	
+	/**
+	 * Notifies the visualizer and listeners of an interrupt found by the strategy.
+	 * 
+	 * @param startTime - Start time of the interrupt.
+	 * @param endTime   - End time of the interrupt.
+	 * @param sign      - Sign of the interrupt (1 or -1).
+	 */
+	void notifyInterrupt(long startTime, long endTime, int sign)
+	{
+		if (visualizer != null)
+			visualizer.addInterrupt(startTime, endTime);
 		
-		// check if we stopped in the middle of a possible interrupt and we were in the middle of making sure it had ended
-		if (insidePossibleInterrupt && possibleInterruptPossibleEndNormalizedSampleIndex > -1)
-		{
-			// we must preserve the samples from this interrupt's end onward so after we are done making sure this
-			// interrupt ended, we can check for interrupts that started while we were making sure this interrupt ended
-			backfillToIndex = possibleInterruptPossibleEndNormalizedSampleIndex; // back-fill to the interrupt's end
-		}
+		for (int i = 0; i < interruptListeners.length; ++i)
+			interruptListeners[i].onInterrupt(startTime, endTime, sign);
+	}
+	
+	/**
+	 * Records a possible interrupt the strategy gave up on in the metrics, if any.
+	 */
+	void recordAbandonedInterrupt()
+	{
+		if (metrics != null)
+			metrics.recordAbandonedInterrupt();
+	}
+	
+	
+	/**
+	 * Returns the time of the normalized sample with the given index.<br />
+	 * <br />
+	 * Normalized samples use the time of the first raw sample in their group and we assume 1 unit of time between
+	 * each raw sample, so the time can be calculated from the index.
+	 * 
+	 * @param normalizedSampleIndex - Index of the normalized sample.
+	 * 
+	 * @return The time of the normalized sample.
+	 */
+	static long getNormalizedSampleTime(long normalizedSampleIndex)
+	{
+		return AudioSample.TIME_MIN_VALUE + normalizedSampleIndex * NUM_SAMPLES_IN_NORMALIZED_GROUP;
+	}
+	
+	/**
+	 * Returns the amplitude of the normalized sample with the given index from the history.<br />
+	 * <br />
+	 * Only the last {@link #NORMALIZED_SAMPLE_HISTORY_SIZE} normalized samples are available.
+	 * 
+	 * @param normalizedSampleIndex - Index of the normalized sample.
+	 * 
+	 * @return The amplitude of the normalized sample.
+	 */
+	short getNormalizedSampleAmplitude(long normalizedSampleIndex)
+	{
+		return normalizedSampleAmplitudeHistory[(int)(normalizedSampleIndex & NORMALIZED_SAMPLE_HISTORY_MASK)];
+	}
+	
+	/**
+	 * @return The time of the next raw sample. Only meaningful on the thread that processes the audio data.
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+	
+	
+	
+	// ===================================================================
+	// State Snapshots
+	//
+	// Used to stop streaming and pick up where we left off later, for
+	// example in another process.
+	// ===================================================================
+	
+	/**
+	 * @return The number of bytes in a snapshot of this detector taken now. Always {@link #STATE_SIZE} with the
+	 * default strategy and a fixed threshold. Can change as the stream goes on with other strategies.
+	 */
+	public int getStateSize()
+	{
+		return STREAM_STATE_SIZE + strategy.getStateSize(nextNormalizedSampleIndex);
+	}
+	
+	/**
+	 * @return A snapshot of the state of this detector.
+	 * 
+	 * @see #saveState(ByteBuffer)
+	 */
+	public byte[] saveState()
+	{
+		byte[] state = new byte[getStateSize()];
+		saveState(ByteBuffer.wrap(state));
+		return state;
+	}
+	
+	/**
+	 * Writes a snapshot of the state of this detector to the given buffer.<br />
+	 * <br />
+	 * The snapshot is {@link #getStateSize} bytes and holds everything needed to continue the stream: the time, the
+	 * leftover bytes and raw samples, the normalized sample history and the strategy's detection status. Restoring it
+	 * with {@link #restoreState} into a detector with the same kind of strategy and parameters makes it find the same
+	 * interrupts from the next byte of the stream on as this one would have. Listeners, metrics and the visualizer
+	 * are not part of the state.<br />
+	 * <br />
+	 * Must be called from the processing thread or while no data is being processed.
+	 * 
+	 * @param state - Buffer to write to, starting at its position. The position is advanced past the snapshot.
+	 * 
+	 * @throws java.nio.BufferOverflowException If there are fewer than {@link #getStateSize} bytes remaining.
+	 */
+	public void saveState(ByteBuffer state)
+	{
+		// always big-endian, no matter the order of the given buffer
+		ByteBuffer buffer = state.slice().order(ByteOrder.BIG_ENDIAN);
 		
-		// back-fill additional samples for the look-back interrupt checks
-		backfillToIndex -= NUM_NORMALIZED_SAMPLES_TO_BACKFILL_FOR_CHECKS;
+		int stateSize = getStateSize();
+		if (buffer.remaining() < stateSize)
+			throw new BufferOverflowException();
 		
-		if (backfillToIndex < 0)
-			backfillToIndex = 0;
+		buffer.putInt(STATE_FORMAT_VERSION);
+		buffer.putLong(time);
 		
-		int numBackfilledNormalizedSamples = normalizedSamples.length - backfillToIndex;
+		buffer.put((byte)numLeftoverBytes);
+		buffer.put(leftoverBytes, 0, SampleDecoder.MAX_BYTES_PER_SAMPLE - 1);
 		
-		// create an array for holding the back-filled normalized samples
-		backfilledNormalizedSamples = new AudioSample[numBackfilledNormalizedSamples];
+		buffer.putInt(groupTotalAmplitude);
+		buffer.put((byte)groupNumRawSamples);
 		
-		// copy to the back-fill array
-		for (int i = 0; i < numBackfilledNormalizedSamples; ++i)
-			backfilledNormalizedSamples[i] = normalizedSamples[backfillToIndex + i];
+		for (short amplitude : normalizedSampleAmplitudeHistory)
+			buffer.putShort(amplitude);
 		
-		// make the interrupt end normalized sample index relative
-		if (insidePossibleInterrupt && possibleInterruptPossibleEndNormalizedSampleIndex > -1)
-			possibleInterruptPossibleEndNormalizedSampleIndex -= backfillToIndex;
+		buffer.putLong(numNormalizedSamples);
+		buffer.putLong(nextNormalizedSampleIndex);
 		
+		strategy.saveState(buffer, nextNormalizedSampleIndex);
 		
-		// refresh the visualizer
-		if (visualizer != null)
-			visualizer.refresh();
+		state.position(state.position() + stateSize);
+	}
+	
+	/**
+	 * @see #restoreState(ByteBuffer)
+	 */
+	public void restoreState(byte[] state)
+	{
+		restoreState(ByteBuffer.wrap(state));
+	}
+	
+	/**
+	 * Replaces the state of this detector with a snapshot written by {@link #saveState}. The next byte processed is
+	 * treated as the byte after the last one processed before the snapshot was taken.<br />
+	 * <br />
+	 * Must be called from the processing thread or while no data is being processed. The state is left unchanged if
+	 * the snapshot is not valid.
+	 * 
+	 * @param state - Buffer to read from, starting at its position. The position is advanced past the snapshot.
+	 * 
+	 * @throws IllegalArgumentException If the snapshot is from an incompatible version or is not valid.
+	 * @throws java.nio.BufferUnderflowException If the snapshot is cut off.
+	 */
+	public void restoreState(ByteBuffer state)
+	{
+		ByteBuffer buffer = state.slice().order(ByteOrder.BIG_ENDIAN);
+		
+		if (buffer.remaining() < STREAM_STATE_SIZE)
+			throw new BufferUnderflowException();
+		
+		int version = buffer.getInt();
+		if (version != STATE_FORMAT_VERSION)
+			throw new IllegalArgumentException("Unsupported state format version " + version);
+		
+		// read everything before changing anything
+		long    newTime                     = buffer.getLong();
+		int     newNumLeftoverBytes         = buffer.get();
+		byte[]  newLeftoverBytes            = new byte[SampleDecoder.MAX_BYTES_PER_SAMPLE - 1];
+		buffer.get(newLeftoverBytes);
+		int     newGroupTotalAmplitude      = buffer.getInt();
+		int     newGroupNumRawSamples       = buffer.get();
+		
+		short[] newNormalizedSampleAmplitudeHistory = new short[NORMALIZED_SAMPLE_HISTORY_SIZE];
+		for (int i = 0; i < NORMALIZED_SAMPLE_HISTORY_SIZE; ++i)
+			newNormalizedSampleAmplitudeHistory[i] = buffer.getShort();
+		
+		long    newNumNormalizedSamples      = buffer.getLong();
+		long    newNextNormalizedSampleIndex = buffer.getLong();
+		
+		// the time must agree with the number of normalized samples and raw samples in the current group
+		if (newNumLeftoverBytes < 0 || newNumLeftoverBytes > newLeftoverBytes.length ||
+				newGroupNumRawSamples < 0 || newGroupNumRawSamples >= NUM_SAMPLES_IN_NORMALIZED_GROUP ||
+				newTime - AudioSample.TIME_MIN_VALUE != newNumNormalizedSamples * NUM_SAMPLES_IN_NORMALIZED_GROUP + newGroupNumRawSamples ||
+				newNextNormalizedSampleIndex < 0 || newNextNormalizedSampleIndex > newNumNormalizedSamples)
+			throw new IllegalArgumentException("Invalid state");
+		
+		// the strategy checks its own status and leaves it unchanged if it is not valid
+		strategy.restoreState(buffer, newNextNormalizedSampleIndex);
+		
+		time                      = newTime;
+		numLeftoverBytes          = newNumLeftoverBytes;
+		groupTotalAmplitude       = newGroupTotalAmplitude;
+		groupNumRawSamples        = newGroupNumRawSamples;
+		numNormalizedSamples      = newNumNormalizedSamples;
+		nextNormalizedSampleIndex = newNextNormalizedSampleIndex;
+		
+		System.arraycopy(newLeftoverBytes,                    0, leftoverBytes,                    0, newLeftoverBytes.length);
+		System.arraycopy(newNormalizedSampleAmplitudeHistory, 0, normalizedSampleAmplitudeHistory, 0, NORMALIZED_SAMPLE_HISTORY_SIZE);
+		
+		state.position(state.position() + buffer.position());
+	}
+	
+	
+	
+	// ===================================================================
+	// Stream Position and State
+	//
+	// Used by ParallelAudioInterruptDetector to split one stream up
+	// between several detectors.
+	// ===================================================================
+	
+	/**
+	 * Moves this detector to the given raw sample index in the stream as if all the samples before it had been
+	 * processed. Must be called before any data is processed.
+	 * 
+	 * @param sampleIndex - Raw sample index to start at. Must be a multiple of {@link #NUM_SAMPLES_IN_NORMALIZED_GROUP}.
+	 */
+	void seek(long sampleIndex)
+	{
+		time                      = AudioSample.TIME_MIN_VALUE + sampleIndex;
+		numNormalizedSamples      = sampleIndex / NUM_SAMPLES_IN_NORMALIZED_GROUP;
+		nextNormalizedSampleIndex = numNormalizedSamples;
+	}
+	
+	/**
+	 * Forgets the interrupt detection status and the sign of the last interrupt so this detector acts as if it
+	 * had not found any interrupts yet. The sample history is kept.
+	 */
+	void resetInterruptState()
+	{
+		strategy.resetState();
+	}
+	
+	/**
+	 * Checks if this detector is in the same interrupt detection status as the given detector.<br />
+	 * <br />
+	 * If both detectors are at the same position in the same stream, they will detect the same interrupts from
+	 * here on.
+	 * 
+	 * @param other - Detector to compare to.
+	 * 
+	 * @return If the interrupt detection status is the same.
+	 */
+	boolean hasSameInterruptState(AudioInterruptDetector other)
+	{
+		return strategy.hasSameState(other.strategy);
+	}
+	
+	/**
+	 * @return The index of the next raw sample in the stream.
+	 */
+	long getSampleIndex()
+	{
+		return time - AudioSample.TIME_MIN_VALUE;
+	}
+	
+	/**
+	 * @return The number of normalized samples created so far, including the ones skipped by {@link #seek}.
+	 */
+	long getNumNormalizedSamples()
+	{
+		return numNormalizedSamples;
+	}
+	
+	/**
+	 * @return The number of bytes of 16 bit audio data that must be processed before the next normalized sample is
+	 * created and no raw samples or bytes are left over.
+	 */
+	int getNumBytesToNormalizedSampleBoundary()
+	{
+		int numBytes = (NUM_SAMPLES_IN_NORMALIZED_GROUP - groupNumRawSamples) % NUM_SAMPLES_IN_NORMALIZED_GROUP * 2;
 		
-		// done!
-		return numInterrupts;
+		if (numLeftoverBytes == 1)
+			numBytes = numBytes == 0 ? NUM_SAMPLES_IN_NORMALIZED_GROUP * 2 - 1 : numBytes - 1;
+		
+		return numBytes;
 	}
 }
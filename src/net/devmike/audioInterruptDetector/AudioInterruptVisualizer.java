@@ -3,15 +3,19 @@ package net.devmike.audioInterruptDetector;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
-import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.Timer;
 
 
 public class AudioInterruptVisualizer
@@ -42,6 +46,20 @@ public class AudioInterruptVisualizer
 	// width of the visualization rounded up
 	private static int VISUALIZATION_WIDTH = (int)(DATA_STORE_DURATION * VISUALIZATION_X_SCALE + 0.5d);
 	
+	// how often the visualization is refreshed by default
+	public static final int DEFAULT_FRAMES_PER_SECOND = 30;
+	
+	// max number of samples waiting to be displayed. Enough for several frames of audio at 88200Hz
+	private static final int SAMPLE_BUFFER_SIZE = 128 * 1024;
+	
+	// amount of time covered by each column of pixels
+	private static final int TIME_PER_COLUMN = (int)(1 / VISUALIZATION_X_SCALE + 0.5d);
+	
+	// max number of sample columns and interrupts stored. Interrupts last at least 20 units of time, so these fill
+	// the data store duration
+	private static final int SAMPLE_ENVELOPE_SIZE   = VISUALIZATION_WIDTH + 1;
+	private static final int INTERRUPT_HISTORY_SIZE = DATA_STORE_DURATION / 20 + 1;
+	
 	// threshold used to calculate interrupts
 	private final short interruptAmplitudeThreshold;
 	
@@ -65,12 +83,29 @@ public class AudioInterruptVisualizer
 	private long totalNumRawSamples = 0;
 	
 	
+	// -------------------------------------------------------------------
+	// published data
+	// added to by the detection thread and taken out on the Swing thread every frame
+	
+	private final SampleBuffer     rawSampleBuffer        = new SampleBuffer(SAMPLE_BUFFER_SIZE);
+	private final SampleBuffer     normalizedSampleBuffer = new SampleBuffer(SAMPLE_BUFFER_SIZE);
+	private final Queue<Interrupt> interruptQueue         = new ConcurrentLinkedQueue<Interrupt>();
+	
+	// arrays to take samples out of the sample buffers into
+	private final long[]  takenSampleTimes      = new long [SAMPLE_BUFFER_SIZE];
+	private final short[] takenSampleAmplitudes = new short[SAMPLE_BUFFER_SIZE];
+	
+	
 	// -------------------------------------------------------------------
 	// visualization data
+	// only used on the Swing thread
+	
+	private final SampleEnvelope   rawSamples        = new SampleEnvelope(SAMPLE_ENVELOPE_SIZE);     // raw audio samples
+	private final SampleEnvelope   normalizedSamples = new SampleEnvelope(SAMPLE_ENVELOPE_SIZE);     // normalized audio samples
+	private final InterruptHistory interrupts        = new InterruptHistory(INTERRUPT_HISTORY_SIZE); // detected interrupts
 	
-	private ArrayList<AudioSample> rawSamples        = new ArrayList<AudioSample>(); // raw audio samples
-	private ArrayList<AudioSample> normalizedSamples = new ArrayList<AudioSample>(); // normalized audio samples
-	private ArrayList<Interrupt>   interrupts        = new ArrayList<Interrupt>();   // detected interrupts
+	// time of the newest raw sample
+	private long newestTime;
 	
 	// relative time for drawing the visualization
 	private long visualizationTimeOffset = AudioSample.TIME_MAX_VALUE;
@@ -96,6 +131,171 @@ public class AudioInterruptVisualizer
 	}
 	
 	
+	/**
+	 * Fixed size circular buffer of the min and max amplitudes of the samples in each column of pixels, oldest first.<br />
+	 * <br />
+	 * Samples are added to the envelope of their column as they arrive, so drawing takes one line per column no
+	 * matter how many samples there are. Each column also covers the last sample of the column before it so the lines
+	 * join up. Adding a column when the envelope is full overwrites the oldest column, so the memory used never grows.
+	 */
+	private static class SampleEnvelope
+	{
+		private final long[]  columns;    // column number of each column
+		private final long[]  startTimes; // time of the first sample in each column
+		private final short[] minAmplitudes;
+		private final short[] maxAmplitudes;
+		
+		private int start = 0; // index of the oldest column
+		private int size  = 0;
+		
+		private short lastAmplitude;
+		
+		SampleEnvelope(int capacity)
+		{
+			columns       = new long [capacity];
+			startTimes    = new long [capacity];
+			minAmplitudes = new short[capacity];
+			maxAmplitudes = new short[capacity];
+		}
+		
+		/**
+		 * Adds a sample to the envelope of its column. Samples must be added in order.
+		 */
+		void add(long time, short amplitude)
+		{
+			long column = getColumnForTime(time);
+			
+			if (size > 0 && columns[getBufferIndex(size - 1)] == column)
+			{
+				// widen the newest column
+				int index = getBufferIndex(size - 1);
+				if (amplitude < minAmplitudes[index]) minAmplitudes[index] = amplitude;
+				if (amplitude > maxAmplitudes[index]) maxAmplitudes[index] = amplitude;
+			}
+			else
+			{
+				// start a new column
+				int index = start + size;
+				if (index >= columns.length)
+					index -= columns.length;
+				
+				short previousAmplitude = size > 0? lastAmplitude : amplitude;
+				
+				columns      [index] = column;
+				startTimes   [index] = time;
+				minAmplitudes[index] = (short)Math.min(amplitude, previousAmplitude);
+				maxAmplitudes[index] = (short)Math.max(amplitude, previousAmplitude);
+				
+				if (size < columns.length)
+					++size;
+				else if (++start == columns.length)
+					start = 0;
+			}
+			
+			lastAmplitude = amplitude;
+		}
+		
+		/**
+		 * Removes the columns before the column of the given time. Only looks at the columns it removes.
+		 */
+		void removeOlderThan(long minTime)
+		{
+			long minColumn = getColumnForTime(minTime);
+			
+			while (size > 0 && columns[start] < minColumn)
+			{
+				if (++start == columns.length)
+					start = 0;
+				
+				--size;
+			}
+		}
+		
+		int size() { return size; }
+		
+		// index 0 is the oldest column
+		long  getStartTime   (int i) { return startTimes   [getBufferIndex(i)]; }
+		short getMinAmplitude(int i) { return minAmplitudes[getBufferIndex(i)]; }
+		short getMaxAmplitude(int i) { return maxAmplitudes[getBufferIndex(i)]; }
+		
+		private int getBufferIndex(int i)
+		{
+			int index = start + i;
+			return index < columns.length? index : index - columns.length;
+		}
+		
+		private static long getColumnForTime(long time)
+		{
+			return (time - AudioSample.TIME_MIN_VALUE) / TIME_PER_COLUMN;
+		}
+	}
+	
+	/**
+	 * Fixed size circular buffer of interrupts, oldest first.
+	 * 
+	 * @see SampleEnvelope
+	 */
+	private static class InterruptHistory
+	{
+		private final long[] startTimes;
+		private final long[] endTimes;
+		
+		private int start = 0; // index of the oldest interrupt
+		private int size  = 0;
+		
+		InterruptHistory(int capacity)
+		{
+			startTimes = new long[capacity];
+			endTimes   = new long[capacity];
+		}
+		
+		/**
+		 * Adds an interrupt as the newest one, overwriting the oldest one if the history is full.
+		 */
+		void add(long startTime, long endTime)
+		{
+			int index = start + size;
+			if (index >= startTimes.length)
+				index -= startTimes.length;
+			
+			startTimes[index] = startTime;
+			endTimes  [index] = endTime;
+			
+			if (size < startTimes.length)
+				++size;
+			else if (++start == startTimes.length)
+				start = 0;
+		}
+		
+		/**
+		 * Removes the interrupts that ended before the given time. Interrupts are added in order, so only the
+		 * interrupts removed are looked at.
+		 */
+		void removeEndedBefore(long minTime)
+		{
+			while (size > 0 && endTimes[start] < minTime)
+			{
+				if (++start == startTimes.length)
+					start = 0;
+				
+				--size;
+			}
+		}
+		
+		int size() { return size; }
+		
+		// index 0 is the oldest interrupt
+		long getStartTime(int i) { return startTimes[getBufferIndex(i)]; }
+		long getEndTime  (int i) { return endTimes  [getBufferIndex(i)]; }
+		
+		private int getBufferIndex(int i)
+		{
+			int index = start + i;
+			return index < startTimes.length? index : index - startTimes.length;
+		}
+	}
+	
+	
 	
 	// ===================================================================
 	// Methods
@@ -108,6 +308,17 @@ public class AudioInterruptVisualizer
 	 * @param interruptAmplitudeThreshold - threshold used to calculate interrupts
 	 */
 	public AudioInterruptVisualizer(short interruptAmplitudeThreshold)
+	{
+		this(interruptAmplitudeThreshold, DEFAULT_FRAMES_PER_SECOND);
+	}
+	
+	/**
+	 * Creates a window for visualizing audio samples and detected interrupts.
+	 * 
+	 * @param interruptAmplitudeThreshold - threshold used to calculate interrupts
+	 * @param framesPerSecond             - how many times a second the visualization is refreshed
+	 */
+	public AudioInterruptVisualizer(short interruptAmplitudeThreshold, int framesPerSecond)
 	{
 		this.interruptAmplitudeThreshold = interruptAmplitudeThreshold;
 		
@@ -134,7 +345,7 @@ public class AudioInterruptVisualizer
 				VISUALIZATION_X_SCALE = 0.01d;
 				VISUALIZATION_Y_SCALE = (double)VISUALIZATION_Y_RANGE / AudioSample.AMPLITUDE_MAX_VALUE; // scale so amplitude values will fit in the Y range
 			}
-
+			
 			public void componentHidden(ComponentEvent e) {}
 			public void componentMoved(ComponentEvent e) {}
 			public void componentShown(ComponentEvent e) {}
@@ -167,65 +378,100 @@ public class AudioInterruptVisualizer
 				VISUALIZATION_WIDTH,
 				SCREEN_HEIGHT - (int)scroller.getHorizontalScrollBar().getPreferredSize().getHeight()));
 		panel.revalidate();
+		
+		// refresh on the Swing thread at the frame rate
+		Timer refreshTimer = new Timer(1000 / framesPerSecond, new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				refresh();
+			}
+		});
+		refreshTimer.start();
 	}
 	
 	
 	
 	/**
-	 * Adds a sample to the list of raw samples to be displayed.<br />
+	 * Publishes a raw sample to be displayed.<br />
 	 * <br />
-	 * Make sure to call {@link #refresh} after adding samples.
-	 * @see #refresh
+	 * Can be called from any one thread, usually the detection thread. The sample is displayed on the next frame.
+	 * If the visualization falls too far behind, samples are dropped.
 	 * 
-	 * @param sample - Raw sample to add.
+	 * @param time      - Time of the sample.
+	 * @param amplitude - Amplitude of the sample.
 	 */
-	public void addRawSample(AudioSample sample)
+	public void addRawSample(long time, short amplitude)
 	{
-		rawSamples.add(sample);
-		++totalNumRawSamples;
+		rawSampleBuffer.put(time, amplitude);
 	}
 	
 	/**
-	 * Adds a sample to the list of normalized samples to be displayed.<br />
-	 * <br />
-	 * Make sure to call {@link #refresh} after adding samples.
-	 * @see #refresh
+	 * Publishes a normalized sample to be displayed.
 	 * 
-	 * @param sample - Normalized sample to add.
+	 * @see #addRawSample
+	 * 
+	 * @param time      - Time of the sample.
+	 * @param amplitude - Amplitude of the sample.
 	 */
-	public void addNormalizedSample(AudioSample sample)
+	public void addNormalizedSample(long time, short amplitude)
 	{
-		normalizedSamples.add(sample);
+		normalizedSampleBuffer.put(time, amplitude);
 	}
 	
 	/**
-	 * Adds an interrupt to the list of interrupts to be displayed.
+	 * Publishes an interrupt to be displayed.
 	 * 
-	 * @param interrupt - Interrupt to add.
+	 * @param startTime - Start time of the interrupt.
+	 * @param endTime   - End time of the interrupt.
 	 */
-	public void addInterrupt(Interrupt interrupt)
+	public void addInterrupt(long startTime, long endTime)
 	{
-		interrupts.add(interrupt);
-		++totalNumInterrupts;
+		interruptQueue.add(new Interrupt(startTime, endTime));
 	}
 	
 	
 	/**
-	 * Resets the display and removes old data.<br />
+	 * Takes the published data, removes old data and redraws.<br />
 	 * <br />
-	 * This should be called after one or more samples are added via {@link #addRawSample} or {@link #addNormalizedSample}.
+	 * Called on the Swing thread every frame.
 	 */
-	public void refresh()
+	private void refresh()
 	{
+		// take the published data
+		int numSamples = rawSampleBuffer.take(takenSampleTimes, takenSampleAmplitudes);
+		for (int i = 0; i < numSamples; ++i)
+			rawSamples.add(takenSampleTimes[i], takenSampleAmplitudes[i]);
+		
+		if (numSamples > 0)
+			newestTime = takenSampleTimes[numSamples - 1];
+		
+		totalNumRawSamples += numSamples;
+		
+		numSamples = normalizedSampleBuffer.take(takenSampleTimes, takenSampleAmplitudes);
+		for (int i = 0; i < numSamples; ++i)
+			normalizedSamples.add(takenSampleTimes[i], takenSampleAmplitudes[i]);
+		
+		Interrupt interrupt;
+		while ((interrupt = interruptQueue.poll()) != null)
+		{
+			interrupts.add(interrupt.startTime, interrupt.endTime);
+			++totalNumInterrupts;
+		}
+		
+		// nothing to show yet
+		if (rawSamples.size() == 0)
+			return;
+		
 		// remove old samples
-		removeOldSamples(rawSamples,        DATA_STORE_DURATION);
-		removeOldSamples(normalizedSamples, DATA_STORE_DURATION);
+		rawSamples       .removeOlderThan(newestTime - DATA_STORE_DURATION);
+		normalizedSamples.removeOlderThan(newestTime - DATA_STORE_DURATION);
 		
 		// the oldest time comes from the oldest sample
-		long oldestTime = rawSamples.get(0).time;
+		long oldestTime = rawSamples.getStartTime(0);
 		
 		// remove old interrupts
-		removeOldInterrupts(interrupts, oldestTime);
+		interrupts.removeEndedBefore(oldestTime);
 		
 		// set the time offset so the oldest time will be displayed at X=0
 		visualizationTimeOffset = -oldestTime;
@@ -235,62 +481,6 @@ public class AudioInterruptVisualizer
 	}
 	
 	
-	/**
-	 * Removes all samples from the list that are too old
-	 * 
-	 * @param samples - List to remove samples from.
-	 * @param minTime - If samples are older than this time, they will be removed.
-	 */
-	private void removeOldSamples(ArrayList<AudioSample> samples, int storeDuration)
-	{
-		// because we assume 1 unit of time between samples, we can use the indexes as relative time
-		int numSamplesToRemove = samples.size() - storeDuration;
-		
-		// make sure we have something to remove
-		if (numSamplesToRemove <= 0)
-			return;
-		
-		// remove the old samples
-		samples.subList(0, numSamplesToRemove).clear();
-	}
-	
-	/**
-	 * Removes all interrupts from the list whose end time is older than the given time.
-	 * 
-	 * @param interrupts - List to remove interrupts from.
-	 * @param oldestTime - If interrupts are older than this time, they will be removed.
-	 */
-	private void removeOldInterrupts(ArrayList<Interrupt> interrupts, long oldestTime)
-	{
-		int firstInterruptToSaveIndex = -1;
-		for (int i = 0; i < interrupts.size(); ++i)
-		{
-			Interrupt interrupt = interrupts.get(i);
-			
-			// find the first interrupt that is not too old
-			if (interrupt.endTime >= oldestTime)
-			{
-				firstInterruptToSaveIndex = i;
-				break;
-			}
-		}
-		
-		// if we found an interrupt that is not too old...
-		if (firstInterruptToSaveIndex > -1)
-		{
-			// remove the old interrupts
-			interrupts.subList(0, firstInterruptToSaveIndex).clear();
-		}
-		else
-		{
-			// they are all too old, remove them all
-			interrupts.clear();
-		}
-	}
-	
-	
-	
-	
 	/**
 	 * Draws the visualization.
 	 * 
@@ -303,26 +493,27 @@ public class AudioInterruptVisualizer
 		
 		for (int i = 0; i < interrupts.size(); ++i)
 		{
-			Interrupt interrupt = interrupts.get(i);
+			long startTime = interrupts.getStartTime(i);
+			long endTime   = interrupts.getEndTime  (i);
 			
 			// draw a box from the interrupt's start time to end time
 			g.setColor(Color.LIGHT_GRAY);
 			g.fillRect(
-					getXForTime(interrupt.startTime),
+					getXForTime(startTime),
 					0,
-					(int)((interrupt.endTime - interrupt.startTime) * VISUALIZATION_X_SCALE),
+					(int)((endTime - startTime) * VISUALIZATION_X_SCALE),
 					SCREEN_HEIGHT);
 			
 			// draw a line on the interrupt's start time
 			g.setColor(Color.DARK_GRAY);
 			g.drawLine(
-					getXForTime(interrupt.startTime), 0,
-					getXForTime(interrupt.startTime), SCREEN_HEIGHT);
+					getXForTime(startTime), 0,
+					getXForTime(startTime), SCREEN_HEIGHT);
 			
 			// draw a line on the interrupt's end time
 			g.drawLine(
-					getXForTime(interrupt.endTime), 0,
-					getXForTime(interrupt.endTime), SCREEN_HEIGHT);
+					getXForTime(endTime), 0,
+					getXForTime(endTime), SCREEN_HEIGHT);
 		}
 		
 		
@@ -366,17 +557,8 @@ public class AudioInterruptVisualizer
 		// -------------------------------------------------------------------
 		// raw samples
 		
-		/*g.setColor(Color.BLACK);
-		for (int i = 1; i < rawSamples.size(); ++i)
-		{
-			AudioSample sample         = rawSamples.get(i);
-			AudioSample previousSample = rawSamples.get(i - 1);
-			
-			// draw a line from the previous sample to this one
-			g.drawLine(
-					getXForTime(previousSample.time), getYForAmplitude(previousSample.amplitude),
-					getXForTime(sample        .time), getYForAmplitude(sample        .amplitude));
-		}*/
+		g.setColor(Color.BLACK);
+		drawEnvelope(g, rawSamples);
 		
 		
 		
@@ -384,27 +566,7 @@ public class AudioInterruptVisualizer
 		// normalized samples
 		
 		g.setColor(Color.RED);
-		for (int i = 1; i < normalizedSamples.size(); ++i)
-		{
-			AudioSample sample         = normalizedSamples.get(i);
-			AudioSample previousSample = normalizedSamples.get(i - 1);
-			
-			// draw a line from the previous sample to this one
-			g.drawLine(
-					getXForTime(previousSample.time), getYForAmplitude(previousSample.amplitude),
-					getXForTime(sample        .time), getYForAmplitude(sample        .amplitude));
-		}
-		
-		// draw tick marks on each normalized sample
-		/*g.setColor(Color.BLACK);
-		for (int i = 0; i < normalizedSamples.size(); ++i)
-		{
-			AudioSample sample = normalizedSamples.get(i);
-			
-			g.drawLine(
-					getXForTime(sample.time), getYForAmplitude(sample.amplitude) - 5,
-					getXForTime(sample.time), getYForAmplitude(sample.amplitude) + 5);
-		}*/
+		drawEnvelope(g, normalizedSamples);
 		
 		
 		
@@ -416,6 +578,25 @@ public class AudioInterruptVisualizer
 		g.drawString("X: "                 + scrollPosX,         scrollPosX + 20, 15);
 		g.drawString("Interrupts: "        + totalNumInterrupts, scrollPosX + 20, 30);
 		g.drawString("Samples Processed: " + totalNumRawSamples, scrollPosX + 20, 45);
+		g.drawString("Samples Dropped: "   + rawSampleBuffer.getNumDropped(), scrollPosX + 20, 60);
+	}
+	
+	/**
+	 * Draws a vertical line from the min to the max amplitude of each column of samples.
+	 * 
+	 * @param g        - Graphics to draw with.
+	 * @param envelope - Envelope of the samples to draw.
+	 */
+	private void drawEnvelope(Graphics g, SampleEnvelope envelope)
+	{
+		for (int i = 0; i < envelope.size(); ++i)
+		{
+			int x = getXForTime(envelope.getStartTime(i));
+			
+			g.drawLine(
+					x, getYForAmplitude(envelope.getMinAmplitude(i)),
+					x, getYForAmplitude(envelope.getMaxAmplitude(i)));
+		}
 	}
 	
 	/**
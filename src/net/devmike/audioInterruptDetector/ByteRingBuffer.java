@@ -0,0 +1,120 @@
+package net.devmike.audioInterruptDetector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size ring buffer for passing bytes from one thread to another without locks.<br />
+ * <br />
+ * Only one thread may write bytes and only one thread may read them. Neither ever waits: writing stops when the
+ * buffer is full and reading stops when it is empty, leaving the rest to the caller.
+ */
+class ByteRingBuffer
+{
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	// ring buffer of bytes. Indexed by the byte number masked with the buffer mask
+	private final int    bufferMask;
+	private final byte[] buffer;
+	
+	// number of bytes written to and read from the buffer
+	private final AtomicLong numWritten = new AtomicLong();
+	private final AtomicLong numRead    = new AtomicLong();
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * @param capacity - Max number of bytes waiting to be read. Rounded up to a power of 2.
+	 */
+	ByteRingBuffer(int capacity)
+	{
+		int bufferSize = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		bufferMask = bufferSize - 1;
+		buffer     = new byte[bufferSize];
+	}
+	
+	/**
+	 * Writes as many bytes as fit in the buffer, a multiple of the given frame size. Called on the writing thread.
+	 * 
+	 * @param data      - Bytes to write.
+	 * @param offset    - Offset to start from.
+	 * @param length    - Number of bytes to write.
+	 * @param frameSize - Only whole frames of this many bytes are written.
+	 * 
+	 * @return The number of bytes written.
+	 */
+	int write(byte[] data, int offset, int length, int frameSize)
+	{
+		long written = numWritten.get();
+		int numFree = buffer.length - (int)(written - numRead.get());
+		
+		int numBytes = Math.min(length, numFree);
+		numBytes -= numBytes % frameSize;
+		
+		// copy in up to 2 parts, the second one wrapping around to the start of the buffer
+		int index = (int)(written & bufferMask);
+		int firstPartLength = Math.min(numBytes, buffer.length - index);
+		System.arraycopy(data, offset,                   buffer, index, firstPartLength);
+		System.arraycopy(data, offset + firstPartLength, buffer, 0,     numBytes - firstPartLength);
+		
+		// publish the bytes
+		numWritten.set(written + numBytes);
+		return numBytes;
+	}
+	
+	/**
+	 * Reads as many bytes as are available and fit. Called on the reading thread.
+	 * 
+	 * @param data      - Array to read into.
+	 * @param offset    - Offset to start from.
+	 * @param maxLength - Max number of bytes to read.
+	 * 
+	 * @return The number of bytes read.
+	 */
+	int read(byte[] data, int offset, int maxLength)
+	{
+		long read = numRead.get();
+		int numBytes = (int)Math.min(numWritten.get() - read, maxLength);
+		
+		// copy out in up to 2 parts
+		int index = (int)(read & bufferMask);
+		int firstPartLength = Math.min(numBytes, buffer.length - index);
+		System.arraycopy(buffer, index, data, offset,                   firstPartLength);
+		System.arraycopy(buffer, 0,     data, offset + firstPartLength, numBytes - firstPartLength);
+		
+		// free up the space
+		numRead.lazySet(read + numBytes);
+		return numBytes;
+	}
+	
+	/**
+	 * @return If there are no bytes to read.
+	 */
+	boolean isEmpty()
+	{
+		return numWritten.get() == numRead.get();
+	}
+	
+	/**
+	 * @return The number of bytes waiting to be read.
+	 */
+	int getNumBytesAvailable()
+	{
+		return (int)(numWritten.get() - numRead.get());
+	}
+	
+	/**
+	 * @return The max number of bytes the buffer can hold.
+	 */
+	int getCapacity()
+	{
+		return buffer.length;
+	}
+}
@@ -0,0 +1,19 @@
+package net.devmike.audioInterruptDetector;
+
+/**
+ * Receives interrupts as they are detected by a {@link MultiChannelAudioInterruptDetector}.<br />
+ * <br />
+ * The interrupt is passed as primitives so no objects are created for each interrupt.
+ */
+public interface ChannelInterruptListener
+{
+	/**
+	 * Called on the detection thread every time an interrupt is detected.
+	 * 
+	 * @param channel   - Index of the channel the interrupt was detected in, starting at 0.
+	 * @param startTime - Start time of the interrupt.
+	 * @param endTime   - End time of the interrupt.
+	 * @param sign      - Sign of the interrupt's amplitude (1 or -1). Defines what side the "wave" was on.
+	 */
+	public void onInterrupt(int channel, long startTime, long endTime, int sign);
+}
@@ -0,0 +1,250 @@
+package net.devmike.audioInterruptDetector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides what is an interrupt from the normalized samples of an {@link AudioInterruptDetector}, or of one channel of
+ * a {@link MultiChannelAudioInterruptDetector}.<br />
+ * <br />
+ * The detector does the decoding, averages the raw samples into normalized samples and keeps a short history of them.
+ * Each normalized sample is then passed to the strategy exactly once, in order, with
+ * {@link #processNormalizedSample}. Strategies that need the full bandwidth of the audio can also be passed every raw
+ * sample before it is averaged (see {@link #needsRawSamples}). The strategy notifies the detector of the interrupts
+ * it finds with {@link #notifyInterrupt} and the detector passes them on to the visualizer and listeners.
+ * <ul>
+ * <li>{@link ThresholdDetectionStrategy} - an amplitude threshold and a sharp rise or fall. The default</li>
+ * <li>{@link GoertzelDetectionStrategy} - bursts of a known frequency, for AC-coupled or modulated signals</li>
+ * </ul>
+ * A strategy keeps the detection status of one stream, so each detector (or channel) needs its own. Its methods are
+ * only called from the thread processing the detector's data.
+ */
+public abstract class DetectionStrategy
+{
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	// the detector (or channel of a detector) this strategy belongs to
+	private Host host;
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * What a strategy needs from the detector it belongs to: the history of the stream it detects interrupts in and
+	 * somewhere to send them.
+	 */
+	interface Host
+	{
+		/**
+		 * @see DetectionStrategy#getNormalizedSampleAmplitude
+		 */
+		short getNormalizedSampleAmplitude(long normalizedSampleIndex);
+		
+		/**
+		 * @see DetectionStrategy#notifyInterrupt
+		 */
+		void notifyInterrupt(long startTime, long endTime, int sign);
+		
+		/**
+		 * @see DetectionStrategy#recordAbandonedInterrupt
+		 */
+		void recordAbandonedInterrupt();
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Makes this strategy the strategy of the given detector or channel.
+	 * 
+	 * @param host - Detector or channel to belong to.
+	 * 
+	 * @throws IllegalStateException If this strategy already belongs to a detector.
+	 */
+	final void attach(Host host)
+	{
+		if (this.host != null)
+			throw new IllegalStateException("The strategy already belongs to a detector");
+		
+		this.host = host;
+	}
+	
+	
+	/**
+	 * Looks for interrupts in the next normalized sample.<br />
+	 * <br />
+	 * Called once for every normalized sample, in order, except the ones skipped while they are not louder than
+	 * {@link #getQuietAmplitude}. No objects should be created.
+	 * 
+	 * @param normalizedSampleIndex - Index of the normalized sample in the stream.
+	 * @param amplitude             - Amplitude of the normalized sample.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	protected abstract int processNormalizedSample(long normalizedSampleIndex, short amplitude);
+	
+	/**
+	 * Returns if {@link #processRawSample} must be called for every raw sample. Asked once, when the strategy is given
+	 * to a detector.
+	 * 
+	 * @return If the raw samples are needed. False unless overridden.
+	 */
+	protected boolean needsRawSamples()
+	{
+		return false;
+	}
+	
+	/**
+	 * Looks for interrupts in the next raw sample, before it is averaged into a normalized sample.<br />
+	 * <br />
+	 * Only called if {@link #needsRawSamples}, once for every raw sample, in order. Called before the normalized
+	 * sample the raw sample is part of is processed. No objects should be created.
+	 * 
+	 * @param time      - Time of the raw sample.
+	 * @param amplitude - Amplitude of the raw sample.
+	 * 
+	 * @return The number of interrupts detected. 0 unless overridden.
+	 */
+	protected int processRawSample(long time, short amplitude)
+	{
+		return 0;
+	}
+	
+	/**
+	 * Returns the amplitude normalized samples must exceed to change anything right now.<br />
+	 * <br />
+	 * While this is 0 or more, the detector may skip normalized samples that are not louder than it (in either
+	 * direction) without passing them to {@link #processNormalizedSample}. They are still in the history.
+	 * 
+	 * @return The amplitude, or -1 if every normalized sample must be processed. -1 unless overridden.
+	 */
+	protected int getQuietAmplitude()
+	{
+		return -1;
+	}
+	
+	/**
+	 * @return The number of normalized samples already processed that may still end up part of an interrupt that
+	 * has not been notified yet. Recorded in the metrics. 0 unless overridden.
+	 */
+	protected long getNumPendingNormalizedSamples()
+	{
+		return 0;
+	}
+	
+	
+	/**
+	 * @param nextNormalizedSampleIndex - Index of the next normalized sample to process.
+	 * 
+	 * @return The number of bytes {@link #saveState} writes with the same index. 0 unless overridden.
+	 */
+	protected int getStateSize(long nextNormalizedSampleIndex)
+	{
+		return 0;
+	}
+	
+	/**
+	 * Writes the detection status to a detector snapshot.
+	 * 
+	 * @param state                     - Buffer to write exactly {@link #getStateSize} bytes to, big-endian. Has room
+	 *                                    for at least that many.
+	 * @param nextNormalizedSampleIndex - Index of the next normalized sample to process.
+	 */
+	protected void saveState(ByteBuffer state, long nextNormalizedSampleIndex)
+	{
+	}
+	
+	/**
+	 * Replaces the detection status with one written by {@link #saveState}. Must read everything the status is made
+	 * of and must not change anything if it is not valid, including if the buffer ends early.<br />
+	 * <br />
+	 * Called before the detector restores its own state, so the history and sample counts are still the old ones.
+	 * 
+	 * @param state                     - Buffer to read the status from, big-endian.
+	 * @param nextNormalizedSampleIndex - Index of the next normalized sample to process once restored.
+	 * 
+	 * @throws IllegalArgumentException If the status is not valid.
+	 */
+	protected void restoreState(ByteBuffer state, long nextNormalizedSampleIndex)
+	{
+	}
+	
+	
+	/**
+	 * Forgets the detection status so the strategy acts as if it had not found any interrupts yet. Used by
+	 * {@link ParallelAudioInterruptDetector}, which only uses {@link ThresholdDetectionStrategy}.
+	 */
+	void resetState()
+	{
+	}
+	
+	/**
+	 * Checks if this strategy is in the same detection status as the given one. Used by
+	 * {@link ParallelAudioInterruptDetector}, which only uses {@link ThresholdDetectionStrategy}.
+	 * 
+	 * @param other - Strategy to compare to.
+	 * 
+	 * @return If the detection status is the same. Always false unless overridden.
+	 */
+	boolean hasSameState(DetectionStrategy other)
+	{
+		return false;
+	}
+	
+	
+	/**
+	 * Returns the amplitude of the normalized sample with the given index from the detector's history.<br />
+	 * <br />
+	 * Only the last {@link AudioInterruptDetector#NORMALIZED_SAMPLE_HISTORY_SIZE} normalized samples are available.
+	 * 
+	 * @param normalizedSampleIndex - Index of the normalized sample.
+	 * 
+	 * @return The amplitude of the normalized sample.
+	 */
+	protected final short getNormalizedSampleAmplitude(long normalizedSampleIndex)
+	{
+		return host.getNormalizedSampleAmplitude(normalizedSampleIndex);
+	}
+	
+	/**
+	 * Returns the time of the normalized sample with the given index: the time of the first raw sample in its group.
+	 * 
+	 * @param normalizedSampleIndex - Index of the normalized sample.
+	 * 
+	 * @return The time of the normalized sample.
+	 */
+	protected static long getNormalizedSampleTime(long normalizedSampleIndex)
+	{
+		return AudioInterruptDetector.getNormalizedSampleTime(normalizedSampleIndex);
+	}
+	
+	/**
+	 * Notifies the detector's visualizer and listeners of an interrupt.
+	 * 
+	 * @param startTime - Start time of the interrupt.
+	 * @param endTime   - End time of the interrupt.
+	 * @param sign      - Sign of the interrupt (1 or -1).
+	 */
+	protected final void notifyInterrupt(long startTime, long endTime, int sign)
+	{
+		host.notifyInterrupt(startTime, endTime, sign);
+	}
+	
+	/**
+	 * Records a possible interrupt that was given up on for being too long in the detector's metrics, if any.
+	 */
+	protected final void recordAbandonedInterrupt()
+	{
+		host.recordAbandonedInterrupt();
+	}
+}
@@ -0,0 +1,451 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Health and latency metrics for one or more {@link AudioInterruptDetector}s.<br />
+ * <br />
+ * Attach to a detector with {@link AudioInterruptDetector#setMetrics}. Several detectors on different threads may
+ * share the same metrics. Recording only adds to {@link LongAdder}s, so it is cheap enough to leave on and never
+ * blocks the detection threads. The metrics can be read over JMX after {@link #register} and as plain text over
+ * HTTP after {@link #startTextEndpoint}.<br />
+ * <br />
+ * The rates are the change in the totals over the last whole second. The totals are sampled on a fixed schedule from
+ * when the metrics are first registered, served or read, so the rates are the same no matter how often or by whom
+ * they are read. They are 0 until the first second has passed.<br />
+ * <br />
+ * The latency histogram counts {@link AudioInterruptDetector#processAudioData} calls by duration in powers of 2:
+ * bucket <code>i</code> counts calls that took less than <code>2^i</code> nanoseconds (and at least
+ * <code>2^(i-1)</code>).
+ */
+public class DetectorMetrics implements DetectorMetricsMBean
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	public static final int NUM_LATENCY_BUCKETS = 64;
+	
+	// domain and type of the JMX object names
+	public static final String OBJECT_NAME_PREFIX = "net.devmike.audioInterruptDetector:type=DetectorMetrics,name=";
+	
+	// time between samples of the totals the rates are calculated from
+	private static final long RATE_INTERVAL_NANOS = 1000000000L;
+	
+	// samples the totals of all the metrics. A daemon thread, so it never keeps the JVM running
+	private static final ScheduledExecutorService RATE_SAMPLER = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "DetectorMetrics rate sampler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	// prefix of the names in the text format
+	private static final String TEXT_NAME_PREFIX = "audio_interrupt_detector_";
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	// totals
+	private final LongAdder numSamples             = new LongAdder();
+	private final LongAdder numBytes               = new LongAdder();
+	private final LongAdder numInterrupts          = new LongAdder();
+	private final LongAdder numAbandonedInterrupts = new LongAdder();
+	private final LongAdder numCaptureOverruns     = new LongAdder();
+	private final LongAdder numCaptureBytesDropped = new LongAdder();
+	
+	// latency
+	private final LongAdder[]     latencyBuckets    = new LongAdder[NUM_LATENCY_BUCKETS];
+	private final LongAdder       totalLatencyNanos = new LongAdder();
+	private final LongAccumulator maxLatencyNanos   = new LongAccumulator(Math::max, 0);
+	
+	// gauges
+	private volatile long         captureBacklog  = 0;
+	private volatile long         backfillSize    = 0;
+	private final LongAccumulator maxBackfillSize = new LongAccumulator(Math::max, 0);
+	
+	// totals at the last sample. Only used by the rate sampler thread
+	private boolean rateSampled       = false;
+	private long    rateNanoTime      = 0;
+	private long    rateNumSamples    = 0;
+	private long    rateNumBytes      = 0;
+	private long    rateNumInterrupts = 0;
+	
+	// rates over the interval before the last sample
+	private volatile double samplesPerSecond    = 0;
+	private volatile double bytesPerSecond      = 0;
+	private volatile double interruptsPerSecond = 0;
+	
+	private boolean rateSamplingStarted = false;
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * Samples the totals of one metrics on the sampler thread. Only holds on to the metrics weakly, so metrics no
+	 * longer used anywhere else stop being sampled once they are collected.
+	 */
+	private static class RateSampler implements Runnable
+	{
+		private final WeakReference<DetectorMetrics> metrics;
+		private volatile ScheduledFuture<?>          future;
+		
+		RateSampler(DetectorMetrics metrics)
+		{
+			this.metrics = new WeakReference<DetectorMetrics>(metrics);
+		}
+		
+		public void run()
+		{
+			DetectorMetrics metrics = this.metrics.get();
+			if (metrics != null)
+				metrics.sampleRates();
+			else if (future != null)
+				future.cancel(false);
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	public DetectorMetrics()
+	{
+		for (int i = 0; i < NUM_LATENCY_BUCKETS; ++i)
+			latencyBuckets[i] = new LongAdder();
+	}
+	
+	
+	// -------------------------------------------------------------------
+	// recording
+	
+	/**
+	 * Records a call to {@link AudioInterruptDetector#processAudioData}.
+	 * 
+	 * @param numBytes      - Number of bytes given.
+	 * @param numSamples    - Number of raw samples processed.
+	 * @param numInterrupts - Number of interrupts detected.
+	 * @param latencyNanos  - How long the call took.
+	 * @param backfillSize  - Number of normalized samples since the possible end of the possible interrupt after the call.
+	 */
+	void recordCall(long numBytes, long numSamples, int numInterrupts, long latencyNanos, long backfillSize)
+	{
+		this.numBytes     .add(numBytes);
+		this.numSamples   .add(numSamples);
+		this.numInterrupts.add(numInterrupts);
+		
+		latencyBuckets[getLatencyBucket(latencyNanos)].increment();
+		totalLatencyNanos.add(latencyNanos);
+		maxLatencyNanos  .accumulate(latencyNanos);
+		
+		this.backfillSize = backfillSize;
+		maxBackfillSize.accumulate(backfillSize);
+	}
+	
+	/**
+	 * Records a possible interrupt that was abandoned for lasting longer than the max interrupt duration.
+	 */
+	void recordAbandonedInterrupt()
+	{
+		numAbandonedInterrupts.increment();
+	}
+	
+	/**
+	 * Records captured audio that was dropped because processing could not keep up.
+	 * 
+	 * @param numBytes - Number of bytes dropped.
+	 */
+	void recordCaptureOverrun(long numBytes)
+	{
+		numCaptureOverruns    .increment();
+		numCaptureBytesDropped.add(numBytes);
+	}
+	
+	/**
+	 * Records how much captured audio is waiting to be processed, for example {@link javax.sound.sampled.DataLine#available()}.
+	 * 
+	 * @param numBytes - Number of bytes waiting.
+	 */
+	public void setCaptureBacklog(long numBytes)
+	{
+		captureBacklog = numBytes;
+	}
+	
+	
+	private static int getLatencyBucket(long latencyNanos)
+	{
+		return Math.min(64 - Long.numberOfLeadingZeros(Math.max(latencyNanos, 0)), NUM_LATENCY_BUCKETS - 1);
+	}
+	
+	
+	// -------------------------------------------------------------------
+	// publishing
+	
+	/**
+	 * Registers the metrics with the platform MBean server.
+	 * 
+	 * @param name - Name to tell these metrics apart from others, used as the <code>name</code> key of the object name.
+	 * 
+	 * @return The object name the metrics were registered under.
+	 * 
+	 * @throws JMException If the metrics could not be registered, for example if the name is already used.
+	 */
+	public ObjectName register(String name) throws JMException
+	{
+		startRateSampling();
+		
+		ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		
+		return objectName;
+	}
+	
+	/**
+	 * Starts an HTTP server that responds to every request with the metrics in the text format of {@link #toText}.
+	 * 
+	 * @param port - Port to listen on or 0 for any free port.
+	 * 
+	 * @return The server. Stop it to stop the endpoint.
+	 * 
+	 * @throws IOException If the port could not be opened.
+	 */
+	public HttpServer startTextEndpoint(int port) throws IOException
+	{
+		startRateSampling();
+		
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+				
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				
+				try (OutputStream out = exchange.getResponseBody())
+				{
+					out.write(body);
+				}
+			}
+		});
+		
+		// the server creates its own thread
+		server.start();
+		return server;
+	}
+	
+	/**
+	 * Formats the metrics in the Prometheus text format, one value per line.
+	 * 
+	 * @return The metrics as text.
+	 */
+	public String toText()
+	{
+		StringBuilder text = new StringBuilder();
+		
+		appendText(text, "samples_total",               "counter", getNumSamples());
+		appendText(text, "bytes_total",                 "counter", getNumBytes());
+		appendText(text, "interrupts_total",            "counter", getNumInterrupts());
+		appendText(text, "abandoned_interrupts_total",  "counter", getNumAbandonedInterrupts());
+		appendText(text, "capture_overruns_total",      "counter", getNumCaptureOverruns());
+		appendText(text, "capture_dropped_bytes_total", "counter", getNumCaptureBytesDropped());
+		appendText(text, "samples_per_second",          "gauge",   getSamplesPerSecond());
+		appendText(text, "bytes_per_second",            "gauge",   getBytesPerSecond());
+		appendText(text, "interrupts_per_second",       "gauge",   getInterruptsPerSecond());
+		appendText(text, "capture_backlog_bytes",       "gauge",   getCaptureBacklog());
+		appendText(text, "backfill_size",               "gauge",   getBackfillSize());
+		appendText(text, "max_backfill_size",           "gauge",   getMaxBackfillSize());
+		
+		// cumulative histogram buckets up to the largest one used
+		long[] latencyHistogram = getLatencyHistogram();
+		int lastBucket = NUM_LATENCY_BUCKETS - 1;
+		while (lastBucket > 0 && latencyHistogram[lastBucket] == 0)
+			--lastBucket;
+		
+		String name = TEXT_NAME_PREFIX + "latency_nanos";
+		text.append("# TYPE ").append(name).append(" histogram\n");
+		
+		long numCalls = 0;
+		for (int i = 0; i <= lastBucket; ++i)
+		{
+			numCalls += latencyHistogram[i];
+			text.append(name).append("_bucket{le=\"").append(getLatencyBucketLimit(i)).append("\"} ").append(numCalls).append('\n');
+		}
+		
+		text.append(name).append("_bucket{le=\"+Inf\"} ").append(numCalls).append('\n');
+		text.append(name).append("_sum ").append(totalLatencyNanos.sum()).append('\n');
+		text.append(name).append("_count ").append(numCalls).append('\n');
+		
+		return text.toString();
+	}
+	
+	private static void appendText(StringBuilder text, String name, String type, Object value)
+	{
+		text.append("# TYPE ").append(TEXT_NAME_PREFIX).append(name).append(' ').append(type).append('\n');
+		text.append(TEXT_NAME_PREFIX).append(name).append(' ').append(value).append('\n');
+	}
+	
+	
+	// -------------------------------------------------------------------
+	// rates
+	
+	/**
+	 * Starts sampling the totals once per interval, if it has not been started yet.
+	 */
+	private synchronized void startRateSampling()
+	{
+		if (rateSamplingStarted)
+			return;
+		
+		rateSamplingStarted = true;
+		
+		// the first sample is taken right away so the first rates cover a whole interval
+		RateSampler sampler = new RateSampler(this);
+		sampler.future = RATE_SAMPLER.scheduleAtFixedRate(sampler, 0, RATE_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Samples the totals and calculates the rates since the last sample. Called on the sampler thread.
+	 */
+	private void sampleRates()
+	{
+		long nanoTime = System.nanoTime();
+		
+		long numSamples    = getNumSamples();
+		long numBytes      = getNumBytes();
+		long numInterrupts = getNumInterrupts();
+		
+		if (rateSampled)
+		{
+			double seconds = (nanoTime - rateNanoTime) / 1000000000d;
+			
+			samplesPerSecond    = (numSamples    - rateNumSamples   ) / seconds;
+			bytesPerSecond      = (numBytes      - rateNumBytes     ) / seconds;
+			interruptsPerSecond = (numInterrupts - rateNumInterrupts) / seconds;
+		}
+		
+		rateSampled       = true;
+		rateNanoTime      = nanoTime;
+		rateNumSamples    = numSamples;
+		rateNumBytes      = numBytes;
+		rateNumInterrupts = numInterrupts;
+	}
+	
+	
+	// -------------------------------------------------------------------
+	// latency
+	
+	/**
+	 * Returns the latency below which the given fraction of the calls fall.
+	 * 
+	 * @param fraction - Fraction of the calls between 0 and 1.
+	 * 
+	 * @return The upper limit of the histogram bucket the fraction falls in or 0 if there have been no calls.
+	 */
+	private long getLatencyPercentile(double fraction)
+	{
+		long[] latencyHistogram = getLatencyHistogram();
+		
+		long numCalls = 0;
+		for (int i = 0; i < NUM_LATENCY_BUCKETS; ++i)
+			numCalls += latencyHistogram[i];
+		
+		if (numCalls == 0)
+			return 0;
+		
+		long targetNumCalls = (long)Math.ceil(numCalls * fraction);
+		
+		numCalls = 0;
+		for (int i = 0; i < NUM_LATENCY_BUCKETS; ++i)
+		{
+			numCalls += latencyHistogram[i];
+			if (numCalls >= targetNumCalls)
+				return getLatencyBucketLimit(i);
+		}
+		
+		return getLatencyBucketLimit(NUM_LATENCY_BUCKETS - 1);
+	}
+	
+	/**
+	 * @return The latency in nanoseconds all the calls counted in the given bucket are below.
+	 */
+	private static long getLatencyBucketLimit(int bucket)
+	{
+		return bucket < 63 ? 1L << bucket : Long.MAX_VALUE;
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	public long getNumSamples            () { return numSamples            .sum(); }
+	public long getNumBytes              () { return numBytes              .sum(); }
+	public long getNumInterrupts         () { return numInterrupts         .sum(); }
+	public long getNumAbandonedInterrupts() { return numAbandonedInterrupts.sum(); }
+	public long getNumCaptureOverruns    () { return numCaptureOverruns    .sum(); }
+	public long getNumCaptureBytesDropped() { return numCaptureBytesDropped.sum(); }
+	
+	public double getSamplesPerSecond   () { startRateSampling(); return samplesPerSecond;    }
+	public double getBytesPerSecond     () { startRateSampling(); return bytesPerSecond;      }
+	public double getInterruptsPerSecond() { startRateSampling(); return interruptsPerSecond; }
+	
+	public long getNumCalls()
+	{
+		long numCalls = 0;
+		for (int i = 0; i < NUM_LATENCY_BUCKETS; ++i)
+			numCalls += latencyBuckets[i].sum();
+		
+		return numCalls;
+	}
+	
+	public long[] getLatencyHistogram()
+	{
+		long[] latencyHistogram = new long[NUM_LATENCY_BUCKETS];
+		for (int i = 0; i < NUM_LATENCY_BUCKETS; ++i)
+			latencyHistogram[i] = latencyBuckets[i].sum();
+		
+		return latencyHistogram;
+	}
+	
+	public long getLatencyP50Nanos() { return getLatencyPercentile(0.50d); }
+	public long getLatencyP99Nanos() { return getLatencyPercentile(0.99d); }
+	public long getMaxLatencyNanos() { return maxLatencyNanos.get();       }
+	
+	public long getCaptureBacklog () { return captureBacklog;        }
+	public long getBackfillSize   () { return backfillSize;          }
+	public long getMaxBackfillSize() { return maxBackfillSize.get(); }
+}
@@ -0,0 +1,32 @@
+package net.devmike.audioInterruptDetector;
+
+/**
+ * JMX view of {@link DetectorMetrics}.
+ */
+public interface DetectorMetricsMBean
+{
+	// totals
+	long getNumSamples();
+	long getNumBytes();
+	long getNumInterrupts();
+	long getNumAbandonedInterrupts();
+	long getNumCaptureOverruns();
+	long getNumCaptureBytesDropped();
+	
+	// rates over the last few seconds
+	double getSamplesPerSecond();
+	double getBytesPerSecond();
+	double getInterruptsPerSecond();
+	
+	// processAudioData latency
+	long   getNumCalls();
+	long[] getLatencyHistogram();
+	long   getLatencyP50Nanos();
+	long   getLatencyP99Nanos();
+	long   getMaxLatencyNanos();
+	
+	// gauges
+	long getCaptureBacklog();
+	long getBackfillSize();
+	long getMaxBackfillSize();
+}
@@ -0,0 +1,380 @@
+package net.devmike.audioInterruptDetector;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Detects interrupts in many independent audio streams using a fixed number of worker threads.<br />
+ * <br />
+ * Each stream has its own {@link AudioInterruptDetector} and a mailbox of audio data waiting to be processed.
+ * Audio data for any stream can be added from any thread. When data is added to an idle stream, the stream is
+ * scheduled on a worker thread which processes its mailbox. A stream is only ever scheduled once at a time, so the
+ * data of each stream is processed in order by one thread at a time without any locks shared between streams.<br />
+ * <br />
+ * If the detector of a stream throws while processing its data, the stream is removed from the pool and the rest of
+ * its data is discarded.
+ */
+public class DetectorPool
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// the max number of buffers to process for a stream before giving other streams a turn
+	private static final int MAX_BUFFERS_PER_TURN = 16;
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final ExecutorService workers;
+	
+	private final ConcurrentHashMap<String, Stream> streams = new ConcurrentHashMap<String, Stream>();
+	
+	// totals of all streams, including removed ones. Added to as each buffer is processed, so they never go backwards
+	// when a stream is removed
+	private final LongAdder totalNumBytesProcessed = new LongAdder();
+	private final LongAdder totalNumInterrupts     = new LongAdder();
+	
+	// number of bytes added to all mailboxes that have not been processed or discarded yet, and the thread waiting in
+	// shutdown for it to reach 0
+	private final AtomicLong numBytesPending = new AtomicLong();
+	private volatile Thread  shutdownThread  = null;
+	
+	private final long createdNanoTime = System.nanoTime();
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * A stream with its own detector and mailbox.
+	 */
+	private class Stream implements Runnable
+	{
+		final String                 id;
+		final AudioInterruptDetector detector = new AudioInterruptDetector();
+		
+		// audio data waiting to be processed
+		final Queue<ByteBuffer> mailbox = new ConcurrentLinkedQueue<ByteBuffer>();
+		
+		// if the stream has been handed to a worker
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+		
+		// added to by any thread
+		final AtomicLong numBytesAdded = new AtomicLong();
+		
+		// only written by the worker processing the stream
+		volatile long numBytesProcessed = 0;
+		volatile long numInterrupts     = 0;
+		
+		// set once the stream has been removed from the pool. Its data is discarded from then on
+		volatile boolean removed = false;
+		
+		Stream(String id)
+		{
+			this.id = id;
+		}
+		
+		/**
+		 * Hands the stream to a worker if it is not already scheduled.
+		 */
+		void schedule()
+		{
+			if (scheduled.compareAndSet(false, true))
+				workers.execute(this);
+		}
+		
+		public void run()
+		{
+			try
+			{
+				ByteBuffer data;
+				for (int i = 0; i < MAX_BUFFERS_PER_TURN && !removed && (data = mailbox.poll()) != null; ++i)
+				{
+					int numBytes = data.remaining();
+					try
+					{
+						int numBufferInterrupts = detector.processAudioData(data);
+						numInterrupts += numBufferInterrupts;
+						totalNumInterrupts.add(numBufferInterrupts);
+					}
+					catch (RuntimeException | Error e)
+					{
+						// the detector can't be trusted anymore
+						removed = true;
+						streams.remove(id, this);
+						
+						throw e;
+					}
+					finally
+					{
+						// the buffer is used up either way
+						numBytesProcessed += numBytes;
+						totalNumBytesProcessed.add(numBytes);
+						onBytesConsumed(numBytes);
+					}
+				}
+			}
+			finally
+			{
+				scheduled.set(false);
+				
+				// this is the last turn to process anything once the stream is removed. Removing the stream while
+				// the turn was running could not schedule another one, so the turn has to see it here
+				if (removed)
+					discard();
+			}
+			
+			// data may have been added after we stopped looking
+			if (!mailbox.isEmpty())
+				schedule();
+		}
+		
+		/**
+		 * Discards the data left in the mailbox.
+		 */
+		void discard()
+		{
+			ByteBuffer data;
+			while ((data = mailbox.poll()) != null)
+				onBytesConsumed(data.remaining());
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a pool that uses a worker thread for each processor.
+	 */
+	public DetectorPool()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a pool.
+	 * 
+	 * @param numWorkers - Number of worker threads to process streams on.
+	 */
+	public DetectorPool(int numWorkers)
+	{
+		workers = Executors.newFixedThreadPool(numWorkers);
+	}
+	
+	
+	/**
+	 * Adds a stream to the pool.
+	 * 
+	 * @param streamId          - ID of the stream.
+	 * @param interruptListener - Listener to notify of the stream's interrupts or null for none. It is notified on a
+	 *                            worker thread, one interrupt at a time.
+	 * 
+	 * @throws IllegalArgumentException If a stream with the given ID already exists.
+	 */
+	public void addStream(String streamId, InterruptListener interruptListener)
+	{
+		Stream stream = new Stream(streamId);
+		if (interruptListener != null)
+			stream.detector.addInterruptListener(interruptListener);
+		
+		if (streams.putIfAbsent(streamId, stream) != null)
+			throw new IllegalArgumentException("Stream already exists: " + streamId);
+	}
+	
+	/**
+	 * Removes a stream from the pool. Audio data still waiting to be processed is discarded. A buffer that is being
+	 * processed is finished on its worker. What the stream processed stays in the totals.
+	 * 
+	 * @param streamId - ID of the stream.
+	 */
+	public void removeStream(String streamId)
+	{
+		Stream stream = streams.remove(streamId);
+		if (stream == null)
+			return;
+		
+		// the stream's next turn discards its data. If it is in the middle of a turn, the turn does it as it ends
+		stream.removed = true;
+		stream.schedule();
+	}
+	
+	
+	/**
+	 * Adds audio data to a stream's mailbox to be processed on a worker thread.<br />
+	 * <br />
+	 * The remaining data in the buffer is processed as described in {@link AudioInterruptDetector#processAudioData(ByteBuffer)}.
+	 * The buffer is not copied, so its content must not be changed until it has been processed.
+	 * 
+	 * @param streamId - ID of the stream.
+	 * @param data     - Audio data.
+	 * 
+	 * @throws IllegalArgumentException If there is no stream with the given ID.
+	 */
+	public void processAudioData(String streamId, ByteBuffer data)
+	{
+		Stream stream = getStream(streamId);
+		
+		numBytesPending.addAndGet(data.remaining());
+		
+		stream.numBytesAdded.addAndGet(data.remaining());
+		stream.mailbox.add(data);
+		stream.schedule();
+	}
+	
+	/**
+	 * Counts bytes taken out of a mailbox and wakes up shutdown once there are none left.
+	 * 
+	 * @param numBytes - Number of bytes processed or discarded.
+	 */
+	private void onBytesConsumed(long numBytes)
+	{
+		if (numBytesPending.addAndGet(-numBytes) == 0)
+		{
+			Thread thread = shutdownThread;
+			if (thread != null)
+				LockSupport.unpark(thread);
+		}
+	}
+	
+	
+	/**
+	 * Stops the worker threads once all the audio data waiting to be processed has been processed.
+	 * 
+	 * @param timeout - Max time to wait.
+	 * @param unit    - Unit of the timeout.
+	 * 
+	 * @return If all the data was processed before the timeout.
+	 * 
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadlineNanoTime = System.nanoTime() + unit.toNanos(timeout);
+		
+		// streams reschedule themselves while they have data, so wait for the mailboxes to empty before stopping. The
+		// worker that consumes the last byte wakes us up
+		shutdownThread = Thread.currentThread();
+		try
+		{
+			long remainingNanoTime;
+			while (numBytesPending.get() > 0 && (remainingNanoTime = deadlineNanoTime - System.nanoTime()) > 0)
+			{
+				LockSupport.parkNanos(this, remainingNanoTime);
+				
+				if (Thread.interrupted())
+					throw new InterruptedException();
+			}
+		}
+		finally
+		{
+			shutdownThread = null;
+		}
+		
+		workers.shutdown();
+		return workers.awaitTermination(Math.max(deadlineNanoTime - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+	}
+	
+	
+	private Stream getStream(String streamId)
+	{
+		Stream stream = streams.get(streamId);
+		if (stream == null)
+			throw new IllegalArgumentException("No such stream: " + streamId);
+		
+		return stream;
+	}
+	
+	
+	
+	// ===================================================================
+	// Stats
+	//
+	// ===================================================================
+	
+	/**
+	 * @return The number of streams in the pool.
+	 */
+	public int getNumStreams()
+	{
+		return streams.size();
+	}
+	
+	/**
+	 * @param streamId - ID of the stream.
+	 * 
+	 * @return The number of bytes added to the stream that have not been processed yet.
+	 */
+	public long getLag(String streamId)
+	{
+		Stream stream = getStream(streamId);
+		return stream.numBytesAdded.get() - stream.numBytesProcessed;
+	}
+	
+	/**
+	 * @param streamId - ID of the stream.
+	 * 
+	 * @return The number of interrupts detected in the stream.
+	 */
+	public long getNumInterrupts(String streamId)
+	{
+		return getStream(streamId).numInterrupts;
+	}
+	
+	/**
+	 * @return The number of bytes added to all streams that have not been processed yet.
+	 */
+	public long getTotalLag()
+	{
+		long totalLag = 0;
+		for (Stream stream : streams.values())
+			totalLag += stream.numBytesAdded.get() - stream.numBytesProcessed;
+		
+		return totalLag;
+	}
+	
+	/**
+	 * @return The number of bytes processed by all streams, including removed ones.
+	 */
+	public long getTotalNumBytesProcessed()
+	{
+		return totalNumBytesProcessed.sum();
+	}
+	
+	/**
+	 * @return The number of interrupts detected in all streams, including removed ones.
+	 */
+	public long getTotalNumInterrupts()
+	{
+		return totalNumInterrupts.sum();
+	}
+	
+	/**
+	 * @return The average number of bytes processed per second since the pool was created.
+	 */
+	public double getThroughput()
+	{
+		return getTotalNumBytesProcessed() / ((System.nanoTime() - createdNanoTime) / 1000000000d);
+	}
+}
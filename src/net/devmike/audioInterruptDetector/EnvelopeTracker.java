@@ -0,0 +1,190 @@
+package net.devmike.audioInterruptDetector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tracks the peak magnitude of the last few normalized samples of a stream.<br />
+ * <br />
+ * The samples that could still become the peak are kept in a monotonic deque: newer samples push out older ones that
+ * are not louder, and the oldest ones drop off the front as they leave the window. The front is always the peak. Each
+ * sample is added and removed at most once, so tracking costs O(1) per sample amortized. The deque is a ring of fixed
+ * size, so nothing is created after construction.<br />
+ * <br />
+ * Samples that are not louder than a given magnitude are treated as silent. They are never kept, which keeps the
+ * deque short while the signal is around the noise floor.
+ */
+class EnvelopeTracker
+{
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	// number of normalized samples in the window
+	private final int windowLength;
+	
+	// magnitude samples must exceed to be kept
+	private final int minMagnitude;
+	
+	// deque of the samples that could still become the peak, oldest first. Their indexes increase and their magnitudes
+	// decrease from front to back. Indexed by position masked with mask
+	private final long[] indexes;
+	private final int[]  magnitudes;
+	private final int    mask;
+	
+	private int front = 0; // position of the oldest sample
+	private int size  = 0; // number of samples in the deque
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * @param windowLength - Number of normalized samples to track the peak over. At least 1.
+	 * @param minMagnitude - Magnitude samples must exceed to not be treated as silent.
+	 */
+	EnvelopeTracker(int windowLength, int minMagnitude)
+	{
+		this.windowLength = windowLength;
+		this.minMagnitude = minMagnitude;
+		
+		// the deque never holds more than the window
+		int capacity = Integer.highestOneBit(windowLength);
+		if (capacity < windowLength)
+			capacity <<= 1;
+		
+		indexes    = new long[capacity];
+		magnitudes = new int [capacity];
+		mask       = capacity - 1;
+	}
+	
+	/**
+	 * Adds a normalized sample. Samples must be added in order. Samples that are skipped count as silent.
+	 * 
+	 * @param normalizedSampleIndex - Index of the normalized sample.
+	 * @param amplitude             - Amplitude of the normalized sample.
+	 * 
+	 * @return The peak magnitude of the samples in the window that ends with this one, or 0 if they are all treated as
+	 * silent.
+	 */
+	int add(long normalizedSampleIndex, short amplitude)
+	{
+		int magnitude = Math.abs(amplitude);
+		
+		// drop the samples that have left the window
+		while (size > 0 && indexes[front] <= normalizedSampleIndex - windowLength)
+		{
+			front = (front + 1) & mask;
+			--size;
+		}
+		
+		if (magnitude <= minMagnitude)
+			return size > 0 ? magnitudes[front] : 0;
+		
+		// drop the samples that can never be the peak again
+		while (size > 0 && magnitudes[(front + size - 1) & mask] <= magnitude)
+			--size;
+		
+		int back = (front + size) & mask;
+		indexes   [back] = normalizedSampleIndex;
+		magnitudes[back] = magnitude;
+		++size;
+		
+		return magnitudes[front];
+	}
+	
+	
+	/**
+	 * Returns the number of samples in the deque that will still be in the window when the given sample is added.
+	 * 
+	 * @param nextNormalizedSampleIndex - Index of the next normalized sample to add.
+	 * 
+	 * @return The number of samples. They are at the back of the deque.
+	 */
+	private int getNumLiveSamples(long nextNormalizedSampleIndex)
+	{
+		// the samples that will have left the window are at the front
+		int first = 0;
+		while (first < size && indexes[(front + first) & mask] <= nextNormalizedSampleIndex - windowLength)
+			++first;
+		
+		return size - first;
+	}
+	
+	/**
+	 * @param nextNormalizedSampleIndex - Index of the next normalized sample to add.
+	 * 
+	 * @return The number of bytes {@link #saveState} writes with the same index.
+	 */
+	int getStateSize(long nextNormalizedSampleIndex)
+	{
+		return 4 + getNumLiveSamples(nextNormalizedSampleIndex) * (4 + 2);
+	}
+	
+	/**
+	 * Writes the deque to a state snapshot: the number of samples followed by the samples. The indexes are written
+	 * relative to the next normalized sample so they fit in an int. Samples that will have left the window by then are
+	 * left out, so the deque usually only takes a few bytes.
+	 * 
+	 * @param state                     - Buffer to write {@link #getStateSize} bytes to.
+	 * @param nextNormalizedSampleIndex - Index of the next normalized sample to add.
+	 */
+	void saveState(ByteBuffer state, long nextNormalizedSampleIndex)
+	{
+		int numLiveSamples = getNumLiveSamples(nextNormalizedSampleIndex);
+		state.putInt(numLiveSamples);
+		
+		for (int i = size - numLiveSamples; i < size; ++i)
+		{
+			int position = (front + i) & mask;
+			
+			state.putInt ((int)(nextNormalizedSampleIndex - indexes[position]));
+			state.putChar((char)magnitudes[position]);
+		}
+	}
+	
+	/**
+	 * Replaces the deque with one written by {@link #saveState}. Nothing is changed if it is not valid.
+	 * 
+	 * @param state                     - Buffer to read the deque from.
+	 * @param nextNormalizedSampleIndex - Index of the next normalized sample to add.
+	 * 
+	 * @throws IllegalArgumentException If the deque is not valid.
+	 */
+	void restoreState(ByteBuffer state, long nextNormalizedSampleIndex)
+	{
+		// every sample is within the window, so there are fewer than the window's length
+		int newSize = state.getInt();
+		if (newSize < 0 || newSize >= windowLength)
+			throw new IllegalArgumentException("Invalid state");
+		
+		// read everything before changing anything
+		int[] newOffsets    = new int[newSize];
+		int[] newMagnitudes = new int[newSize];
+		for (int i = 0; i < newSize; ++i)
+		{
+			int offset    = state.getInt();
+			int magnitude = state.getChar();
+			
+			// newer and quieter from front to back, all within the window and loud enough to be kept
+			if (offset < 1 || offset >= windowLength || magnitude <= minMagnitude || magnitude > -Short.MIN_VALUE ||
+					(i > 0 && (offset >= newOffsets[i - 1] || magnitude >= newMagnitudes[i - 1])))
+				throw new IllegalArgumentException("Invalid state");
+			
+			newOffsets   [i] = offset;
+			newMagnitudes[i] = magnitude;
+		}
+		
+		front = 0;
+		size  = newSize;
+		
+		for (int i = 0; i < newSize; ++i)
+		{
+			indexes   [i] = nextNormalizedSampleIndex - newOffsets[i];
+			magnitudes[i] = newMagnitudes[i];
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package net.devmike.audioInterruptDetector;
+
+/**
+ * Turns the interrupts from a flow meter into a flow rate and a total volume as they are detected.<br />
+ * <br />
+ * Add the meter as a listener to an {@link AudioInterruptDetector}. Every interrupt counts as one pulse of the flow
+ * meter. Three values are kept up to date:
+ * <ul>
+ * <li>instantaneous rate - from the time between the last two pulses</li>
+ * <li>smoothed rate - from the number of pulses in a sliding window of time ending at the last pulse, or at any time
+ * after it</li>
+ * <li>total volume - from the total number of pulses</li>
+ * </ul>
+ * Volume is measured in whatever unit the K-factor (pulses per unit of volume) is given in, and rates are in units
+ * of volume per second. Each pulse takes constant time on average no matter how many pulses are in the window.<br />
+ * <br />
+ * The values are only written by the detection thread and can be read from any thread without locks while
+ * detection continues. They are updated on every pulse, so on their own they keep their last value when the flow
+ * slows down or stops. Pass the current time to {@link #getSmoothedRate(long)} to count the pulses in the window
+ * ending then instead, so the rate follows the flow between pulses and drops to 0 once the last pulse has slid out
+ * of the window, or use {@link #getLastPulseTime} to tell how old the values are.
+ */
+public class FlowRateMeter implements InterruptListener
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// initial number of pulses the window can hold. Grows as needed
+	private static final int INITIAL_WINDOW_BUFFER_SIZE = 64;
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final double pulsesPerUnit;  // K-factor
+	private final int    sampleRate;     // number of time units per second
+	private final long   windowDuration; // in time units
+	
+	// start times of the last pulses, at least the ones in the window. Indexed by the pulse number masked with the
+	// buffer mask. Only written by the detection thread. Other threads can read the start time of a pulse until it is
+	// written over by the pulse a buffer length after it
+	private volatile long[] windowStartTimes = new long[INITIAL_WINDOW_BUFFER_SIZE];
+	private int             windowBufferMask = INITIAL_WINDOW_BUFFER_SIZE - 1;
+	private long            windowFirstPulse = 0; // pulse number of the oldest pulse in the window
+	
+	// published values. Only written by the detection thread
+	private volatile long   numPulses         = 0;
+	private volatile long   lastPulseTime     = AudioSample.TIME_MIN_VALUE;
+	private volatile double instantaneousRate = 0;
+	private volatile double smoothedRate      = 0;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a meter for audio with a sample rate of 44100Hz.
+	 * 
+	 * @see #FlowRateMeter(double, double, int)
+	 */
+	public FlowRateMeter(double pulsesPerUnit, double windowSeconds)
+	{
+		this(pulsesPerUnit, windowSeconds, 44100);
+	}
+	
+	/**
+	 * Creates a meter.
+	 * 
+	 * @param pulsesPerUnit - K-factor of the flow meter: the number of pulses per unit of volume.
+	 * @param windowSeconds - Duration of the sliding window the smoothed rate is calculated over in seconds.
+	 * @param sampleRate    - Sample rate of the audio, used to convert the detector's time units to seconds.
+	 * 
+	 * @throws IllegalArgumentException If any of the values are not positive.
+	 */
+	public FlowRateMeter(double pulsesPerUnit, double windowSeconds, int sampleRate)
+	{
+		if (!(pulsesPerUnit > 0) || !(windowSeconds > 0) || sampleRate <= 0)
+			throw new IllegalArgumentException("K-factor, window and sample rate must be positive");
+		
+		this.pulsesPerUnit  = pulsesPerUnit;
+		this.sampleRate     = sampleRate;
+		this.windowDuration = Math.max((long)(windowSeconds * sampleRate), 1);
+	}
+	
+	
+	/**
+	 * Counts the interrupt as a pulse and updates the rates. Called on the detection thread.
+	 */
+	public void onInterrupt(long startTime, long endTime, int sign)
+	{
+		long   pulse      = numPulses;
+		long[] startTimes = windowStartTimes;
+		
+		// instantaneous rate from the time since the last pulse
+		if (pulse > 0 && startTime > lastPulseTime)
+			instantaneousRate = sampleRate / (double)(startTime - lastPulseTime) / pulsesPerUnit;
+		
+		// remove the pulses that have slid out of the window. Each pulse is only removed once
+		while (windowFirstPulse < pulse && startTime - startTimes[(int)(windowFirstPulse & windowBufferMask)] >= windowDuration)
+			++windowFirstPulse;
+		
+		// add the pulse to the window, making room if needed
+		if (pulse - windowFirstPulse > windowBufferMask)
+			startTimes = growWindowBuffer(pulse);
+		
+		startTimes[(int)(pulse & windowBufferMask)] = startTime;
+		
+		long numWindowPulses = pulse + 1 - windowFirstPulse;
+		smoothedRate = numWindowPulses * (double)sampleRate / windowDuration / pulsesPerUnit;
+		
+		lastPulseTime = startTime;
+		numPulses     = pulse + 1;
+	}
+	
+	/**
+	 * Doubles the size of the window buffer, keeping all the pulses in it. The old buffer is not written to again, so
+	 * other threads can finish reading it.
+	 * 
+	 * @param pulse - Number of the pulse about to be added.
+	 * 
+	 * @return The new buffer.
+	 */
+	private long[] growWindowBuffer(long pulse)
+	{
+		long[] oldWindowStartTimes = windowStartTimes;
+		long[] newWindowStartTimes = new long[oldWindowStartTimes.length * 2];
+		int    newWindowBufferMask = newWindowStartTimes.length - 1;
+		
+		for (long p = Math.max(pulse - oldWindowStartTimes.length, 0); p < pulse; ++p)
+			newWindowStartTimes[(int)(p & newWindowBufferMask)] = oldWindowStartTimes[(int)(p & windowBufferMask)];
+		
+		windowStartTimes = newWindowStartTimes;
+		windowBufferMask = newWindowBufferMask;
+		
+		return newWindowStartTimes;
+	}
+	
+	
+	/**
+	 * Counts the pulses that started after one time, up to and including another. Called on any thread.
+	 * 
+	 * @return The number of pulses, or -1 if pulses added in the meantime were written over the ones counted.
+	 */
+	private long countPulses(long fromTime, long toTime)
+	{
+		// the start times of all the pulses up to this one are written
+		long   numPulses  = this.numPulses;
+		long[] startTimes = windowStartTimes;
+		long   oldest     = Math.max(numPulses - startTimes.length, 0);
+		
+		long count = findFirstPulseAfter(startTimes, oldest, numPulses, toTime) - findFirstPulseAfter(startTimes, oldest, numPulses, fromTime);
+		
+		// each pulse added since is written over the one a buffer length before it
+		if (this.numPulses - startTimes.length > oldest)
+			return -1;
+		
+		return count;
+	}
+	
+	/**
+	 * Finds the first pulse in a range of pulses that started after the given time. Times are compared by their
+	 * difference, so a time before {@link AudioSample#TIME_MIN_VALUE} that wrapped around still works.
+	 * 
+	 * @return The pulse number, or the end of the range if none did.
+	 */
+	private static long findFirstPulseAfter(long[] startTimes, long low, long high, long time)
+	{
+		int mask = startTimes.length - 1;
+		while (low < high)
+		{
+			long mid = (low + high) >>> 1;
+			if (startTimes[(int)(mid & mask)] - time <= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		
+		return low;
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	/**
+	 * @return The flow rate in units of volume per second from the time between the last two pulses. 0 until there
+	 * have been 2 pulses.
+	 */
+	public double getInstantaneousRate()
+	{
+		return instantaneousRate;
+	}
+	
+	/**
+	 * @return The flow rate in units of volume per second from the number of pulses in the window ending at the last
+	 * pulse.
+	 */
+	public double getSmoothedRate()
+	{
+		return smoothedRate;
+	}
+	
+	/**
+	 * Gets the smoothed rate as of the given time. The window ends at the given time instead of the last pulse, so a
+	 * flow that slows down shows as soon as pulses slide out of the window, and no flow shows as 0 once the last
+	 * pulse is a whole window old.
+	 * 
+	 * @param currentTime - Current time in the detector's time units, such as {@link AudioInterruptDetector#getTime}.
+	 *                      Should not be before the last pulse, whose window may no longer hold the older pulses.
+	 * 
+	 * @return The flow rate in units of volume per second from the number of pulses that started within the window
+	 * duration before the current time.
+	 */
+	public double getSmoothedRate(long currentTime)
+	{
+		long numWindowPulses;
+		do
+			numWindowPulses = countPulses(currentTime - windowDuration, currentTime);
+		while (numWindowPulses < 0);
+		
+		return numWindowPulses * (double)sampleRate / windowDuration / pulsesPerUnit;
+	}
+	
+	/**
+	 * @return The total volume measured so far.
+	 */
+	public double getTotalVolume()
+	{
+		return numPulses / pulsesPerUnit;
+	}
+	
+	/**
+	 * @return The number of pulses counted so far.
+	 */
+	public long getNumPulses()
+	{
+		return numPulses;
+	}
+	
+	/**
+	 * @return The start time of the last pulse in the detector's time units, or {@link AudioSample#TIME_MIN_VALUE}
+	 * if there have not been any.
+	 */
+	public long getLastPulseTime()
+	{
+		return lastPulseTime;
+	}
+}
@@ -0,0 +1,221 @@
+package net.devmike.audioInterruptDetector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DetectionStrategy} that recognizes interrupts as bursts of a tone of a known frequency, for meters that are
+ * AC-coupled or send their pulses as a modulated carrier.<br />
+ * <br />
+ * The raw samples are split into blocks of a fixed length, counted from the start of the stream, and the strength of
+ * the tone in each block is measured with the Goertzel algorithm: one multiply and two adds per sample and no
+ * buffering. A block is on if the tone's amplitude in it is above the threshold. An interrupt starts at the first block
+ * of a run of on blocks and ends at the first block after it that is off. Runs that are too short are ignored and runs
+ * that go on for longer than the max duration are abandoned.<br />
+ * <br />
+ * The tone is measured on the raw samples, before they are averaged into normalized samples, so any tone below half
+ * the sample rate can be used, even at low sample rates. Durations are rounded to whole blocks. Tone bursts don't have
+ * a side, so every interrupt has a sign of 1.
+ */
+public class GoertzelDetectionStrategy extends DetectionStrategy
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// number of raw samples in a block, unless another is given
+	public static final int DEFAULT_BLOCK_LENGTH = 160;
+	
+	// number of bytes of the detection status in a state snapshot
+	private static final int STATE_SIZE =
+			8 + 8 +     // filter state
+			1 + 1 + 8;  // burst
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	// detection parameters
+	private final int blockLength;
+	private final int minInterruptDuration;
+	private final int maxInterruptDuration;
+	
+	// Goertzel filter coefficient (2cos of the tone's angular frequency per raw sample) and the power a block must
+	// exceed to be on
+	private final double coefficient;
+	private final double powerThreshold;
+	
+	// filter state of the current block: the last two outputs
+	private double s1 = 0;
+	private double s2 = 0;
+	
+	// burst status
+	private boolean insideBurst    = false; // if the last block was on
+	private boolean abandonedBurst = false; // if the current burst went on for too long and is ignored until it ends
+	private long    burstStartTime = 0;     // start time of the first block of the current burst
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a strategy for audio with a sample rate of 44100Hz with the default block length and durations.
+	 * 
+	 * @param toneFrequency      - Frequency of the tone in Hz.
+	 * @param amplitudeThreshold - Amplitude the tone must exceed for a block to be part of an interrupt.
+	 * 
+	 * @throws IllegalArgumentException If the frequency is not below half the sample rate or the threshold is not
+	 *                                  positive.
+	 */
+	public GoertzelDetectionStrategy(double toneFrequency, short amplitudeThreshold)
+	{
+		this(toneFrequency, 44100, DEFAULT_BLOCK_LENGTH, amplitudeThreshold, AudioInterruptDetector.MIN_INTERRUPT_DURATION, AudioInterruptDetector.MAX_INTERRUPT_DURATION);
+	}
+	
+	/**
+	 * Creates a strategy with the given detection parameters.
+	 * 
+	 * @param toneFrequency        - Frequency of the tone in Hz.
+	 * @param sampleRate           - Sample rate of the audio in Hz.
+	 * @param blockLength          - Number of raw samples to measure the tone over at a time. Longer blocks pick out
+	 *                               the tone better from noise and other frequencies but round durations more.
+	 * @param amplitudeThreshold   - Amplitude the tone must exceed for a block to be part of an interrupt.
+	 * @param minInterruptDuration - Min duration of a valid interrupt in raw samples.
+	 * @param maxInterruptDuration - Max duration of a valid interrupt in raw samples. Longer bursts are abandoned.
+	 * 
+	 * @throws IllegalArgumentException If the frequency is not below half the sample rate or any other parameter is not
+	 *                                  valid.
+	 */
+	public GoertzelDetectionStrategy(double toneFrequency, int sampleRate, int blockLength, short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration)
+	{
+		if (!(toneFrequency > 0 && toneFrequency < sampleRate / 2d) || blockLength < 1 || amplitudeThreshold <= 0 ||
+				minInterruptDuration < 0 || maxInterruptDuration < minInterruptDuration)
+			throw new IllegalArgumentException("Invalid detection parameters");
+		
+		this.blockLength          = blockLength;
+		this.minInterruptDuration = minInterruptDuration;
+		this.maxInterruptDuration = maxInterruptDuration;
+		
+		coefficient = 2 * Math.cos(2 * Math.PI * toneFrequency / sampleRate);
+		
+		// a tone of amplitude A over a block of N samples has a Goertzel magnitude of A * N / 2
+		double magnitudeThreshold = (double)amplitudeThreshold * blockLength / 2;
+		powerThreshold = magnitudeThreshold * magnitudeThreshold;
+	}
+	
+	
+	/**
+	 * @return True. The tone is measured on the raw samples.
+	 */
+	@Override
+	protected boolean needsRawSamples()
+	{
+		return true;
+	}
+	
+	/**
+	 * Does nothing. The averaging would filter out the tone.
+	 */
+	@Override
+	protected int processNormalizedSample(long normalizedSampleIndex, short amplitude)
+	{
+		return 0;
+	}
+	
+	@Override
+	protected int processRawSample(long time, short amplitude)
+	{
+		// run the filter
+		double s0 = amplitude + coefficient * s1 - s2;
+		s2 = s1;
+		s1 = s0;
+		
+		// wait for the end of the block. Blocks are counted from the start of the stream
+		long blockEndTime = time + 1;
+		if (Long.remainderUnsigned(blockEndTime - AudioSample.TIME_MIN_VALUE, blockLength) != 0)
+			return 0;
+		
+		// the power of the tone in the block
+		boolean on = s1 * s1 + s2 * s2 - coefficient * s1 * s2 > powerThreshold;
+		
+		s1 = 0;
+		s2 = 0;
+		
+		long blockStartTime = blockEndTime - blockLength;
+		
+		if (on)
+		{
+			if (!insideBurst)
+			{
+				// start a burst
+				insideBurst    = true;
+				abandonedBurst = false;
+				burstStartTime = blockStartTime;
+			}
+			else if (!abandonedBurst && blockEndTime - burstStartTime > maxInterruptDuration)
+			{
+				// don't go over the max interrupt length. Ignore the rest of the burst
+				abandonedBurst = true;
+				recordAbandonedInterrupt();
+			}
+			
+			return 0;
+		}
+		
+		if (!insideBurst)
+			return 0;
+		
+		// the burst has ended
+		insideBurst = false;
+		
+		// make sure the interrupt isn't too short or abandoned
+		if (abandonedBurst || blockStartTime - burstStartTime < minInterruptDuration)
+			return 0;
+		
+		notifyInterrupt(burstStartTime, blockStartTime, 1);
+		return 1;
+	}
+	
+	
+	@Override
+	protected int getStateSize(long nextNormalizedSampleIndex)
+	{
+		return STATE_SIZE;
+	}
+	
+	@Override
+	protected void saveState(ByteBuffer state, long nextNormalizedSampleIndex)
+	{
+		state.putDouble(s1);
+		state.putDouble(s2);
+		
+		state.put((byte)(insideBurst    ? 1 : 0));
+		state.put((byte)(abandonedBurst ? 1 : 0));
+		state.putLong(burstStartTime);
+	}
+	
+	@Override
+	protected void restoreState(ByteBuffer state, long nextNormalizedSampleIndex)
+	{
+		double  newS1             = state.getDouble();
+		double  newS2             = state.getDouble();
+		boolean newInsideBurst    = state.get() != 0;
+		boolean newAbandonedBurst = state.get() != 0;
+		long    newBurstStartTime = state.getLong();
+		
+		if (!Double.isFinite(newS1) || !Double.isFinite(newS2))
+			throw new IllegalArgumentException("Invalid state");
+		
+		s1             = newS1;
+		s2             = newS2;
+		insideBurst    = newInsideBurst;
+		abandonedBurst = newAbandonedBurst;
+		burstStartTime = newBurstStartTime;
+	}
+}
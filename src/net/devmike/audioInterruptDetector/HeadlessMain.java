@@ -0,0 +1,399 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Command line entry point that detects interrupts without a visualizer and prints them to stdout.<br />
+ * <br />
+ * Usage: <code>HeadlessMain [options] &lt;file.wav | file.raw | - | device&gt;</code><br />
+ * <br />
+ * 16 bit WAV files are mapped and split up between all processors unless a tone or envelope is given, WAV files of the other
+ * formats {@link SampleDecoder} supports are streamed. Raw files and <code>-</code> (stdin) are read as mono audio with the
+ * encoding, sample rate and byte order given in the options, and stdin output is flushed as interrupts are found so it
+ * can be used in pipelines. <code>device</code> captures from the default audio input in the same format until the
+ * process is stopped.<br />
+ * <br />
+ * Every interrupt is printed on a line of its own as CSV (with a header line) or as a JSON object. Times are given
+ * as sample indexes from the start of the input and in seconds. Nothing else is printed to stdout.<br />
+ * <br />
+ * No AWT or Swing classes are ever loaded, so it starts quickly and runs on machines without a display.
+ */
+public class HeadlessMain
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	private static final String USAGE =
+			"Usage: HeadlessMain [options] <file.wav | file.raw | - | device>\n" +
+			"  -format csv|json      output format (default csv)\n" +
+			"  -encoding <enc>       encoding of raw, stdin and device input: s8, u8, s16, s24, s32, f32, ulaw or alaw\n" +
+			"                        (default s16)\n" +
+			"  -rate <hz>            sample rate of raw, stdin and device input (default 44100)\n" +
+			"  -big-endian           raw, stdin and device input is big-endian (default little-endian)\n" +
+			"  -threshold <amp>      amplitude threshold (default " + AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD + ", or " +
+					ThresholdDetectionStrategy.DEFAULT_MIN_ADAPTIVE_AMPLITUDE_THRESHOLD + " with -envelope)\n" +
+			"  -min-duration <n>     min interrupt duration in samples (default " + AudioInterruptDetector.MIN_INTERRUPT_DURATION + ")\n" +
+			"  -max-duration <n>     max interrupt duration in samples (default " + AudioInterruptDetector.MAX_INTERRUPT_DURATION + ")\n" +
+			"  -envelope <n>         adapt the threshold to half the peak amplitude over the last n samples, with the\n" +
+			"                        threshold as the lowest it goes\n" +
+			"  -tone <hz>            detect bursts of a tone of this frequency instead, with the threshold as the\n" +
+			"                        tone's amplitude";
+	
+	// number of bytes of a file to map and process at once
+	private static final int FILE_MAP_SIZE = 64 * 1024 * 1024;
+	
+	// number of bytes to read from a stream at once
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * Prints interrupts as CSV or JSON lines.
+	 */
+	private static class InterruptPrinter implements InterruptListener
+	{
+		private final PrintStream   out;
+		private final boolean       json;
+		private final double        sampleRate;
+		private final StringBuilder line = new StringBuilder(128);
+		
+		InterruptPrinter(PrintStream out, boolean json, double sampleRate)
+		{
+			this.out        = out;
+			this.json       = json;
+			this.sampleRate = sampleRate;
+			
+			if (!json)
+				out.println("start,end,start_seconds,end_seconds,sign");
+		}
+		
+		public void onInterrupt(long startTime, long endTime, int sign)
+		{
+			long start = startTime - AudioSample.TIME_MIN_VALUE;
+			long end   = endTime   - AudioSample.TIME_MIN_VALUE;
+			
+			line.setLength(0);
+			if (json)
+			{
+				line.append("{\"start\":")        .append(start)
+					.append(",\"end\":")          .append(end)
+					.append(",\"startSeconds\":") .append(start / sampleRate)
+					.append(",\"endSeconds\":")   .append(end   / sampleRate)
+					.append(",\"sign\":")         .append(sign)
+					.append('}');
+			}
+			else
+			{
+				line.append(start)             .append(',')
+					.append(end)               .append(',')
+					.append(start / sampleRate).append(',')
+					.append(end   / sampleRate).append(',')
+					.append(sign);
+			}
+			
+			out.println(line);
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	public static void main(String[] args) throws Exception
+	{
+		String  input                = null;
+		boolean json                 = false;
+		String  encoding             = "s16";
+		int     sampleRate           = 44100;
+		boolean bigEndian            = false;
+		short   amplitudeThreshold   = AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD;
+		boolean thresholdGiven       = false;
+		int     minInterruptDuration = AudioInterruptDetector.MIN_INTERRUPT_DURATION;
+		int     maxInterruptDuration = AudioInterruptDetector.MAX_INTERRUPT_DURATION;
+		int     envelopeDuration     = 0;
+		double  toneFrequency        = 0;
+		
+		AudioFormat audioFormat = null;
+		try
+		{
+			for (int i = 0; i < args.length; ++i)
+			{
+				switch (args[i])
+				{
+					case "-format":       json                 = parseFormat(args[++i]);      break;
+					case "-encoding":     encoding             = args[++i];                   break;
+					case "-rate":         sampleRate           = Integer.parseInt(args[++i]); break;
+					case "-big-endian":   bigEndian            = true;                        break;
+					case "-threshold":
+						amplitudeThreshold = Short.parseShort(args[++i]);
+						thresholdGiven     = true;
+						break;
+					case "-min-duration": minInterruptDuration = Integer.parseInt(args[++i]); break;
+					case "-max-duration": maxInterruptDuration = Integer.parseInt(args[++i]); break;
+					case "-envelope":     envelopeDuration     = Integer.parseInt(args[++i]); break;
+					case "-tone":         toneFrequency        = Double.parseDouble(args[++i]); break;
+					default:
+						if (input != null || (args[i].startsWith("-") && !args[i].equals("-")))
+							throw new IllegalArgumentException("Unexpected argument " + args[i]);
+						
+						input = args[i];
+				}
+			}
+			
+			if (input == null)
+				throw new IllegalArgumentException("No input given");
+			if (sampleRate <= 0)
+				throw new IllegalArgumentException("Invalid sample rate " + sampleRate);
+			
+			// the adaptive threshold follows the signal, so only keep it out of the noise
+			if (envelopeDuration != 0 && !thresholdGiven)
+				amplitudeThreshold = ThresholdDetectionStrategy.DEFAULT_MIN_ADAPTIVE_AMPLITUDE_THRESHOLD;
+			
+			audioFormat = createAudioFormat(encoding, sampleRate, bigEndian);
+			
+			// check the parameters before opening anything
+			SampleDecoder.forFormat(audioFormat);
+			createDetector(toneFrequency, sampleRate, amplitudeThreshold, minInterruptDuration, maxInterruptDuration, envelopeDuration);
+		}
+		catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e)
+		{
+			System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		
+		// buffer the output so printing does not slow down detection
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024), false);
+		
+		if (input.equals("device"))
+		{
+			AudioInterruptDetector audioInterruptDetector = createDetector(toneFrequency, sampleRate, amplitudeThreshold, minInterruptDuration, maxInterruptDuration, envelopeDuration);
+			streamFromDevice(audioInterruptDetector, out, json, audioFormat);
+		}
+		else if (input.equals("-"))
+		{
+			AudioInterruptDetector audioInterruptDetector = createDetector(toneFrequency, sampleRate, amplitudeThreshold, minInterruptDuration, maxInterruptDuration, envelopeDuration);
+			audioInterruptDetector.addInterruptListener(new InterruptPrinter(out, json, sampleRate));
+			streamFromInput(audioInterruptDetector, new FileInputStream(FileDescriptor.in), out, SampleDecoder.forFormat(audioFormat), true);
+		}
+		else if (input.toLowerCase().endsWith(".wav"))
+		{
+			WavFile wavFile = WavFile.open(new File(input));
+			try
+			{
+				// only the default strategy with a fixed threshold can be split up between processors
+				if (wavFile.getFormat() != WavFile.FORMAT_PCM || wavFile.getBitsPerSample() != 16 || wavFile.getValidBitsPerSample() != 16 || toneFrequency != 0 || envelopeDuration != 0)
+				{
+					SampleDecoder decoder = null;
+					try
+					{
+						decoder = SampleDecoder.forWavFile(wavFile);
+					}
+					catch (IllegalArgumentException e)
+					{
+						System.err.println(e.getMessage());
+						System.exit(1);
+					}
+					
+					AudioInterruptDetector audioInterruptDetector = null;
+					try
+					{
+						audioInterruptDetector = createDetector(toneFrequency, wavFile.getSampleRate(), amplitudeThreshold, minInterruptDuration, maxInterruptDuration, envelopeDuration);
+					}
+					catch (IllegalArgumentException e)
+					{
+						System.err.println(e.getMessage());
+						System.exit(1);
+					}
+					
+					audioInterruptDetector.addInterruptListener(new InterruptPrinter(out, json, wavFile.getSampleRate()));
+					streamFromWavFile(audioInterruptDetector, wavFile, decoder);
+					
+					out.flush();
+					return;
+				}
+				
+				if (wavFile.getNumChannels() != 1)
+				{
+					System.err.println("Only mono audio is supported");
+					System.exit(1);
+				}
+				
+				ParallelAudioInterruptDetector audioInterruptDetector = new ParallelAudioInterruptDetector(
+						new ForkJoinPool(), amplitudeThreshold, minInterruptDuration, maxInterruptDuration);
+				audioInterruptDetector.addInterruptListener(new InterruptPrinter(out, json, wavFile.getSampleRate()));
+				
+				// process the file in large slices
+				long dataLength = wavFile.getDataLength();
+				for (long position = 0; position < dataLength; position += FILE_MAP_SIZE)
+				{
+					ByteBuffer data = wavFile.mapData(position, (int)Math.min(FILE_MAP_SIZE, dataLength - position));
+					audioInterruptDetector.processAudioData(data);
+				}
+			}
+			finally
+			{
+				wavFile.close();
+			}
+		}
+		else
+		{
+			AudioInterruptDetector audioInterruptDetector = createDetector(toneFrequency, sampleRate, amplitudeThreshold, minInterruptDuration, maxInterruptDuration, envelopeDuration);
+			audioInterruptDetector.addInterruptListener(new InterruptPrinter(out, json, sampleRate));
+			
+			try (InputStream in = new FileInputStream(input))
+			{
+				streamFromInput(audioInterruptDetector, in, out, SampleDecoder.forFormat(audioFormat), false);
+			}
+		}
+		
+		out.flush();
+	}
+	
+	/**
+	 * Creates a detector with the default strategy, with an adaptive threshold if an envelope duration is given, or one
+	 * that detects tone bursts if a tone frequency is given.
+	 * 
+	 * @throws IllegalArgumentException If the detection parameters are not valid.
+	 */
+	private static AudioInterruptDetector createDetector(double toneFrequency, int sampleRate, short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration, int envelopeDuration)
+	{
+		if (toneFrequency == 0)
+			return new AudioInterruptDetector(null, new ThresholdDetectionStrategy(amplitudeThreshold, minInterruptDuration, maxInterruptDuration, envelopeDuration));
+		
+		return new AudioInterruptDetector(null, new GoertzelDetectionStrategy(
+				toneFrequency, sampleRate, GoertzelDetectionStrategy.DEFAULT_BLOCK_LENGTH, amplitudeThreshold, minInterruptDuration, maxInterruptDuration));
+	}
+	
+	private static boolean parseFormat(String format)
+	{
+		if (format.equals("json"))
+			return true;
+		if (format.equals("csv"))
+			return false;
+		
+		throw new IllegalArgumentException("Unknown format " + format);
+	}
+	
+	private static AudioFormat createAudioFormat(String encoding, float sampleRate, boolean bigEndian)
+	{
+		switch (encoding)
+		{
+			case "s8":   return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,   sampleRate, 8,  1, 1, sampleRate, bigEndian);
+			case "u8":   return new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, sampleRate, 8,  1, 1, sampleRate, bigEndian);
+			case "s16":  return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,   sampleRate, 16, 1, 2, sampleRate, bigEndian);
+			case "s24":  return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,   sampleRate, 24, 1, 3, sampleRate, bigEndian);
+			case "s32":  return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,   sampleRate, 32, 1, 4, sampleRate, bigEndian);
+			case "f32":  return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT,    sampleRate, 32, 1, 4, sampleRate, bigEndian);
+			case "ulaw": return new AudioFormat(AudioFormat.Encoding.ULAW,         sampleRate, 8,  1, 1, sampleRate, bigEndian);
+			case "alaw": return new AudioFormat(AudioFormat.Encoding.ALAW,         sampleRate, 8,  1, 1, sampleRate, bigEndian);
+		}
+		
+		throw new IllegalArgumentException("Unknown encoding " + encoding);
+	}
+	
+	
+	/**
+	 * Processes a stream until it ends.
+	 * 
+	 * @param flushOften - If the output should be flushed after every read that detected interrupts.
+	 */
+	private static void streamFromInput(AudioInterruptDetector audioInterruptDetector, InputStream in, PrintStream out, SampleDecoder decoder, boolean flushOften) throws Exception
+	{
+		byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+		
+		int numBytesRead;
+		while ((numBytesRead = in.read(readBuffer)) != -1)
+		{
+			int numInterrupts = audioInterruptDetector.processAudioData(readBuffer, 0, numBytesRead, decoder);
+			
+			if (flushOften && numInterrupts > 0)
+				out.flush();
+		}
+	}
+	
+	/**
+	 * Processes the audio data of a WAV file on this thread, a read buffer at a time.
+	 */
+	private static void streamFromWavFile(AudioInterruptDetector audioInterruptDetector, WavFile wavFile, SampleDecoder decoder) throws Exception
+	{
+		byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+		
+		long dataLength = wavFile.getDataLength();
+		for (long position = 0; position < dataLength; position += FILE_MAP_SIZE)
+		{
+			ByteBuffer data = wavFile.mapData(position, (int)Math.min(FILE_MAP_SIZE, dataLength - position));
+			while (data.hasRemaining())
+			{
+				int length = Math.min(data.remaining(), readBuffer.length);
+				data.get(readBuffer, 0, length);
+				
+				audioInterruptDetector.processAudioData(readBuffer, 0, length, decoder);
+			}
+		}
+	}
+	
+	/**
+	 * Captures from the default audio input until the process is stopped.
+	 */
+	private static void streamFromDevice(AudioInterruptDetector audioInterruptDetector, final PrintStream out, boolean json, AudioFormat audioFormat) throws Exception
+	{
+		TargetDataLine line = AudioSystem.getTargetDataLine(audioFormat);
+		line.open(audioFormat);
+		
+		// print each interrupt as soon as it is found
+		final InterruptPrinter printer = new InterruptPrinter(out, json, audioFormat.getSampleRate());
+		audioInterruptDetector.addInterruptListener(new InterruptListener()
+		{
+			public void onInterrupt(long startTime, long endTime, int sign)
+			{
+				printer.onInterrupt(startTime, endTime, sign);
+				out.flush();
+			}
+		});
+		
+		final LiveCapture liveCapture = new LiveCapture(line, audioInterruptDetector);
+		
+		// process what has been captured and flush the output when stopped
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					liveCapture.stop();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				
+				out.flush();
+			}
+		}));
+		
+		liveCapture.start();
+	}
+}
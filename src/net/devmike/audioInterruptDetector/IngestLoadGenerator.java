@@ -0,0 +1,200 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens many connections to an {@link IngestServer} and streams a WAV file over each of them.<br />
+ * <br />
+ * Usage: <code>IngestLoadGenerator &lt;host&gt; &lt;port&gt; &lt;connections&gt; &lt;file.wav&gt; [realtime]</code><br />
+ * <br />
+ * With <code>realtime</code> the audio is sent at the file's sample rate, so most connections are idle most of the
+ * time like real meters. Otherwise it is sent as fast as possible.
+ */
+public class IngestLoadGenerator
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// number of bytes to send at once
+	private static final int SEND_SIZE = 4 * 1024;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 4)
+		{
+			System.err.println("Usage: IngestLoadGenerator <host> <port> <connections> <file.wav> [realtime]");
+			System.exit(1);
+		}
+		
+		final String  host           = args[0];
+		final int     port           = Integer.parseInt(args[1]);
+		final int     numConnections = Integer.parseInt(args[2]);
+		final boolean realtime       = args.length > 4 && args[4].equals("realtime");
+		
+		// load the audio data once and share it between the connections
+		final byte[]  audioData;
+		final int     sampleRate;
+		final boolean bigEndian;
+		
+		try (WavFile wavFile = WavFile.open(new File(args[3])))
+		{
+			if (wavFile.getFormat() != WavFile.FORMAT_PCM || wavFile.getBitsPerSample() != 16 || wavFile.getNumChannels() != 1)
+				throw new Exception("Only 16 bit mono PCM is supported");
+			
+			ByteBuffer data = wavFile.mapData(0, (int)wavFile.getDataLength());
+			audioData  = new byte[data.remaining()];
+			data.get(audioData);
+			
+			sampleRate = wavFile.getSampleRate();
+			bigEndian  = wavFile.getByteOrder() == ByteOrder.BIG_ENDIAN;
+		}
+		
+		final AtomicLong numBytesSent  = new AtomicLong();
+		final AtomicLong numInterrupts = new AtomicLong();
+		final AtomicLong numFailures   = new AtomicLong();
+		
+		long startNanoTime = System.nanoTime();
+		
+		// start a virtual thread for each connection
+		List<Thread> threads = new ArrayList<Thread>(numConnections);
+		for (int i = 0; i < numConnections; ++i)
+		{
+			final String streamId = "load-" + i;
+			
+			threads.add(Thread.ofVirtual().name(streamId).start(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						numInterrupts.addAndGet(streamFile(host, port, streamId, audioData, sampleRate, bigEndian, realtime, numBytesSent));
+					}
+					catch (Exception e)
+					{
+						numFailures.incrementAndGet();
+						e.printStackTrace();
+					}
+				}
+			}));
+		}
+		
+		for (Thread thread : threads)
+			thread.join();
+		
+		double seconds = (System.nanoTime() - startNanoTime) / 1000000000d;
+		
+		System.out.println(numConnections + " Connections (" + numFailures.get() + " failed)");
+		System.out.println("Sent " + numBytesSent.get() + " bytes total");
+		System.out.println(numInterrupts.get() + " Iterrupts");
+		System.out.println("Throughput " + (numBytesSent.get() / seconds / 1000000d) + " MB/s");
+	}
+	
+	
+	/**
+	 * Streams the audio data over a new connection and counts the interrupts sent back.
+	 * 
+	 * @param host         - Host of the server.
+	 * @param port         - Port of the server.
+	 * @param streamId     - ID of the stream.
+	 * @param audioData    - 16 bit mono PCM audio data.
+	 * @param sampleRate   - Sample rate of the audio data.
+	 * @param bigEndian    - If the audio data is big-endian (true) or little-endian (false).
+	 * @param realtime     - If the audio data should be sent at the sample rate instead of as fast as possible.
+	 * @param numBytesSent - Counter to add the number of bytes sent to.
+	 * 
+	 * @return The number of interrupts the server detected.
+	 * 
+	 * @throws Exception If the connection fails.
+	 */
+	private static long streamFile(
+			String host, int port, String streamId, byte[] audioData, int sampleRate, boolean bigEndian, boolean realtime, final AtomicLong numBytesSent)
+			throws Exception
+	{
+		try (Socket socket = new Socket(host, port))
+		{
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			
+			// count the interrupts on another virtual thread so the server is never blocked by a full socket
+			final long[] numInterrupts = new long[1];
+			Thread reader = Thread.ofVirtual().start(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						while (true)
+						{
+							in.skipNBytes(IngestServer.INTERRUPT_RECORD_SIZE);
+							++numInterrupts[0];
+						}
+					}
+					catch (EOFException e)
+					{
+						// the server is done
+					}
+					catch (IOException e)
+					{
+						e.printStackTrace();
+					}
+				}
+			});
+			
+			// header
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeByte(IngestServer.PROTOCOL_VERSION);
+			out.writeByte(bigEndian ? IngestServer.FLAG_BIG_ENDIAN : 0);
+			out.writeInt(sampleRate);
+			out.writeUTF(streamId);
+			out.flush();
+			
+			// audio data
+			OutputStream rawOut = socket.getOutputStream();
+			long startNanoTime = System.nanoTime();
+			
+			for (int offset = 0; offset < audioData.length; offset += SEND_SIZE)
+			{
+				int length = Math.min(SEND_SIZE, audioData.length - offset);
+				
+				// wait until the audio would have been recorded
+				if (realtime)
+				{
+					long sendNanoTime = startNanoTime + (offset / 2) * 1000000000L / sampleRate;
+					long waitMillis = (sendNanoTime - System.nanoTime()) / 1000000L;
+					if (waitMillis > 0)
+						Thread.sleep(waitMillis);
+				}
+				
+				rawOut.write(audioData, offset, length);
+				numBytesSent.addAndGet(length);
+			}
+			
+			// let the server know we are done and wait for the rest of the interrupts
+			socket.shutdownOutput();
+			reader.join();
+			
+			return numInterrupts[0];
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accepts audio streams over TCP and sends back the interrupts detected in them.<br />
+ * <br />
+ * Every connection is handled by its own virtual thread with its own {@link AudioInterruptDetector}, so thousands
+ * of mostly idle connections only cost a little memory each.<br />
+ * <br />
+ * A connection starts with a header, all values big-endian:
+ * <pre>
+ * byte   version     - {@link #PROTOCOL_VERSION}
+ * byte   flags       - {@link #FLAG_BIG_ENDIAN} if the audio data is big-endian
+ * int    sample rate - sample rate of the audio data. The min and max interrupt durations are scaled to it
+ * UTF    stream ID   - 2 byte length followed by the modified UTF-8 bytes (see {@link DataInputStream#readUTF})
+ * </pre>
+ * followed by 16 bit mono PCM audio data until the client shuts down its output. For every interrupt detected,
+ * the server sends back a record of {@link #INTERRUPT_RECORD_SIZE} bytes:
+ * <pre>
+ * long   start - sample index of the start of the interrupt from the start of the stream
+ * long   end   - sample index of the end of the interrupt from the start of the stream
+ * byte   sign  - sign of the interrupt (1 or -1)
+ * </pre>
+ * Only the min and max interrupt durations follow the sample rate. The detector still averages groups of 10 samples,
+ * looks for the rise or fall over 6 normalized samples and ends an interrupt after 10 samples under the threshold, all
+ * tuned for 44100Hz. At rates far from it these take a different length of time, so meters whose pulses are close to
+ * the duration bounds may not be detected the same.
+ */
+public class IngestServer implements Runnable, Closeable
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	public static final int PROTOCOL_VERSION = 1;
+	
+	// header flags
+	public static final int FLAG_BIG_ENDIAN = 1;
+	
+	// size of an interrupt record sent back to the client
+	public static final int INTERRUPT_RECORD_SIZE = 8 + 8 + 1;
+	
+	// number of bytes to read from a connection at once
+	private static final int READ_BUFFER_SIZE = 8 * 1024;
+	
+	// sample rate the default interrupt durations are for
+	private static final int DEFAULT_SAMPLE_RATE = 44100;
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final ServerSocket serverSocket;
+	
+	// keep track of some stats
+	private final AtomicInteger numConnections     = new AtomicInteger();
+	private final AtomicLong    numBytesReceived   = new AtomicLong();
+	private final AtomicLong    numInterruptsFound = new AtomicLong();
+	
+	// shared by the detectors of all connections
+	private final DetectorMetrics metrics = new DetectorMetrics();
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a server listening on the given port.
+	 * 
+	 * @param port - Port to listen on or 0 for any free port.
+	 * 
+	 * @throws IOException If the port could not be opened.
+	 */
+	public IngestServer(int port) throws IOException
+	{
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(port), 1024);
+	}
+	
+	/**
+	 * Accepts connections until the server is closed, starting a virtual thread for each one.
+	 */
+	public void run()
+	{
+		while (!serverSocket.isClosed())
+		{
+			final Socket socket;
+			try
+			{
+				socket = serverSocket.accept();
+			}
+			catch (IOException e)
+			{
+				if (!serverSocket.isClosed())
+					e.printStackTrace();
+				
+				continue;
+			}
+			
+			Thread.ofVirtual().name("ingest-" + socket.getRemoteSocketAddress()).start(new Runnable()
+			{
+				public void run()
+				{
+					handleConnection(socket);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Stops accepting connections. Open connections are handled until their clients finish.
+	 */
+	public void close() throws IOException
+	{
+		serverSocket.close();
+	}
+	
+	
+	/**
+	 * Reads the header and audio data from the connection and writes back the interrupts.
+	 * 
+	 * @param socket - Connection to handle.
+	 */
+	private void handleConnection(Socket socket)
+	{
+		numConnections.incrementAndGet();
+		
+		try (socket)
+		{
+			DataInputStream        in  = new DataInputStream(socket.getInputStream());
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			
+			// -------------------------------------------------------------------
+			// header
+			
+			int version = in.readUnsignedByte();
+			if (version != PROTOCOL_VERSION)
+				throw new IOException("Unsupported protocol version: " + version);
+			
+			int flags = in.readUnsignedByte();
+			boolean bigEndian = (flags & FLAG_BIG_ENDIAN) != 0;
+			
+			int sampleRate = in.readInt();
+			if (sampleRate <= 0)
+				throw new IOException("Invalid sample rate: " + sampleRate);
+			
+			String streamId = in.readUTF();
+			Thread.currentThread().setName("ingest-" + streamId);
+			
+			
+			// -------------------------------------------------------------------
+			// audio data
+			
+			// write the interrupts back as they are detected
+			AudioInterruptDetector detector = new AudioInterruptDetector(null,
+					AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD,
+					scaleDuration(AudioInterruptDetector.MIN_INTERRUPT_DURATION, sampleRate),
+					scaleDuration(AudioInterruptDetector.MAX_INTERRUPT_DURATION, sampleRate));
+			detector.setMetrics(metrics);
+			detector.addInterruptListener(new InterruptListener()
+			{
+				public void onInterrupt(long startTime, long endTime, int sign)
+				{
+					try
+					{
+						out.writeLong(startTime - AudioSample.TIME_MIN_VALUE);
+						out.writeLong(endTime   - AudioSample.TIME_MIN_VALUE);
+						out.writeByte(sign);
+					}
+					catch (IOException e)
+					{
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+			
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			int numBytesRead;
+			
+			while ((numBytesRead = in.read(buffer)) > -1)
+			{
+				numBytesReceived.addAndGet(numBytesRead);
+				
+				int numInterrupts = detector.processAudioData(buffer, 0, numBytesRead, bigEndian);
+				
+				// send the interrupts right away
+				if (numInterrupts > 0)
+				{
+					numInterruptsFound.addAndGet(numInterrupts);
+					out.flush();
+				}
+			}
+			
+			out.flush();
+		}
+		catch (SocketException e)
+		{
+			// the client went away
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			numConnections.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Converts a duration in samples at {@link #DEFAULT_SAMPLE_RATE} to the same length of time at the given rate. Only
+	 * used for the min and max interrupt durations. The normalized group size and the detector's other durations stay
+	 * in samples.
+	 * 
+	 * @param duration   - Duration in samples at the default sample rate.
+	 * @param sampleRate - Sample rate of the stream.
+	 * 
+	 * @return The duration in samples of the stream.
+	 */
+	private static int scaleDuration(int duration, int sampleRate)
+	{
+		return (int)Math.min((long)duration * sampleRate / DEFAULT_SAMPLE_RATE, Integer.MAX_VALUE);
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	public int             getPort              () { return serverSocket.getLocalPort(); }
+	public int             getNumConnections    () { return numConnections.get();        }
+	public long            getNumBytesReceived  () { return numBytesReceived.get();      }
+	public long            getNumInterruptsFound() { return numInterruptsFound.get();    }
+	public DetectorMetrics getMetrics           () { return metrics;                     }
+}
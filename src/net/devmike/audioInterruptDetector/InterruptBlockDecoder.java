@@ -0,0 +1,297 @@
+package net.devmike.audioInterruptDetector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads back the blocks written by an {@link InterruptBlockEncoder}, one block at a time.<br />
+ * <br />
+ * Interrupts are decoded straight from the buffer and passed on as primitives, so no objects are created per
+ * interrupt. Blocks can be counted and skipped from their headers alone, and the durations of a block can be summed
+ * without decoding its start times or signs. The buffer can be anything from a wrapped array to a memory-mapped file.
+ */
+public class InterruptBlockDecoder
+{
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final ByteBuffer data;
+	private final int        dataEnd;
+	private int              position; // position of the next block in the buffer
+	
+	// header of the next block. Read on demand
+	private boolean headerRead = false;
+	private int     blockNumInterrupts;
+	private int     blockEnd;
+	private long    blockFirstStartTime;
+	private long    blockTimeUnit;
+	private int     blockStartsStart;
+	private int     blockDurationsStart;
+	
+	// position after the last varint read. Saves creating an object to return both the value and its length
+	private int varLongEnd;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a decoder for the blocks in the buffer from its position to its limit. The buffer's position and byte
+	 * order are not changed. The blocks are always read as big-endian, the way the encoder writes them.
+	 * 
+	 * @param data - Encoded blocks.
+	 */
+	public InterruptBlockDecoder(ByteBuffer data)
+	{
+		this.data = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+		dataEnd   = data.limit();
+		position  = data.position();
+	}
+	
+	
+	/**
+	 * @return If there is another block to read.
+	 */
+	public boolean hasNextBlock()
+	{
+		return position < dataEnd;
+	}
+	
+	/**
+	 * Decodes the next block, passing on its interrupts in order.
+	 * 
+	 * @param listener - Listener to pass the interrupts to.
+	 * 
+	 * @return The number of interrupts in the block.
+	 * 
+	 * @throws IllegalArgumentException If the block is not valid.
+	 */
+	public int decodeBlock(InterruptListener listener)
+	{
+		readBlockHeader();
+		
+		int  startsPosition    = blockStartsStart;
+		int  durationsPosition = blockDurationsStart;
+		int  signsPosition     = blockEnd - (blockNumInterrupts + 7) / 8;
+		long startTime         = blockFirstStartTime;
+		
+		for (int i = 0; i < blockNumInterrupts; ++i)
+		{
+			if (i > 0)
+			{
+				startTime += getVarLong(startsPosition) * blockTimeUnit;
+				startsPosition = varLongEnd;
+			}
+			
+			long duration = getVarLong(durationsPosition) * blockTimeUnit;
+			durationsPosition = varLongEnd;
+			
+			int sign = (data.get(signsPosition + i / 8) & (1 << (i % 8))) != 0 ? -1 : 1;
+			
+			listener.onInterrupt(startTime, startTime + duration, sign);
+		}
+		
+		if (durationsPosition != signsPosition)
+			throw new IllegalArgumentException("Invalid block");
+		
+		return nextBlock();
+	}
+	
+	/**
+	 * Skips the next block without decoding it.
+	 * 
+	 * @return The number of interrupts in the block.
+	 * 
+	 * @throws IllegalArgumentException If the block header is not valid.
+	 */
+	public int skipBlock()
+	{
+		readBlockHeader();
+		return nextBlock();
+	}
+	
+	/**
+	 * Sums the durations of the interrupts in the next block and moves on to the block after it. Only the durations
+	 * are decoded.
+	 * 
+	 * @return The sum of the durations.
+	 * 
+	 * @throws IllegalArgumentException If the block is not valid.
+	 */
+	public long sumBlockDurations()
+	{
+		readBlockHeader();
+		
+		long sum = 0;
+		int durationsPosition = blockDurationsStart;
+		for (int i = 0; i < blockNumInterrupts; ++i)
+		{
+			sum += getVarLong(durationsPosition);
+			durationsPosition = varLongEnd;
+		}
+		
+		nextBlock();
+		return sum * blockTimeUnit;
+	}
+	
+	
+	// -------------------------------------------------------------------
+	// whole stream
+	
+	/**
+	 * Decodes all the remaining blocks.
+	 * 
+	 * @return The number of interrupts passed on.
+	 * 
+	 * @see #decodeBlock
+	 */
+	public long decodeAll(InterruptListener listener)
+	{
+		long numInterrupts = 0;
+		while (hasNextBlock())
+			numInterrupts += decodeBlock(listener);
+		
+		return numInterrupts;
+	}
+	
+	/**
+	 * Counts the interrupts in all the remaining blocks from their headers.
+	 * 
+	 * @return The number of interrupts.
+	 */
+	public long countAll()
+	{
+		long numInterrupts = 0;
+		while (hasNextBlock())
+			numInterrupts += skipBlock();
+		
+		return numInterrupts;
+	}
+	
+	/**
+	 * Sums the durations of the interrupts in all the remaining blocks.
+	 * 
+	 * @return The sum of the durations.
+	 */
+	public long sumAllDurations()
+	{
+		long sum = 0;
+		while (hasNextBlock())
+			sum += sumBlockDurations();
+		
+		return sum;
+	}
+	
+	
+	// -------------------------------------------------------------------
+	// reading
+	
+	/**
+	 * Reads the header of the next block if it has not been read yet.
+	 */
+	private void readBlockHeader()
+	{
+		if (headerRead)
+			return;
+		
+		int numInterrupts = (int)getVarLong(position);
+		int length        = (int)getVarLong(varLongEnd);
+		int bodyStart     = varLongEnd;
+		
+		if (numInterrupts <= 0 || length <= 0 || length > dataEnd - bodyStart)
+			throw new IllegalArgumentException("Invalid block header");
+		
+		blockNumInterrupts  = numInterrupts;
+		blockEnd            = bodyStart + length;
+		blockFirstStartTime = data.getLong(bodyStart);
+		blockTimeUnit       = getVarLong(bodyStart + 8);
+		
+		int startsLength = (int)getVarLong(varLongEnd);
+		blockStartsStart    = varLongEnd;
+		blockDurationsStart = blockStartsStart + startsLength;
+		
+		if (blockTimeUnit <= 0 || startsLength < 0 || blockDurationsStart > blockEnd)
+			throw new IllegalArgumentException("Invalid block header");
+		
+		headerRead = true;
+	}
+	
+	/**
+	 * Moves on to the block after the current one.
+	 * 
+	 * @return The number of interrupts in the current block.
+	 */
+	private int nextBlock()
+	{
+		position   = blockEnd;
+		headerRead = false;
+		
+		return blockNumInterrupts;
+	}
+	
+	
+	/**
+	 * Reads an unsigned LEB128 varint written by {@link InterruptBlockEncoder#putVarLong}. The position after it is
+	 * left in {@link #varLongEnd}.
+	 * 
+	 * @param position - Position of the varint in the buffer.
+	 * 
+	 * @return The value.
+	 * 
+	 * @throws IllegalArgumentException If the varint is not valid.
+	 */
+	private long getVarLong(int position)
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			if (position >= dataEnd)
+				throw new IllegalArgumentException("Varint past the end of the data");
+			
+			byte b = data.get(position++);
+			value |= (long)(b & 0x7F) << shift;
+			
+			if (b >= 0)
+			{
+				varLongEnd = position;
+				return value;
+			}
+		}
+		
+		throw new IllegalArgumentException("Varint too long");
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	/**
+	 * @return The start time of the first interrupt in the next block.
+	 * 
+	 * @throws IllegalArgumentException If the block header is not valid.
+	 */
+	public long getNextBlockFirstStartTime()
+	{
+		readBlockHeader();
+		return blockFirstStartTime;
+	}
+	
+	/**
+	 * @return The number of interrupts in the next block.
+	 * 
+	 * @throws IllegalArgumentException If the block header is not valid.
+	 */
+	public int getNextBlockNumInterrupts()
+	{
+		readBlockHeader();
+		return blockNumInterrupts;
+	}
+}
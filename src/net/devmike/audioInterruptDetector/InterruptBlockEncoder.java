@@ -0,0 +1,284 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Compresses a sequence of interrupts into compact column-oriented blocks.<br />
+ * <br />
+ * Interrupts are collected into blocks of up to a fixed number of interrupts. Each full block is encoded and written
+ * to the output stream, all values either unsigned LEB128 varints or big-endian:
+ * <pre>
+ * varint count         - number of interrupts in the block
+ * varint length        - number of bytes in the rest of the block
+ * long   first start   - start time of the first interrupt
+ * varint time unit     - largest unit all start deltas and durations are a multiple of
+ * varint starts length - number of bytes in the start column
+ * start column         - count - 1 varints: start time minus the previous start time, in time units
+ * duration column      - count varints: end time minus start time, in time units
+ * sign column          - (count + 7) / 8 bytes: one bit per interrupt, LSB first. Set if the sign is -1
+ * </pre>
+ * The detector's times are always a multiple of the normalized group size apart, and flow meter pulses are closely
+ * spaced and of similar durations, so most interrupts take 2 to 3 bytes instead of the 17 of a raw record.<br />
+ * <br />
+ * Use an {@link InterruptBlockDecoder} to read the blocks back. Interrupts must be added in order of start time,
+ * which is the order a detector finds them in.
+ */
+public class InterruptBlockEncoder implements InterruptListener, Flushable, Closeable
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+	
+	// max number of bytes in a varint of a long
+	static final int MAX_VARINT_SIZE = 10;
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final OutputStream out;
+	
+	// columns of the block being collected
+	private final long[] startTimes;
+	private final long[] endTimes;
+	private final byte[] signs;
+	private int          numInterrupts = 0;
+	
+	// encoded block. Big enough for a full block of the largest values
+	private final byte[] blockBuffer;
+	private final byte[] headerBuffer = new byte[MAX_VARINT_SIZE * 2];
+	
+	private long lastStartTime = Long.MIN_VALUE;
+	
+	// keep track of some stats
+	private long numInterruptsWritten = 0;
+	private long numBytesWritten      = 0;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates an encoder with the default block size.
+	 * 
+	 * @see #InterruptBlockEncoder(OutputStream, int)
+	 */
+	public InterruptBlockEncoder(OutputStream out)
+	{
+		this(out, DEFAULT_BLOCK_SIZE);
+	}
+	
+	/**
+	 * Creates an encoder.
+	 * 
+	 * @param out       - Stream to write the blocks to.
+	 * @param blockSize - Max number of interrupts in a block. Larger blocks compress a little better, smaller blocks
+	 *                    can be skipped through in finer steps.
+	 */
+	public InterruptBlockEncoder(OutputStream out, int blockSize)
+	{
+		if (blockSize <= 0 || blockSize > 1024 * 1024)
+			throw new IllegalArgumentException("Invalid block size " + blockSize);
+		
+		this.out = out;
+		
+		startTimes = new long[blockSize];
+		endTimes   = new long[blockSize];
+		signs      = new byte[blockSize];
+		
+		blockBuffer = new byte[8 + MAX_VARINT_SIZE * 2 + blockSize * MAX_VARINT_SIZE * 2 + (blockSize + 7) / 8];
+	}
+	
+	
+	/**
+	 * Adds the interrupt. Called on the detection thread.
+	 * 
+	 * @throws UncheckedIOException If a full block could not be written.
+	 */
+	public void onInterrupt(long startTime, long endTime, int sign)
+	{
+		try
+		{
+			add(startTime, endTime, sign);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Adds an interrupt to the current block, writing the block out if it is full.
+	 * 
+	 * @param startTime - Start time of the interrupt. Must not be before the start time of the last interrupt.
+	 * @param endTime   - End time of the interrupt. Must not be before the start time.
+	 * @param sign      - Sign of the interrupt (1 or -1).
+	 * 
+	 * @throws IOException If a full block could not be written.
+	 */
+	public void add(long startTime, long endTime, int sign) throws IOException
+	{
+		if (startTime < lastStartTime || endTime < startTime)
+			throw new IllegalArgumentException("Interrupts must be added in order of start time and end after they start");
+		if (sign != 1 && sign != -1)
+			throw new IllegalArgumentException("Invalid sign " + sign);
+		
+		startTimes[numInterrupts] = startTime;
+		endTimes  [numInterrupts] = endTime;
+		signs     [numInterrupts] = (byte)sign;
+		
+		lastStartTime = startTime;
+		
+		if (++numInterrupts == startTimes.length)
+			writeBlock();
+	}
+	
+	
+	/**
+	 * Encodes the current block and writes it out.
+	 */
+	private void writeBlock() throws IOException
+	{
+		if (numInterrupts == 0)
+			return;
+		
+		// find the largest unit the deltas and durations are all a multiple of
+		long timeUnit = 0;
+		for (int i = 0; i < numInterrupts && timeUnit != 1; ++i)
+		{
+			timeUnit = gcd(timeUnit, endTimes[i] - startTimes[i]);
+			if (i > 0)
+				timeUnit = gcd(timeUnit, startTimes[i] - startTimes[i - 1]);
+		}
+		
+		if (timeUnit == 0)
+			timeUnit = 1;
+		
+		// first start, time unit and the length of the start column, which is only known after encoding it
+		int position = 0;
+		for (int i = 0; i < 8; ++i)
+			blockBuffer[position++] = (byte)(startTimes[0] >>> (56 - i * 8));
+		
+		position = putVarLong(blockBuffer, position, timeUnit);
+		
+		int startsStart = position + MAX_VARINT_SIZE;
+		int startsEnd   = startsStart;
+		for (int i = 1; i < numInterrupts; ++i)
+			startsEnd = putVarLong(blockBuffer, startsEnd, (startTimes[i] - startTimes[i - 1]) / timeUnit);
+		
+		position = putVarLong(blockBuffer, position, startsEnd - startsStart);
+		System.arraycopy(blockBuffer, startsStart, blockBuffer, position, startsEnd - startsStart);
+		position += startsEnd - startsStart;
+		
+		for (int i = 0; i < numInterrupts; ++i)
+			position = putVarLong(blockBuffer, position, (endTimes[i] - startTimes[i]) / timeUnit);
+		
+		for (int i = 0; i < numInterrupts; i += 8)
+		{
+			int signBits = 0;
+			for (int j = i; j < Math.min(i + 8, numInterrupts); ++j)
+			{
+				if (signs[j] < 0)
+					signBits |= 1 << (j - i);
+			}
+			
+			blockBuffer[position++] = (byte)signBits;
+		}
+		
+		int headerLength = putVarLong(headerBuffer, 0, numInterrupts);
+		headerLength = putVarLong(headerBuffer, headerLength, position);
+		
+		out.write(headerBuffer, 0, headerLength);
+		out.write(blockBuffer,  0, position);
+		
+		numInterruptsWritten += numInterrupts;
+		numBytesWritten      += headerLength + position;
+		numInterrupts = 0;
+	}
+	
+	
+	/**
+	 * Writes out the current block even if it is not full, then flushes the output stream.
+	 */
+	public void flush() throws IOException
+	{
+		writeBlock();
+		out.flush();
+	}
+	
+	/**
+	 * Writes out the current block and closes the output stream.
+	 */
+	public void close() throws IOException
+	{
+		writeBlock();
+		out.close();
+	}
+	
+	
+	/**
+	 * Writes an unsigned LEB128 varint: 7 bits per byte, least significant first, with the high bit set on every
+	 * byte but the last.
+	 * 
+	 * @return The position after the varint.
+	 */
+	static int putVarLong(byte[] data, int position, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			data[position++] = (byte)(value | 0x80);
+			value >>>= 7;
+		}
+		
+		data[position++] = (byte)value;
+		return position;
+	}
+	
+	private static long gcd(long a, long b)
+	{
+		while (b != 0)
+		{
+			long remainder = a % b;
+			a = b;
+			b = remainder;
+		}
+		
+		return a;
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	/**
+	 * @return The number of interrupts written out so far.
+	 */
+	public long getNumInterruptsWritten()
+	{
+		return numInterruptsWritten;
+	}
+	
+	/**
+	 * @return The number of bytes written out so far.
+	 */
+	public long getNumBytesWritten()
+	{
+		return numBytesWritten;
+	}
+}
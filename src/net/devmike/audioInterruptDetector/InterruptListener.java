@@ -0,0 +1,18 @@
+package net.devmike.audioInterruptDetector;
+
+/**
+ * Receives interrupts as they are detected by an {@link AudioInterruptDetector}.<br />
+ * <br />
+ * The interrupt is passed as primitives so no objects are created for each interrupt.
+ */
+public interface InterruptListener
+{
+	/**
+	 * Called on the detection thread every time an interrupt is detected.
+	 * 
+	 * @param startTime - Start time of the interrupt.
+	 * @param endTime   - End time of the interrupt.
+	 * @param sign      - Sign of the interrupt's amplitude (1 or -1). Defines what side the "wave" was on.
+	 */
+	public void onInterrupt(long startTime, long endTime, int sign);
+}
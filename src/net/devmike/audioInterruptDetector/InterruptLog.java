@@ -0,0 +1,589 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistent, append-only store of interrupts.<br />
+ * <br />
+ * Interrupts are appended as fixed size records to memory-mapped segment files in a directory, so appending is a
+ * few memory writes with no system calls until a segment fills up. Each segment file is named after the number of
+ * its first record and holds a fixed number of records after a header, all values big-endian:
+ * <pre>
+ * int    magic             - {@link #SEGMENT_MAGIC}
+ * int    version           - {@link #SEGMENT_FORMAT_VERSION}
+ * int    capacity          - max number of records in the segment
+ * long   first record      - number of the segment's first record in the log
+ * int    committed records - number of records known to be on disk. Equal to the capacity once the segment is sealed
+ * int    generation        - number of times the segment was opened again to be appended to
+ * </pre>
+ * followed by records of {@link #RECORD_SIZE} bytes:
+ * <pre>
+ * long   start    - start time of the interrupt
+ * long   end      - end time of the interrupt
+ * byte   sign     - sign of the interrupt (1 or -1). 0 in records not written yet
+ * int    checksum - CRC32C of the start, end and sign, xor the generation of the segment it was written in
+ * </pre>
+ * and the sparse time index: the start time of every {@link #INDEX_INTERVAL}th record as a long. The index is kept in
+ * memory while the segment is being appended to and written out when the segment is sealed.<br />
+ * <br />
+ * Interrupts must be appended in order of start time, which is the order a detector finds them in. A range query
+ * looks up its start in the index and only reads the records near it and the records it returns.<br />
+ * <br />
+ * One thread may append while any number of threads query. Queries see every record appended before they started.
+ * <br />
+ * Full segments are sealed before the next one is used, or when the log is flushed once they are full: their records
+ * and index are forced to disk, then the header is updated to say so. New segments only get their final name once their header is on disk. {@link #flush} forces
+ * the records of the current segment the same way. The OS may write out the pages of a mapped file in any order, so
+ * when a log is opened again the records after the last committed one are only counted up to the first one that is
+ * not complete with a matching checksum. The generation is bumped before such a segment is appended to again, so the
+ * records left after the first incomplete one never match again once new records are written before them. Nothing
+ * appended before the last flush is lost if the process or machine goes down. Opening a log only reads the headers
+ * of the sealed segments and the records of the last segment since its last flush.
+ */
+public class InterruptLog implements InterruptListener, Closeable
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// identifies segment files and the layout of their content
+	public static final int SEGMENT_MAGIC          = 0x41494C47; // "AILG"
+	public static final int SEGMENT_FORMAT_VERSION = 3;
+	
+	public static final int SEGMENT_HEADER_SIZE = 4 + 4 + 4 + 8 + 4 + 4;
+	public static final int RECORD_SIZE         = 8 + 8 + 1 + 4;
+	
+	// offsets in the segment header and in a record
+	private static final int HEADER_COMMITTED_RECORDS_OFFSET = 20;
+	private static final int HEADER_GENERATION_OFFSET        = 24;
+	private static final int RECORD_SIGN_OFFSET              = 16;
+	private static final int RECORD_CHECKSUM_OFFSET          = 17;
+	
+	// number of records per segment by default. About 21MB per segment
+	public static final int DEFAULT_SEGMENT_CAPACITY = 1024 * 1024;
+	
+	// number of records per entry of the sparse time index
+	public static final int INDEX_INTERVAL = 256;
+	
+	// most records a segment can hold so it can still be mapped
+	private static final int MAX_SEGMENT_CAPACITY = (Integer.MAX_VALUE - SEGMENT_HEADER_SIZE) / (RECORD_SIZE + 1);
+	
+	private static final String SEGMENT_FILE_EXTENSION = ".seg";
+	private static final String TEMP_FILE_EXTENSION    = ".tmp";
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final Path directory;
+	private final int  segmentCapacity; // capacity of new segments
+	
+	// all segments, oldest first. Replaced with a longer copy when a segment is added so queries never see it change
+	private volatile Segment[] segments;
+	
+	// only used by the appending thread
+	private Segment      currentSegment;
+	private long         lastStartTime;
+	private final byte[] recordBytes = new byte[RECORD_SIZE]; // record being appended
+	private final CRC32C checksum    = new CRC32C();
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * One segment file, mapped into memory.
+	 */
+	private static class Segment
+	{
+		private final MappedByteBuffer buffer;
+		private final int              capacity;
+		private final long             firstRecord;
+		private final int              generation; // mixed into the checksums of the records written now
+		
+		// start time of every INDEX_INTERVALth record while the segment can be appended to, or null if it was already
+		// sealed when opened and the index is read from the file
+		private final long[] indexStartTimes;
+		
+		// number of records written. Written after the record and its index entry, so readers see them complete
+		private volatile int numRecords = 0;
+		
+		private Segment(MappedByteBuffer buffer, int capacity, long firstRecord, int generation, boolean sealed)
+		{
+			this.buffer      = buffer;
+			this.capacity    = capacity;
+			this.firstRecord = firstRecord;
+			this.generation  = generation;
+			
+			indexStartTimes = sealed ? null : new long[getNumIndexEntries(capacity)];
+		}
+		
+		/**
+		 * Creates a new segment file with its header written to disk.
+		 */
+		static Segment create(Path directory, long firstRecord, int capacity) throws IOException
+		{
+			Path path     = directory.resolve(getSegmentFileName(firstRecord));
+			Path tempPath = directory.resolve(getSegmentFileName(firstRecord) + TEMP_FILE_EXTENSION);
+			
+			MappedByteBuffer buffer = map(tempPath, capacity);
+			buffer.putInt (0,  SEGMENT_MAGIC);
+			buffer.putInt (4,  SEGMENT_FORMAT_VERSION);
+			buffer.putInt (8,  capacity);
+			buffer.putLong(12, firstRecord);
+			buffer.putInt (HEADER_COMMITTED_RECORDS_OFFSET, 0);
+			buffer.putInt (HEADER_GENERATION_OFFSET, 0);
+			buffer.force();
+			
+			// only give the file its final name once it is complete. The mapping stays valid
+			Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+			
+			return new Segment(buffer, capacity, firstRecord, 0, false);
+		}
+		
+		/**
+		 * Opens an existing segment file. A sealed segment is used as is. The records of a segment that is not are
+		 * counted from its last committed one and committed, its index is rebuilt and its generation is bumped.
+		 */
+		static Segment open(Path path) throws IOException
+		{
+			int capacity;
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+			{
+				MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SEGMENT_HEADER_SIZE);
+				if (header.getInt(0) != SEGMENT_MAGIC || header.getInt(4) != SEGMENT_FORMAT_VERSION)
+					throw new IOException("Not a segment of a supported version: " + path);
+				
+				capacity = header.getInt(8);
+				if (capacity <= 0 || capacity > MAX_SEGMENT_CAPACITY || channel.size() < getSegmentSize(capacity))
+					throw new IOException("Invalid segment: " + path);
+			}
+			
+			MappedByteBuffer buffer = map(path, capacity);
+			
+			int numCommittedRecords = buffer.getInt(HEADER_COMMITTED_RECORDS_OFFSET);
+			if (numCommittedRecords < 0 || numCommittedRecords > capacity)
+				throw new IOException("Invalid segment: " + path);
+			
+			// the records and the index of a sealed segment are all on disk
+			boolean sealed     = numCommittedRecords == capacity;
+			int     generation = buffer.getInt(HEADER_GENERATION_OFFSET);
+			Segment segment    = new Segment(buffer, capacity, buffer.getLong(12), sealed ? generation : generation + 1, sealed);
+			if (sealed)
+			{
+				segment.numRecords = capacity;
+				return segment;
+			}
+			
+			// the committed records are on disk. The ones after them may only be partly there, in any order, so only
+			// count them up to the first one that is not complete
+			CRC32C checksum      = new CRC32C();
+			byte[] record        = new byte[RECORD_SIZE];
+			int    numRecords    = numCommittedRecords;
+			long   lastStartTime = numRecords > 0 ? segment.getStartTime(numRecords - 1) : Long.MIN_VALUE;
+			
+			for (; numRecords < capacity; ++numRecords)
+			{
+				buffer.get(getRecordOffset(numRecords), record);
+				
+				long startTime = segment.getStartTime(numRecords);
+				int  sign      = record[RECORD_SIGN_OFFSET];
+				if ((sign != 1 && sign != -1) || startTime < lastStartTime ||
+						buffer.getInt(getRecordOffset(numRecords) + RECORD_CHECKSUM_OFFSET) != getChecksum(checksum, record, generation))
+					break;
+				
+				lastStartTime = startTime;
+			}
+			
+			for (int i = 0; i < numRecords; i += INDEX_INTERVAL)
+				segment.indexStartTimes[i / INDEX_INTERVAL] = segment.getStartTime(i);
+			
+			// the records found are passed on to queries from now on, so commit them while they still match the
+			// current generation
+			segment.numRecords = numRecords;
+			if (numRecords > numCommittedRecords)
+				segment.commit();
+			
+			// complete records may be left after the first one that is not. New records get the next generation before
+			// any are written, so the old ones after them are never counted
+			buffer.putInt(HEADER_GENERATION_OFFSET, segment.generation);
+			buffer.force(0, SEGMENT_HEADER_SIZE);
+			
+			return segment;
+		}
+		
+		private static MappedByteBuffer map(Path path, int capacity) throws IOException
+		{
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				return channel.map(FileChannel.MapMode.READ_WRITE, 0, getSegmentSize(capacity));
+			}
+		}
+		
+		/**
+		 * Writes a record. Only called by the appending thread while the segment is not full.
+		 * 
+		 * @param record    - The record's bytes, checksum included.
+		 * @param startTime - Start time in the record.
+		 */
+		void append(byte[] record, long startTime)
+		{
+			int recordIndex = numRecords;
+			buffer.put(getRecordOffset(recordIndex), record);
+			
+			if (recordIndex % INDEX_INTERVAL == 0)
+				indexStartTimes[recordIndex / INDEX_INTERVAL] = startTime;
+			
+			// publish the record
+			numRecords = recordIndex + 1;
+		}
+		
+		/**
+		 * Forces the records to disk and then commits them in the header. Committing all the records of a full segment
+		 * seals it, so its index is written out after the records first and the segment never has to be read when it
+		 * is opened again. Only called by the appending thread.
+		 */
+		void commit()
+		{
+			// already sealed when opened
+			if (indexStartTimes == null)
+				return;
+			
+			int numRecords = this.numRecords;
+			if (numRecords == capacity)
+			{
+				int indexOffset = getRecordOffset(capacity);
+				for (int i = 0; i < indexStartTimes.length; ++i)
+					buffer.putLong(indexOffset + i * 8, indexStartTimes[i]);
+			}
+			
+			buffer.force();
+			buffer.putInt(HEADER_COMMITTED_RECORDS_OFFSET, numRecords);
+			buffer.force(0, SEGMENT_HEADER_SIZE);
+		}
+		
+		/**
+		 * Passes on the records with start times in the given range, stopping at the given number of records.
+		 * 
+		 * @return The number of records passed on.
+		 */
+		int query(long fromTime, long toTime, int numRecords, InterruptListener listener)
+		{
+			// find the first index entry in the range. The records before it may be in the range too, so scan from
+			// the entry before it
+			int low  = 0;
+			int high = getNumIndexEntries(numRecords);
+			while (low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if (getIndexStartTime(mid) < fromTime)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			
+			int record = Math.max(low - 1, 0) * INDEX_INTERVAL;
+			while (record < numRecords && getStartTime(record) < fromTime)
+				++record;
+			
+			int numPassedOn = 0;
+			for (; record < numRecords; ++record, ++numPassedOn)
+			{
+				int offset = getRecordOffset(record);
+				
+				long startTime = buffer.getLong(offset);
+				if (startTime >= toTime)
+					break;
+				
+				listener.onInterrupt(startTime, buffer.getLong(offset + 8), buffer.get(offset + RECORD_SIGN_OFFSET));
+			}
+			
+			return numPassedOn;
+		}
+		
+		long getStartTime(int record)
+		{
+			return buffer.getLong(getRecordOffset(record));
+		}
+		
+		private long getIndexStartTime(int entry)
+		{
+			if (indexStartTimes != null)
+				return indexStartTimes[entry];
+			
+			return buffer.getLong(getRecordOffset(capacity) + entry * 8);
+		}
+		
+		private static int getRecordOffset(int record)
+		{
+			return SEGMENT_HEADER_SIZE + record * RECORD_SIZE;
+		}
+		
+		private static int getNumIndexEntries(int numRecords)
+		{
+			return (numRecords + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+		}
+		
+		private static int getSegmentSize(int capacity)
+		{
+			return getRecordOffset(capacity) + getNumIndexEntries(capacity) * 8;
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Opens the log in the given directory with the default segment capacity.
+	 * 
+	 * @see #InterruptLog(Path, int)
+	 */
+	public InterruptLog(Path directory) throws IOException
+	{
+		this(directory, DEFAULT_SEGMENT_CAPACITY);
+	}
+	
+	/**
+	 * Opens the log in the given directory, creating it if needed. Existing segments are recovered and appended to.
+	 * 
+	 * @param directory       - Directory holding the segment files.
+	 * @param segmentCapacity - Number of records in new segments. Existing segments keep their own capacity.
+	 * 
+	 * @throws IOException If the directory or a segment could not be opened or created.
+	 */
+	public InterruptLog(Path directory, int segmentCapacity) throws IOException
+	{
+		if (segmentCapacity <= 0 || segmentCapacity > MAX_SEGMENT_CAPACITY)
+			throw new IllegalArgumentException("Invalid segment capacity " + segmentCapacity);
+		
+		this.directory       = directory;
+		this.segmentCapacity = segmentCapacity;
+		
+		Files.createDirectories(directory);
+		
+		// segment file names sort in order of their first record
+		List<Path> paths = new ArrayList<Path>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory))
+		{
+			for (Path path : directoryStream)
+			{
+				String fileName = path.getFileName().toString();
+				
+				// a segment that was being created when we went down
+				if (fileName.endsWith(SEGMENT_FILE_EXTENSION + TEMP_FILE_EXTENSION))
+					Files.delete(path);
+				else if (fileName.endsWith(SEGMENT_FILE_EXTENSION))
+					paths.add(path);
+			}
+		}
+		
+		paths.sort(null);
+		
+		List<Segment> openedSegments = new ArrayList<Segment>();
+		for (Path path : paths)
+			openedSegments.add(Segment.open(path));
+		
+		if (openedSegments.isEmpty())
+			openedSegments.add(Segment.create(directory, 0, segmentCapacity));
+		
+		segments       = openedSegments.toArray(new Segment[openedSegments.size()]);
+		currentSegment = segments[segments.length - 1];
+		lastStartTime  = currentSegment.numRecords > 0 ? currentSegment.getStartTime(currentSegment.numRecords - 1) : Long.MIN_VALUE;
+	}
+	
+	
+	/**
+	 * Appends the interrupt. Called on the detection thread.
+	 * 
+	 * @throws UncheckedIOException If a new segment could not be created.
+	 */
+	public void onInterrupt(long startTime, long endTime, int sign)
+	{
+		try
+		{
+			append(startTime, endTime, sign);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Appends an interrupt to the log. Only one thread may append.
+	 * 
+	 * @param startTime - Start time of the interrupt. Must not be before the start time of the last interrupt.
+	 * @param endTime   - End time of the interrupt.
+	 * @param sign      - Sign of the interrupt (1 or -1).
+	 * 
+	 * @throws IOException If a new segment could not be created.
+	 */
+	public void append(long startTime, long endTime, int sign) throws IOException
+	{
+		if (startTime < lastStartTime)
+			throw new IllegalArgumentException("Interrupts must be appended in order of start time");
+		if (sign != 1 && sign != -1)
+			throw new IllegalArgumentException("Invalid sign " + sign);
+		
+		if (currentSegment.numRecords == currentSegment.capacity)
+			rollOver();
+		
+		ByteBuffer record = ByteBuffer.wrap(recordBytes);
+		record.putLong(0, startTime);
+		record.putLong(8, endTime);
+		record.put(RECORD_SIGN_OFFSET, (byte)sign);
+		record.putInt(RECORD_CHECKSUM_OFFSET, getChecksum(checksum, recordBytes, currentSegment.generation));
+		
+		currentSegment.append(recordBytes, startTime);
+		lastStartTime = startTime;
+	}
+	
+	/**
+	 * Seals the full current segment and starts a new one.
+	 */
+	private void rollOver() throws IOException
+	{
+		// the segment is full, so committing it seals it
+		currentSegment.commit();
+		
+		Segment segment = Segment.create(directory, currentSegment.firstRecord + currentSegment.capacity, segmentCapacity);
+		
+		Segment[] newSegments = Arrays.copyOf(segments, segments.length + 1);
+		newSegments[segments.length] = segment;
+		
+		segments       = newSegments;
+		currentSegment = segment;
+	}
+	
+	
+	/**
+	 * Passes on the interrupts that start in the given range, in order. May be called from any thread while
+	 * interrupts are appended.
+	 * 
+	 * @param fromTime - Start of the range, inclusive.
+	 * @param toTime   - End of the range, exclusive.
+	 * @param listener - Listener to pass the interrupts to on the calling thread.
+	 * 
+	 * @return The number of interrupts passed on.
+	 */
+	public long query(long fromTime, long toTime, InterruptListener listener)
+	{
+		Segment[] segments = this.segments;
+		
+		// count the records of each segment before looking at them, so later ones are never seen without earlier ones
+		int[] numRecords = new int[segments.length];
+		for (int i = segments.length - 1; i >= 0; --i)
+			numRecords[i] = segments[i].numRecords;
+		
+		long numPassedOn = 0;
+		for (int i = 0; i < segments.length; ++i)
+		{
+			Segment segment = segments[i];
+			if (numRecords[i] == 0)
+				continue;
+			
+			// segments are in order, so none of the rest are in the range
+			if (segment.getStartTime(0) >= toTime)
+				break;
+			
+			// the whole segment is before the range
+			if (segment.getStartTime(numRecords[i] - 1) < fromTime)
+				continue;
+			
+			numPassedOn += segment.query(fromTime, toTime, numRecords[i], listener);
+		}
+		
+		return numPassedOn;
+	}
+	
+	
+	/**
+	 * Writes the records appended to the current segment to disk and commits them, so they are kept no matter what.
+	 * Called on the appending thread.
+	 */
+	public void flush()
+	{
+		currentSegment.commit();
+	}
+	
+	/**
+	 * Writes the records appended to disk. The log must not be used after it is closed.
+	 */
+	public void close()
+	{
+		flush();
+	}
+	
+	
+	/**
+	 * Calculates the checksum of a record.
+	 * 
+	 * @param checksum   - Checksum to reuse.
+	 * @param record     - The record's bytes.
+	 * @param generation - Generation of the segment the record is written in.
+	 * 
+	 * @return The checksum of the start, end and sign, xor the generation.
+	 */
+	private static int getChecksum(CRC32C checksum, byte[] record, int generation)
+	{
+		checksum.reset();
+		checksum.update(record, 0, RECORD_CHECKSUM_OFFSET);
+		return (int)checksum.getValue() ^ generation;
+	}
+	
+	private static String getSegmentFileName(long firstRecord)
+	{
+		return String.format("%020d", firstRecord) + SEGMENT_FILE_EXTENSION;
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	/**
+	 * @return The number of interrupts in the log.
+	 */
+	public long getNumInterrupts()
+	{
+		Segment[] segments = this.segments;
+		Segment lastSegment = segments[segments.length - 1];
+		
+		return lastSegment.firstRecord + lastSegment.numRecords;
+	}
+	
+	/**
+	 * @return The directory holding the segment files.
+	 */
+	public Path getDirectory()
+	{
+		return directory;
+	}
+}
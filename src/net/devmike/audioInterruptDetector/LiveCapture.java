@@ -0,0 +1,262 @@
+package net.devmike.audioInterruptDetector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Streams audio from a line into a detector on two threads of its own so a slow call to the detector never makes the
+ * line overflow.<br />
+ * <br />
+ * The capture thread drains the line in large reads into a fixed size lock-free ring buffer and the processing thread
+ * takes whatever has built up out of it and gives it to the detector in one call. The batches grow on their own when
+ * processing falls behind and shrink back to a single read once it catches up. Neither thread ever sleeps: the capture
+ * thread blocks in the line's read and the processing thread parks until the capture thread has more.<br />
+ * <br />
+ * If processing falls so far behind that the ring buffer is full, the audio that does not fit is dropped and counted
+ * as an overrun instead of holding up the line. Interrupts detected after an overrun are early by the duration of the
+ * dropped audio.
+ */
+public class LiveCapture
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// number of reads the ring buffer holds by default
+	private static final int DEFAULT_NUM_READS_BUFFERED = 32;
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final TargetDataLine         line;
+	private final AudioInterruptDetector audioInterruptDetector;
+	private final SampleDecoder          decoder;
+	private final int                    frameSize;
+	
+	private final ByteRingBuffer ringBuffer;
+	private final byte[]         readBuffer;  // only used by the capture thread
+	private final byte[]         batchBuffer; // only used by the processing thread
+	
+	private DetectorMetrics metrics = null;
+	
+	// overruns and the number of bytes they dropped
+	private final AtomicLong numOverruns     = new AtomicLong();
+	private final AtomicLong numBytesDropped = new AtomicLong();
+	
+	private volatile long numInterrupts = 0; // only written by the processing thread
+	
+	private final Thread captureThread;
+	private final Thread processingThread;
+	
+	private volatile boolean waiting      = false; // if the processing thread is waiting for audio
+	private volatile boolean stopped      = false;
+	private volatile boolean captureEnded = false; // if the capture thread will not write any more audio
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a capture with a ring buffer that holds 32 reads.
+	 * 
+	 * @see #LiveCapture(TargetDataLine, AudioInterruptDetector, int)
+	 */
+	public LiveCapture(TargetDataLine line, AudioInterruptDetector audioInterruptDetector)
+	{
+		this(line, audioInterruptDetector, getReadSize(line) * DEFAULT_NUM_READS_BUFFERED);
+	}
+	
+	/**
+	 * Creates a capture. The line must already be open with a mono format supported by
+	 * {@link SampleDecoder#forFormat}. Nothing is read until {@link #start} is called.
+	 * 
+	 * @param line                   - Line to capture audio from.
+	 * @param audioInterruptDetector - Detector to give the audio to.
+	 * @param bufferSize             - Max number of bytes waiting to be processed. Rounded up to a power of 2.
+	 * 
+	 * @throws IllegalArgumentException If the line's format is not supported.
+	 */
+	public LiveCapture(TargetDataLine line, AudioInterruptDetector audioInterruptDetector, int bufferSize)
+	{
+		AudioFormat audioFormat = line.getFormat();
+		
+		this.line                   = line;
+		this.audioInterruptDetector = audioInterruptDetector;
+		this.decoder                = SampleDecoder.forFormat(audioFormat);
+		this.frameSize              = audioFormat.getFrameSize();
+		
+		ringBuffer  = new ByteRingBuffer(bufferSize);
+		readBuffer  = new byte[getReadSize(line)];
+		batchBuffer = new byte[ringBuffer.getCapacity()];
+		
+		captureThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				capture();
+			}
+		}, "LiveCapture capture");
+		
+		processingThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				process();
+			}
+		}, "LiveCapture processing");
+		
+		// the capture thread must never wait on anything but the line
+		captureThread.setPriority(Thread.MAX_PRIORITY);
+	}
+	
+	/**
+	 * @return The number of bytes to read from the line at once: a quarter of its buffer in whole frames.
+	 */
+	private static int getReadSize(TargetDataLine line)
+	{
+		int frameSize = line.getFormat().getFrameSize();
+		return Math.max(line.getBufferSize() / 4 / frameSize, 1) * frameSize;
+	}
+	
+	
+	/**
+	 * Records overruns and the capture backlog in the given metrics. Must be called before {@link #start}.
+	 * 
+	 * @param metrics - Metrics to record to.
+	 */
+	public void setMetrics(DetectorMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Starts the line and both threads.
+	 */
+	public void start()
+	{
+		line.start();
+		processingThread.start();
+		captureThread.start();
+	}
+	
+	
+	/**
+	 * Reads from the line into the ring buffer until stopped. Runs on the capture thread.
+	 */
+	private void capture()
+	{
+		while (!stopped)
+		{
+			// blocks until the read is filled or the line is stopped
+			int numBytesRead = line.read(readBuffer, 0, readBuffer.length);
+			
+			int numBytesWritten = ringBuffer.write(readBuffer, 0, numBytesRead, frameSize);
+			if (numBytesWritten < numBytesRead)
+			{
+				numOverruns.incrementAndGet();
+				numBytesDropped.addAndGet(numBytesRead - numBytesWritten);
+				
+				if (metrics != null)
+					metrics.recordCaptureOverrun(numBytesRead - numBytesWritten);
+			}
+			
+			if (metrics != null)
+				metrics.setCaptureBacklog(line.available() + ringBuffer.getNumBytesAvailable());
+			
+			// wake up the processing thread if it is waiting
+			if (waiting)
+				LockSupport.unpark(processingThread);
+		}
+		
+		// let the processing thread see we are done
+		captureEnded = true;
+		LockSupport.unpark(processingThread);
+	}
+	
+	
+	/**
+	 * Takes everything in the ring buffer and gives it to the detector until stopped. Runs on the processing thread.
+	 */
+	private void process()
+	{
+		while (true)
+		{
+			int numBytes = ringBuffer.read(batchBuffer, 0, batchBuffer.length);
+			
+			// wait for more audio
+			if (numBytes == 0)
+			{
+				// everything captured before we were stopped has been processed
+				if (captureEnded && ringBuffer.isEmpty())
+					return;
+				
+				waiting = true;
+				
+				// check again in case audio was written before the capture thread could see we are waiting
+				if (ringBuffer.isEmpty() && !captureEnded)
+					LockSupport.park(this);
+				
+				waiting = false;
+				continue;
+			}
+			
+			numInterrupts += audioInterruptDetector.processAudioData(batchBuffer, 0, numBytes, decoder);
+		}
+	}
+	
+	
+	/**
+	 * Stops the line and both threads once all the audio captured has been processed.
+	 * 
+	 * @throws InterruptedException If interrupted while waiting for the threads to stop.
+	 */
+	public void stop() throws InterruptedException
+	{
+		stopped = true;
+		line.stop();
+		captureThread.join();
+		processingThread.join();
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	/**
+	 * @return The number of times audio was dropped because processing could not keep up.
+	 */
+	public long getNumOverruns()
+	{
+		return numOverruns.get();
+	}
+	
+	/**
+	 * @return The number of bytes of audio dropped because processing could not keep up.
+	 */
+	public long getNumBytesDropped()
+	{
+		return numBytesDropped.get();
+	}
+	
+	/**
+	 * @return The number of interrupts detected so far.
+	 */
+	public long getNumInterrupts()
+	{
+		return numInterrupts;
+	}
+}
@@ -1,7 +1,11 @@
 package net.devmike.audioInterruptDetector;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -12,29 +16,60 @@ import javax.sound.sampled.TargetDataLine;
 
 import net.devmike.audioInterruptDetector.AudioInterruptVisualizer;
 
-// TODO: memopry leak
 public class Main
 {
+	// number of bytes of a file to map and process at once when analyzing
+	private static final int ANALYZE_FILE_MAP_SIZE = 64 * 1024 * 1024;
+	
 	public static void main(String[] args) throws Exception
 	{
+		// analyze a file as fast as possible without a visualizer
+		if (args.length == 2 && args[0].equals("-analyze"))
+		{
+			analyzeFile(new File(args[1]));
+			return;
+		}
+		
+		// accept audio streams over TCP. Metrics are available over JMX and optionally as text over HTTP
+		if ((args.length == 2 || args.length == 3) && args[0].equals("-serve"))
+		{
+			IngestServer ingestServer = new IngestServer(Integer.parseInt(args[1]));
+			ingestServer.getMetrics().register("ingest");
+			
+			if (args.length == 3)
+			{
+				ingestServer.getMetrics().startTextEndpoint(Integer.parseInt(args[2]));
+				System.out.println("Serving metrics on port " + args[2]);
+			}
+			
+			System.out.println("Listening on port " + ingestServer.getPort());
+			ingestServer.run();
+			return;
+		}
+		
 		// create the visualizer
 		AudioInterruptVisualizer audioVisualizer = new AudioInterruptVisualizer(AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD);
 		
 		// create the detector
 		AudioInterruptDetector audioInterruptDetector = new AudioInterruptDetector(audioVisualizer);
 		
+		// record metrics to view over JMX
+		DetectorMetrics metrics = new DetectorMetrics();
+		metrics.register("main");
+		audioInterruptDetector.setMetrics(metrics);
+		
 		
 		streamFromFile(audioInterruptDetector);
-		//streamFromMic(audioInterruptDetector);
+		//streamFromMic(audioInterruptDetector, metrics);
 	}
 	
-	private static void streamFromMic(AudioInterruptDetector audioInterruptDetector) throws Exception
+	private static void streamFromMic(AudioInterruptDetector audioInterruptDetector, DetectorMetrics metrics) throws Exception
 	{
 		// create our format
 		AudioFormat audioFormat = new AudioFormat(
 				AudioFormat.Encoding.PCM_SIGNED, // encoding
 				88200.0f,                        // sample rate. NOTE: Changing this may throw off several algorithms since we assume 1 unit of time between each sample
-				16,                              // sample size in bits. NOTE: If you change this, you will have to change the amplitude data type.
+				16,                              // sample size in bits. Any size SampleDecoder supports will work
 				1,                               // channels
 				2,                               // frame size
 				88200.0f,                        // frame rate
@@ -50,24 +85,10 @@ public class Main
 		TargetDataLine line = (TargetDataLine)AudioSystem.getLine(info);
 		line.open(audioFormat);
 		
-		// start listening
-		line.start();
-		
-		long numIterrupts = 0;
-		byte[] audioByteBuffer = new byte[line.getBufferSize()];
-		while (true)
-		{
-			// read bytes from the line
-			int numBytesRead = line.read(audioByteBuffer, 0, 180);
-			
-			if (line.available() > line.getBufferSize() / 2)
-				System.err.println("Getting behind! " + line.available());
-			
-			if (numBytesRead > -1)
-				numIterrupts += audioInterruptDetector.processAudioData(audioByteBuffer, 0, numBytesRead, audioFormat.isBigEndian());
-			
-			Thread.sleep(1);
-		}
+		// capture and process on threads of their own. They keep running after we return
+		LiveCapture liveCapture = new LiveCapture(line, audioInterruptDetector);
+		liveCapture.setMetrics(metrics);
+		liveCapture.start();
 	}
 	
 	private static void streamFromFile(AudioInterruptDetector audioInterruptDetector) throws Exception
@@ -127,4 +148,58 @@ public class Main
 		System.out.println("Read " + totalNumBytesRead + " bytes total");
 		System.out.println(numIterrupts + " Iterrupts");
 	}
+	
+	private static void analyzeFile(File file) throws Exception
+	{
+		// map the file
+		WavFile wavFile = WavFile.open(file);
+		
+		try
+		{
+			// we can only process 16 bit mono PCM
+			if (wavFile.getFormat() != WavFile.FORMAT_PCM || wavFile.getBitsPerSample() != 16 || wavFile.getNumChannels() != 1)
+				throw new Exception("Only 16 bit mono PCM is supported");
+			
+			// buffer the output so printing does not slow down the analysis
+			final PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024), false);
+			final double sampleRate = wavFile.getSampleRate();
+			
+			// create the detector and print the interrupts as they are detected. The file is split up between all processors
+			ParallelAudioInterruptDetector audioInterruptDetector = new ParallelAudioInterruptDetector();
+			audioInterruptDetector.addInterruptListener(new InterruptListener()
+			{
+				public void onInterrupt(long startTime, long endTime, int sign)
+				{
+					// print the times in seconds from the start of the file
+					out.println(
+							"Interrupt " +
+							((startTime - AudioSample.TIME_MIN_VALUE) / sampleRate) + "s - " +
+							((endTime   - AudioSample.TIME_MIN_VALUE) / sampleRate) + "s");
+				}
+			});
+			
+			long dataLength = wavFile.getDataLength();
+			long numIterrupts = 0;
+			long startNanoTime = System.nanoTime();
+			
+			// process the file in large slices
+			for (long position = 0; position < dataLength; position += ANALYZE_FILE_MAP_SIZE)
+			{
+				int length = (int)Math.min(ANALYZE_FILE_MAP_SIZE, dataLength - position);
+				numIterrupts += audioInterruptDetector.processAudioData(wavFile.mapData(position, length));
+			}
+			
+			double seconds = (System.nanoTime() - startNanoTime) / 1000000000d;
+			
+			out.println("Done Reading");
+			out.println("Read " + dataLength + " bytes total");
+			out.println(numIterrupts + " Iterrupts");
+			out.println("Throughput " + (dataLength / seconds / 1000000d) + " MB/s");
+			out.flush();
+		}
+		finally
+		{
+			wavFile.close();
+		}
+	}
 }
@@ -0,0 +1,542 @@
+package net.devmike.audioInterruptDetector;
+
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Detects interrupts in every channel of interleaved multi-channel audio in a single pass over the data.<br />
+ * <br />
+ * Each channel has its own {@link DetectionStrategy}, {@link ThresholdDetectionStrategy} by default, and finds exactly
+ * the interrupts an {@link AudioInterruptDetector} with the same strategy would find on its own. Instead of
+ * de-interleaving the data and reading it once per channel, the frames are decoded a block at a time and walked once,
+ * adding each sample to its channel's group. The groups and the history of all the channels are kept in arrays
+ * indexed by channel, so the channels of a frame are updated from adjacent memory, and each normalized sample is
+ * passed to its channel's strategy as soon as it is created.<br />
+ * <br />
+ * Only the groups and the history are laid out structure-of-arrays. The interrupt detection state of each channel is
+ * its own strategy object instead, so any strategy works per channel and behaves exactly the same as in a
+ * single-channel detector. Strategies are called once per normalized sample, not per raw sample, so this costs
+ * little next to the per-sample work that is laid out by channel.<br />
+ * <br />
+ * Interrupts are passed to {@link ChannelInterruptListener}s tagged with the index of their channel. Like
+ * {@link AudioInterruptDetector}, data passed over multiple calls is treated as one stream. No visualizer can be
+ * attached.
+ */
+public final class MultiChannelAudioInterruptDetector
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	private static final int NUM_SAMPLES_IN_NORMALIZED_GROUP = AudioInterruptDetector.NUM_SAMPLES_IN_NORMALIZED_GROUP;
+	private static final int NORMALIZED_SAMPLE_HISTORY_MASK  = AudioInterruptDetector.NORMALIZED_SAMPLE_HISTORY_MASK;
+	
+	// number of samples of all channels to decode at once
+	private static final int BLOCK_NUM_SAMPLES = 4096;
+	
+	// if blocks are checked for samples above the threshold before totaling them. See AudioInterruptDetector
+	private static final boolean PRESCAN_BLOCKS = AudioInterruptDetector.KERNELS.isVectorized();
+	
+	// decoders for 16 bit PCM samples
+	private static final SampleDecoder PCM16_BIG_ENDIAN    = SampleDecoder.forFormat(new AudioFormat(44100f, 16, 1, true, true));
+	private static final SampleDecoder PCM16_LITTLE_ENDIAN = SampleDecoder.forFormat(new AudioFormat(44100f, 16, 1, true, false));
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final int numChannels;
+	
+	// strategy of each channel, and which of them need every raw sample
+	private final DetectionStrategy[] strategies;
+	private final boolean[]           strategiesNeedRawSamples;
+	private final boolean             anyStrategyNeedsRawSamples;
+	
+	// current relative time unit. The same for all channels
+	private long time = AudioSample.TIME_MIN_VALUE;
+	
+	// listeners to notify of interrupts. Replaced instead of changed so notifying never has to create anything
+	private ChannelInterruptListener[] interruptListeners = new ChannelInterruptListener[0];
+	
+	
+	// -------------------------------------------------------------------
+	// intermediate processAudioData variables
+	
+	// if we are given a partial frame at the end of the data, keep its bytes and use them at the start of the next processAudioData
+	private final byte[] leftoverBytes;
+	private int          numLeftoverBytes = 0;
+	
+	// decoded samples of the block being processed, interleaved the same as the data
+	private final short[] blockAmplitudes;
+	private final int     blockNumFrames;
+	
+	// raw samples that have not been used to create a normalized sample yet. All channels always have the same number
+	private final int[] groupTotalAmplitudes;
+	private int         groupNumRawSamples = 0;
+	
+	// amplitudes of the most recent normalized samples of all channels. The channels of a normalized sample are next to
+	// each other, starting at the normalized sample index masked with NORMALIZED_SAMPLE_HISTORY_MASK times the number of channels
+	private final short[] normalizedSampleAmplitudeHistory;
+	
+	private long numNormalizedSamples = 0; // total number of normalized samples created in each channel
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * Gives a channel's strategy the channel's history and passes its interrupts on tagged with the channel.
+	 */
+	private class Channel implements DetectionStrategy.Host
+	{
+		private final int channel;
+		
+		Channel(int channel)
+		{
+			this.channel = channel;
+		}
+		
+		public short getNormalizedSampleAmplitude(long normalizedSampleIndex)
+		{
+			return MultiChannelAudioInterruptDetector.this.getNormalizedSampleAmplitude(channel, normalizedSampleIndex);
+		}
+		
+		public void notifyInterrupt(long startTime, long endTime, int sign)
+		{
+			for (int i = 0; i < interruptListeners.length; ++i)
+				interruptListeners[i].onInterrupt(channel, startTime, endTime, sign);
+		}
+		
+		public void recordAbandonedInterrupt()
+		{
+			// no metrics
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a detector with the default detection parameters.
+	 * 
+	 * @see #MultiChannelAudioInterruptDetector(int, short, int, int)
+	 */
+	public MultiChannelAudioInterruptDetector(int numChannels)
+	{
+		this(numChannels, AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD, AudioInterruptDetector.MIN_INTERRUPT_DURATION, AudioInterruptDetector.MAX_INTERRUPT_DURATION);
+	}
+	
+	/**
+	 * Creates a detector with the given detection parameters for all the channels.
+	 * 
+	 * @param numChannels          - Number of channels in each frame of the data.
+	 * @param amplitudeThreshold   - Amplitude a normalized sample must exceed to be part of an interrupt.
+	 * @param minInterruptDuration - Min duration of a valid interrupt in raw samples.
+	 * @param maxInterruptDuration - Max duration of a valid interrupt in raw samples. Longer possible interrupts are
+	 *                               abandoned.
+	 * 
+	 * @throws IllegalArgumentException If there are no channels, the threshold is negative or the durations are not a
+	 *                                  valid range.
+	 */
+	public MultiChannelAudioInterruptDetector(int numChannels, short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration)
+	{
+		this(numChannels, amplitudeThreshold, minInterruptDuration, maxInterruptDuration, 0);
+	}
+	
+	/**
+	 * Creates a detector with the given detection parameters for all the channels and, if a duration is given, an
+	 * adaptive threshold tracked separately for each channel.
+	 * 
+	 * @param numChannels          - Number of channels in each frame of the data.
+	 * @param amplitudeThreshold   - Amplitude a normalized sample must exceed to be part of an interrupt. The lowest
+	 *                               the threshold goes if it is adaptive.
+	 * @param minInterruptDuration - Min duration of a valid interrupt in raw samples.
+	 * @param maxInterruptDuration - Max duration of a valid interrupt in raw samples. Longer possible interrupts are
+	 *                               abandoned.
+	 * @param envelopeDuration     - Duration in raw samples to track the peak magnitude over, or 0 for a fixed
+	 *                               threshold.
+	 * 
+	 * @throws IllegalArgumentException If there are no channels, or the parameters are not valid for a
+	 *                                  {@link ThresholdDetectionStrategy}.
+	 * 
+	 * @see ThresholdDetectionStrategy#ThresholdDetectionStrategy(short, int, int, int)
+	 */
+	public MultiChannelAudioInterruptDetector(int numChannels, short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration, int envelopeDuration)
+	{
+		this(createThresholdStrategies(numChannels, amplitudeThreshold, minInterruptDuration, maxInterruptDuration, envelopeDuration));
+	}
+	
+	/**
+	 * Creates a detector that finds the interrupts in each channel with its own strategy.
+	 * 
+	 * @param strategies - Strategy of each channel, in channel order. One for every channel in each frame of the data.
+	 *                     Can't be used by any other detector or channel.
+	 * 
+	 * @throws IllegalArgumentException If there are no strategies.
+	 * @throws IllegalStateException    If a strategy already belongs to another detector or channel.
+	 */
+	public MultiChannelAudioInterruptDetector(DetectionStrategy[] strategies)
+	{
+		if (strategies.length < 1)
+			throw new IllegalArgumentException("Invalid number of channels " + strategies.length);
+		
+		numChannels     = strategies.length;
+		this.strategies = strategies.clone();
+		
+		strategiesNeedRawSamples = new boolean[numChannels];
+		
+		boolean anyStrategyNeedsRawSamples = false;
+		for (int c = 0; c < numChannels; ++c)
+		{
+			this.strategies[c].attach(new Channel(c));
+			
+			strategiesNeedRawSamples[c] = this.strategies[c].needsRawSamples();
+			anyStrategyNeedsRawSamples |= strategiesNeedRawSamples[c];
+		}
+		
+		this.anyStrategyNeedsRawSamples = anyStrategyNeedsRawSamples;
+		
+		leftoverBytes   = new byte[numChannels * SampleDecoder.MAX_BYTES_PER_SAMPLE];
+		blockNumFrames  = Math.max(BLOCK_NUM_SAMPLES / numChannels, 1);
+		blockAmplitudes = new short[blockNumFrames * numChannels];
+		
+		groupTotalAmplitudes             = new int[numChannels];
+		normalizedSampleAmplitudeHistory = new short[AudioInterruptDetector.NORMALIZED_SAMPLE_HISTORY_SIZE * numChannels];
+	}
+	
+	/**
+	 * Creates a {@link ThresholdDetectionStrategy} for each channel.
+	 * 
+	 * @return The strategies.
+	 * 
+	 * @throws IllegalArgumentException If there are no channels or the parameters are not valid.
+	 * 
+	 * @see #MultiChannelAudioInterruptDetector(int, short, int, int, int)
+	 */
+	private static DetectionStrategy[] createThresholdStrategies(int numChannels, short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration, int envelopeDuration)
+	{
+		if (numChannels < 1)
+			throw new IllegalArgumentException("Invalid number of channels " + numChannels);
+		
+		DetectionStrategy[] strategies = new DetectionStrategy[numChannels];
+		for (int c = 0; c < numChannels; ++c)
+			strategies[c] = new ThresholdDetectionStrategy(amplitudeThreshold, minInterruptDuration, maxInterruptDuration, envelopeDuration);
+		
+		return strategies;
+	}
+	
+	/**
+	 * Adds a listener to notify every time an interrupt is detected in any channel.<br />
+	 * <br />
+	 * Listeners are notified on the thread calling {@link #processAudioData}, in the order they were added.
+	 * 
+	 * @param interruptListener - Listener to add.
+	 */
+	public void addInterruptListener(ChannelInterruptListener interruptListener)
+	{
+		ChannelInterruptListener[] newInterruptListeners = Arrays.copyOf(interruptListeners, interruptListeners.length + 1);
+		newInterruptListeners[interruptListeners.length] = interruptListener;
+		
+		interruptListeners = newInterruptListeners;
+	}
+	
+	/**
+	 * Removes a listener added with {@link #addInterruptListener}.
+	 * 
+	 * @param interruptListener - Listener to remove.
+	 */
+	public void removeInterruptListener(ChannelInterruptListener interruptListener)
+	{
+		for (int i = 0; i < interruptListeners.length; ++i)
+		{
+			if (interruptListeners[i] == interruptListener)
+			{
+				ChannelInterruptListener[] newInterruptListeners = new ChannelInterruptListener[interruptListeners.length - 1];
+				System.arraycopy(interruptListeners, 0,     newInterruptListeners, 0, i);
+				System.arraycopy(interruptListeners, i + 1, newInterruptListeners, i, newInterruptListeners.length - i);
+				
+				interruptListeners = newInterruptListeners;
+				return;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Processes the given interleaved 16 bit PCM audio data to find interrupts.
+	 * 
+	 * @param data       - Audio data.
+	 * @param dataOffset - Offset to start from in bytes.
+	 * @param dataLength - Number of bytes to read.
+	 * @param bigEndian  - If the data is big-endian (true) or little-endian (false).
+	 * 
+	 * @return The number of interrupts detected in all the channels.
+	 * 
+	 * @see #processAudioData(byte[], int, int, SampleDecoder)
+	 */
+	public int processAudioData(byte[] data, int dataOffset, int dataLength, boolean bigEndian)
+	{
+		return processAudioData(data, dataOffset, dataLength, bigEndian ? PCM16_BIG_ENDIAN : PCM16_LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Processes the given interleaved audio data to find interrupts.<br />
+	 * <br />
+	 * Each frame holds one sample of every channel, in channel order. The frames are decoded a block at a time and
+	 * each sample is added to its channel as the frames are walked. If the data ends with a partial frame, its bytes
+	 * are used at the start of the next call. The same format must be used for the whole stream.
+	 * 
+	 * @param data       - Audio data.
+	 * @param dataOffset - Offset to start from in bytes.
+	 * @param dataLength - Number of bytes to read.
+	 * @param decoder    - Decoder for the format of a single sample, as returned by {@link SampleDecoder#forFormat}
+	 *                     for the mono version of the data's format.
+	 * 
+	 * @return The number of interrupts detected in all the channels.
+	 */
+	public int processAudioData(byte[] data, int dataOffset, int dataLength, SampleDecoder decoder)
+	{
+		// number of detected interrupts
+		int numInterrupts = 0;
+		
+		int frameSize = decoder.getBytesPerSample() * numChannels;
+		int i         = dataOffset;
+		int dataEnd   = dataOffset + dataLength;
+		
+		// check if we should complete the leftover partial frame
+		if (numLeftoverBytes > 0)
+		{
+			while (numLeftoverBytes < frameSize && i < dataEnd)
+				leftoverBytes[numLeftoverBytes++] = data[i++];
+			
+			if (numLeftoverBytes == frameSize)
+			{
+				decoder.decode(leftoverBytes, 0, blockAmplitudes, numChannels);
+				numInterrupts += processFrames(1);
+				
+				numLeftoverBytes = 0;
+			}
+		}
+		
+		// decode and process whole frames a block at a time
+		int numFrames;
+		while ((numFrames = Math.min((dataEnd - i) / frameSize, blockNumFrames)) > 0)
+		{
+			decoder.decode(data, i, blockAmplitudes, numFrames * numChannels);
+			numInterrupts += processFrames(numFrames);
+			
+			i += numFrames * frameSize;
+		}
+		
+		// check if we have a partial frame left over
+		if (i < dataEnd)
+		{
+			System.arraycopy(data, i, leftoverBytes, 0, dataEnd - i);
+			numLeftoverBytes = dataEnd - i;
+		}
+		
+		// done!
+		return numInterrupts;
+	}
+	
+	
+	/**
+	 * Adds the decoded frames at the start of the block to their channels' groups and creates normalized samples as
+	 * the groups fill up.
+	 * 
+	 * @param numFrames - Number of frames in the block.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	private int processFrames(int numFrames)
+	{
+		int numInterrupts = 0;
+		
+		// strategies that need every raw sample get them before the normalized samples they are part of
+		if (anyStrategyNeedsRawSamples)
+			numInterrupts += processRawSamples(numFrames);
+		
+		// we assume 1 unit of time between each frame, so we just increment time
+		time += numFrames;
+		
+		int f = 0;
+		
+		// finish the current group first so the rest of the groups can be totaled at once
+		for (; groupNumRawSamples > 0 && f < numFrames; ++f)
+			numInterrupts += addFrame(f * numChannels);
+		
+		// when every channel's strategy is quiet and no sample in the rest of the block is louder than they allow, the
+		// groups can't change anything. Only the groups that end up in the history need to be totaled
+		int numGroups      = (numFrames - f) / NUM_SAMPLES_IN_NORMALIZED_GROUP;
+		int quietAmplitude = getQuietAmplitude();
+		if (PRESCAN_BLOCKS && numGroups > AudioInterruptDetector.NORMALIZED_SAMPLE_HISTORY_SIZE && quietAmplitude >= 0 &&
+				AudioInterruptDetector.KERNELS.peak(blockAmplitudes, f * numChannels, (f + numGroups * NUM_SAMPLES_IN_NORMALIZED_GROUP) * numChannels) <= quietAmplitude)
+		{
+			int numSkippedGroups = numGroups - AudioInterruptDetector.NORMALIZED_SAMPLE_HISTORY_SIZE;
+			
+			numNormalizedSamples += numSkippedGroups;
+			f += numSkippedGroups * NUM_SAMPLES_IN_NORMALIZED_GROUP;
+		}
+		
+		// total whole groups a channel at a time
+		int groupNumSamples = NUM_SAMPLES_IN_NORMALIZED_GROUP * numChannels;
+		for (; f + NUM_SAMPLES_IN_NORMALIZED_GROUP <= numFrames; f += NUM_SAMPLES_IN_NORMALIZED_GROUP)
+		{
+			int groupStart = f * numChannels;
+			for (int c = 0; c < numChannels; ++c)
+			{
+				int total = 0;
+				for (int j = groupStart + c; j < groupStart + groupNumSamples; j += numChannels)
+					total += blockAmplitudes[j];
+				
+				groupTotalAmplitudes[c] = total;
+			}
+			
+			numInterrupts += createNormalizedSamples();
+		}
+		
+		for (; f < numFrames; ++f)
+			numInterrupts += addFrame(f * numChannels);
+		
+		return numInterrupts;
+	}
+	
+	/**
+	 * Passes the raw samples of the decoded frames at the start of the block to the strategies that need them.
+	 * 
+	 * @param numFrames - Number of frames in the block.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	private int processRawSamples(int numFrames)
+	{
+		int numInterrupts = 0;
+		
+		for (int c = 0; c < numChannels; ++c)
+		{
+			if (!strategiesNeedRawSamples[c])
+				continue;
+			
+			DetectionStrategy strategy = strategies[c];
+			for (int f = 0, j = c; f < numFrames; ++f, j += numChannels)
+				numInterrupts += strategy.processRawSample(time + f, blockAmplitudes[j]);
+		}
+		
+		return numInterrupts;
+	}
+	
+	/**
+	 * Adds the samples of a frame to their channels' groups and creates normalized samples once the groups are full.
+	 * 
+	 * @param frameStart - Index of the frame's first sample in the block.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	private int addFrame(int frameStart)
+	{
+		// total the amplitudes of each channel
+		for (int c = 0; c < numChannels; ++c)
+			groupTotalAmplitudes[c] += blockAmplitudes[frameStart + c];
+		
+		// wait until we have enough raw samples to create normalized samples
+		if (++groupNumRawSamples < NUM_SAMPLES_IN_NORMALIZED_GROUP)
+			return 0;
+		
+		return createNormalizedSamples();
+	}
+	
+	/**
+	 * Creates the next normalized sample of every channel from its group and passes it to the channel's strategy
+	 * unless the strategy is quiet and the sample can't change anything.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	private int createNormalizedSamples()
+	{
+		int numInterrupts = 0;
+		
+		long normalizedSampleIndex = numNormalizedSamples++;
+		int  historyOffset         = (int)(normalizedSampleIndex & NORMALIZED_SAMPLE_HISTORY_MASK) * numChannels;
+		
+		for (int c = 0; c < numChannels; ++c)
+		{
+			// average the amplitudes
+			short normalizedAmplitude = (short)(groupTotalAmplitudes[c] / NUM_SAMPLES_IN_NORMALIZED_GROUP);
+			
+			groupTotalAmplitudes[c] = 0;
+			normalizedSampleAmplitudeHistory[historyOffset + c] = normalizedAmplitude;
+			
+			// normalized samples that are not louder than a quiet strategy allows don't change anything
+			DetectionStrategy strategy = strategies[c];
+			int quietAmplitude = strategy.getQuietAmplitude();
+			if (quietAmplitude < 0 || Math.abs(normalizedAmplitude) > quietAmplitude)
+				numInterrupts += strategy.processNormalizedSample(normalizedSampleIndex, normalizedAmplitude);
+		}
+		
+		groupNumRawSamples = 0;
+		
+		return numInterrupts;
+	}
+	
+	/**
+	 * @return The lowest amplitude any channel's strategy allows while quiet, or -1 if any of them is not quiet.
+	 */
+	private int getQuietAmplitude()
+	{
+		int quietAmplitude = Integer.MAX_VALUE;
+		for (int c = 0; c < numChannels; ++c)
+		{
+			int channelQuietAmplitude = strategies[c].getQuietAmplitude();
+			if (channelQuietAmplitude < 0)
+				return -1;
+			
+			quietAmplitude = Math.min(quietAmplitude, channelQuietAmplitude);
+		}
+		
+		return quietAmplitude;
+	}
+	
+	
+	/**
+	 * @return The amplitude of a channel's normalized sample with the given index from the history.
+	 */
+	private short getNormalizedSampleAmplitude(int channel, long normalizedSampleIndex)
+	{
+		return normalizedSampleAmplitudeHistory[(int)(normalizedSampleIndex & NORMALIZED_SAMPLE_HISTORY_MASK) * numChannels + channel];
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	/**
+	 * @return The number of channels in each frame.
+	 */
+	public int getNumChannels()
+	{
+		return numChannels;
+	}
+	
+	/**
+	 * @return The time of the next frame.
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+}
@@ -0,0 +1,424 @@
+package net.devmike.audioInterruptDetector;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Detects interrupts in large amounts of audio data using several threads.<br />
+ * <br />
+ * The data is split into chunks and each chunk is processed by its own {@link AudioInterruptDetector} on a
+ * {@link ForkJoinPool}. A detector that starts in the middle of the stream can not know if an interrupt was in
+ * progress at its start or what the sign of the last interrupt was, so it guesses. Once all the chunks are done,
+ * the chunks are reconciled in order: if the real state at the start of a chunk differs from the guess, the chunk
+ * is processed again from the real state until the two agree. From then on the chunk's results are correct.
+ * This usually takes no more than one interrupt, so nearly all the work is done in parallel and the interrupts
+ * found are exactly the same as processing the data with a single {@link AudioInterruptDetector}.<br />
+ * <br />
+ * Like {@link AudioInterruptDetector}, data passed over multiple calls is treated as one stream.
+ */
+public class ParallelAudioInterruptDetector
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// number of bytes in a normalized sample. Chunks are split on normalized sample boundaries
+	private static final int BYTES_PER_NORMALIZED_SAMPLE = AudioInterruptDetector.NUM_SAMPLES_IN_NORMALIZED_GROUP * 2;
+	
+	// number of bytes before a chunk to process to fill a detector's look-back history
+	private static final int HISTORY_NUM_BYTES = AudioInterruptDetector.NORMALIZED_SAMPLE_HISTORY_SIZE * BYTES_PER_NORMALIZED_SAMPLE;
+	
+	// chunks smaller than this are not worth splitting up
+	private static final int MIN_CHUNK_SIZE = BYTES_PER_NORMALIZED_SAMPLE * 50_000; // 1MB
+	
+	// number of chunks to create for each thread so threads that finish early can help out
+	private static final int NUM_CHUNKS_PER_THREAD = 4;
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final ForkJoinPool pool;
+	
+	// detection parameters of all the detectors
+	private final short amplitudeThreshold;
+	private final int   minInterruptDuration;
+	private final int   maxInterruptDuration;
+	
+	// detector that holds the real state of the stream between calls
+	private AudioInterruptDetector detector;
+	
+	// listeners to notify of interrupts
+	private InterruptListener[] interruptListeners = new InterruptListener[0];
+	
+	// notifies all the listeners. Added to the detector with the real state of the stream
+	private final InterruptListener dispatcher = new InterruptListener()
+	{
+		public void onInterrupt(long startTime, long endTime, int sign)
+		{
+			for (int i = 0; i < interruptListeners.length; ++i)
+				interruptListeners[i].onInterrupt(startTime, endTime, sign);
+		}
+	};
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * A chunk of data processed by its own detector and the interrupts it detected.
+	 */
+	private static class Chunk implements InterruptListener
+	{
+		final int start; // position of the chunk in the data
+		final int end;
+		
+		AudioInterruptDetector detector;
+		
+		// detected interrupts and the index of the normalized sample that was being processed when they were detected
+		int    numInterrupts = 0;
+		long[] startTimes    = new long[16];
+		long[] endTimes      = new long[16];
+		int[]  signs         = new int [16];
+		long[] detectedAt    = new long[16];
+		
+		Chunk(int start, int end)
+		{
+			this.start = start;
+			this.end   = end;
+		}
+		
+		public void onInterrupt(long startTime, long endTime, int sign)
+		{
+			if (numInterrupts == startTimes.length)
+			{
+				int newLength = numInterrupts * 2;
+				startTimes = Arrays.copyOf(startTimes, newLength);
+				endTimes   = Arrays.copyOf(endTimes,   newLength);
+				signs      = Arrays.copyOf(signs,      newLength);
+				detectedAt = Arrays.copyOf(detectedAt, newLength);
+			}
+			
+			startTimes[numInterrupts] = startTime;
+			endTimes  [numInterrupts] = endTime;
+			signs     [numInterrupts] = sign;
+			detectedAt[numInterrupts] = detector.getNumNormalizedSamples() - 1;
+			++numInterrupts;
+		}
+	}
+	
+	
+	/**
+	 * Processes a range of chunks, splitting the range up between threads.
+	 */
+	private class ChunkTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1l;
+		
+		// tasks are never serialized
+		private final transient ByteBuffer data;
+		private final transient Chunk[]    chunks;
+		private final           int        fromChunk;
+		private final           int        toChunk;
+		
+		ChunkTask(ByteBuffer data, Chunk[] chunks, int fromChunk, int toChunk)
+		{
+			this.data      = data;
+			this.chunks    = chunks;
+			this.fromChunk = fromChunk;
+			this.toChunk   = toChunk;
+		}
+		
+		protected void compute()
+		{
+			if (toChunk - fromChunk > 1)
+			{
+				int middleChunk = (fromChunk + toChunk) >>> 1;
+				invokeAll(
+						new ChunkTask(data, chunks, fromChunk,   middleChunk),
+						new ChunkTask(data, chunks, middleChunk, toChunk));
+				return;
+			}
+			
+			Chunk chunk = chunks[fromChunk];
+			chunk.detector.addInterruptListener(chunk);
+			chunk.detector.processAudioData(slice(data, chunk.start, chunk.end));
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a detector that uses a thread for each processor.
+	 */
+	public ParallelAudioInterruptDetector()
+	{
+		this(new ForkJoinPool());
+	}
+	
+	/**
+	 * Creates a detector that uses the threads of the given pool.
+	 * 
+	 * @param pool - Pool to process chunks on.
+	 */
+	public ParallelAudioInterruptDetector(ForkJoinPool pool)
+	{
+		this(pool, AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD, AudioInterruptDetector.MIN_INTERRUPT_DURATION, AudioInterruptDetector.MAX_INTERRUPT_DURATION);
+	}
+	
+	/**
+	 * Creates a detector with the given detection parameters that uses the threads of the given pool.
+	 * 
+	 * @param pool - Pool to process chunks on.
+	 * 
+	 * @see AudioInterruptDetector#AudioInterruptDetector(AudioInterruptVisualizer, short, int, int)
+	 */
+	public ParallelAudioInterruptDetector(ForkJoinPool pool, short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration)
+	{
+		this.pool                 = pool;
+		this.amplitudeThreshold   = amplitudeThreshold;
+		this.minInterruptDuration = minInterruptDuration;
+		this.maxInterruptDuration = maxInterruptDuration;
+		
+		detector = createDetector();
+		detector.addInterruptListener(dispatcher);
+	}
+	
+	/**
+	 * Adds a listener to notify every time an interrupt is detected.<br />
+	 * <br />
+	 * Listeners are notified on the thread calling {@link #processAudioData}, in the same order a single
+	 * {@link AudioInterruptDetector} would detect the interrupts.
+	 * 
+	 * @param interruptListener - Listener to add.
+	 */
+	public void addInterruptListener(InterruptListener interruptListener)
+	{
+		InterruptListener[] newInterruptListeners = Arrays.copyOf(interruptListeners, interruptListeners.length + 1);
+		newInterruptListeners[interruptListeners.length] = interruptListener;
+		
+		interruptListeners = newInterruptListeners;
+	}
+	
+	/**
+	 * Removes a listener added with {@link #addInterruptListener}.
+	 * 
+	 * @param interruptListener - Listener to remove.
+	 */
+	public void removeInterruptListener(InterruptListener interruptListener)
+	{
+		for (int i = 0; i < interruptListeners.length; ++i)
+		{
+			if (interruptListeners[i] == interruptListener)
+			{
+				InterruptListener[] newInterruptListeners = new InterruptListener[interruptListeners.length - 1];
+				System.arraycopy(interruptListeners, 0,     newInterruptListeners, 0, i);
+				System.arraycopy(interruptListeners, i + 1, newInterruptListeners, i, newInterruptListeners.length - i);
+				
+				interruptListeners = newInterruptListeners;
+				return;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Processes the remaining audio data in the given buffer to find interrupts.
+	 * 
+	 * @see AudioInterruptDetector#processAudioData(ByteBuffer)
+	 * 
+	 * @param data - Audio data.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	public int processAudioData(ByteBuffer data)
+	{
+		int numInterrupts = 0;
+		
+		int dataStart = data.position();
+		int dataEnd   = data.limit();
+		
+		// finish off the normalized sample the last call stopped in the middle of so the chunks can start on a boundary
+		int alignedStart = Math.min(dataStart + detector.getNumBytesToNormalizedSampleBoundary(), dataEnd);
+		
+		numInterrupts += detector.processAudioData(slice(data, dataStart, alignedStart));
+		
+		// calculate the number of chunks
+		int numChunks = Math.min(
+				pool.getParallelism() * NUM_CHUNKS_PER_THREAD,
+				(dataEnd - alignedStart) / MIN_CHUNK_SIZE);
+		
+		// not worth splitting up
+		if (numChunks < 2)
+		{
+			numInterrupts += detector.processAudioData(slice(data, alignedStart, dataEnd));
+			data.position(dataEnd);
+			return numInterrupts;
+		}
+		
+		
+		// -------------------------------------------------------------------
+		// split up
+		
+		int chunkSize = (dataEnd - alignedStart) / numChunks / BYTES_PER_NORMALIZED_SAMPLE * BYTES_PER_NORMALIZED_SAMPLE;
+		
+		Chunk[] chunks = new Chunk[numChunks];
+		for (int i = 0; i < numChunks; ++i)
+		{
+			int chunkStart = alignedStart + i * chunkSize;
+			chunks[i] = new Chunk(chunkStart, i == numChunks - 1 ? dataEnd : chunkStart + chunkSize);
+		}
+		
+		// the first chunk continues from the real state
+		chunks[0].detector = detector;
+		
+		// the rest have to guess
+		long alignedStartSampleIndex = detector.getSampleIndex();
+		for (int i = 1; i < numChunks; ++i)
+			chunks[i].detector = createGuessingDetector(data, chunks[i].start, alignedStartSampleIndex + (chunks[i].start - alignedStart) / 2);
+		
+		// the first chunk records its interrupts like the others while it runs
+		detector.removeInterruptListener(dispatcher);
+		
+		pool.invoke(new ChunkTask(data, chunks, 0, numChunks));
+		
+		
+		// -------------------------------------------------------------------
+		// reconcile
+		
+		// the first chunk is always correct
+		numInterrupts += notifyInterrupts(chunks[0], Long.MIN_VALUE);
+		
+		AudioInterruptDetector realDetector = chunks[0].detector;
+		realDetector.removeInterruptListener(chunks[0]);
+		realDetector.addInterruptListener(dispatcher);
+		
+		for (int i = 1; i < numChunks; ++i)
+		{
+			Chunk chunk = chunks[i];
+			
+			// create a detector that guesses the same way the chunk's detector did so we can compare the two as they go
+			long chunkStartSampleIndex = realDetector.getSampleIndex();
+			AudioInterruptDetector guessingDetector = createGuessingDetector(data, chunk.start, chunkStartSampleIndex);
+			
+			// continue with the real detector one normalized sample at a time until it is in the same state as the guessing detector
+			int position = chunk.start;
+			while (!realDetector.hasSameInterruptState(guessingDetector) && position < chunk.end)
+			{
+				int nextPosition = Math.min(position + BYTES_PER_NORMALIZED_SAMPLE, chunk.end);
+				
+				numInterrupts += realDetector.processAudioData(slice(data, position, nextPosition));
+				guessingDetector.processAudioData(slice(data, position, nextPosition));
+				
+				position = nextPosition;
+			}
+			
+			// if we never agreed, the real detector has processed the whole chunk
+			if (position == chunk.end)
+				continue;
+			
+			// from here on the chunk's results are correct
+			long agreedNormalizedSampleIndex = realDetector.getNumNormalizedSamples() - 1;
+			numInterrupts += notifyInterrupts(chunk, agreedNormalizedSampleIndex);
+			
+			// and the chunk's detector has the real state at its end
+			realDetector = chunk.detector;
+			realDetector.removeInterruptListener(chunk);
+			realDetector.addInterruptListener(dispatcher);
+		}
+		
+		detector = realDetector;
+		
+		data.position(dataEnd);
+		return numInterrupts;
+	}
+	
+	
+	/**
+	 * @return A new detector with our detection parameters.
+	 */
+	private AudioInterruptDetector createDetector()
+	{
+		return new AudioInterruptDetector(null, amplitudeThreshold, minInterruptDuration, maxInterruptDuration);
+	}
+	
+	/**
+	 * Creates a detector for a chunk that does not start at the current position of the stream.<br />
+	 * <br />
+	 * The detector processes the data before the chunk to fill its look-back history and then forgets any
+	 * interrupt detection status, guessing that no interrupt was in progress and none came before.
+	 * 
+	 * @param data             - Audio data.
+	 * @param chunkStart       - Position of the chunk in the data. Must have at least {@link #HISTORY_NUM_BYTES} bytes before it.
+	 * @param startSampleIndex - Raw sample index in the stream of the start of the chunk.
+	 * 
+	 * @return The detector.
+	 */
+	private AudioInterruptDetector createGuessingDetector(ByteBuffer data, int chunkStart, long startSampleIndex)
+	{
+		AudioInterruptDetector guessingDetector = createDetector();
+		
+		guessingDetector.seek(startSampleIndex - HISTORY_NUM_BYTES / 2);
+		guessingDetector.processAudioData(slice(data, chunkStart - HISTORY_NUM_BYTES, chunkStart));
+		guessingDetector.resetInterruptState();
+		
+		return guessingDetector;
+	}
+	
+	/**
+	 * Notifies the listeners of the interrupts a chunk detected after the given normalized sample.
+	 * 
+	 * @param chunk                 - Chunk to notify the interrupts of.
+	 * @param afterNormalizedSample - Only interrupts detected after this normalized sample index are notified.
+	 * 
+	 * @return The number of interrupts notified.
+	 */
+	private int notifyInterrupts(Chunk chunk, long afterNormalizedSample)
+	{
+		int numInterrupts = 0;
+		
+		for (int i = 0; i < chunk.numInterrupts; ++i)
+		{
+			if (chunk.detectedAt[i] <= afterNormalizedSample)
+				continue;
+			
+			++numInterrupts;
+			
+			dispatcher.onInterrupt(chunk.startTimes[i], chunk.endTimes[i], chunk.signs[i]);
+		}
+		
+		return numInterrupts;
+	}
+	
+	/**
+	 * Creates a view of part of the data with the same byte order.
+	 * 
+	 * @param data  - Audio data.
+	 * @param start - Start position of the view in the data.
+	 * @param end   - End position of the view in the data.
+	 * 
+	 * @return The view.
+	 */
+	private static ByteBuffer slice(ByteBuffer data, int start, int end)
+	{
+		ByteBuffer slice = data.duplicate().order(data.order());
+		slice.limit(end);
+		slice.position(start);
+		
+		return slice;
+	}
+}
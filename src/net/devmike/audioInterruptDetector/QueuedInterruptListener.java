@@ -0,0 +1,165 @@
+package net.devmike.audioInterruptDetector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes interrupts on to another listener on a thread of its own so a slow listener never holds up detection.<br />
+ * <br />
+ * Interrupts are put in a fixed size ring buffer of primitives by the detection thread (the single producer) and
+ * taken out by the listener thread (the single consumer) without any locks. If the listener falls so far behind
+ * that the buffer is full, new interrupts are dropped and counted instead of waiting.<br />
+ * <br />
+ * Only one detector may notify a queued listener.
+ */
+public class QueuedInterruptListener implements InterruptListener
+{
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final InterruptListener listener;
+	
+	// ring buffer of interrupts. Indexed by the interrupt number masked with the buffer mask
+	private final int    bufferMask;
+	private final long[] startTimes;
+	private final long[] endTimes;
+	private final byte[] signs;
+	
+	// number of interrupts put in and taken out of the buffer
+	private final AtomicLong numPut   = new AtomicLong();
+	private final AtomicLong numTaken = new AtomicLong();
+	
+	// number of interrupts dropped because the buffer was full
+	private final AtomicLong numDropped = new AtomicLong();
+	
+	private final Thread thread;
+	
+	private volatile boolean waiting = false; // if the listener thread is waiting for interrupts
+	private volatile boolean stopped = false;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a queue in front of the given listener and starts the listener thread.
+	 * 
+	 * @param listener - Listener to notify on the listener thread.
+	 * @param capacity - Max number of interrupts waiting to be passed on. Rounded up to a power of 2.
+	 */
+	public QueuedInterruptListener(InterruptListener listener, int capacity)
+	{
+		this.listener = listener;
+		
+		int bufferSize = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		bufferMask = bufferSize - 1;
+		startTimes = new long[bufferSize];
+		endTimes   = new long[bufferSize];
+		signs      = new byte[bufferSize];
+		
+		thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				passOnInterrupts();
+			}
+		}, "QueuedInterruptListener");
+		
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	
+	/**
+	 * Puts the interrupt in the buffer. Called on the detection thread.
+	 */
+	public void onInterrupt(long startTime, long endTime, int sign)
+	{
+		long put = numPut.get();
+		
+		// drop the interrupt if the buffer is full
+		if (put - numTaken.get() > bufferMask)
+		{
+			numDropped.incrementAndGet();
+			return;
+		}
+		
+		int index = (int)(put & bufferMask);
+		startTimes[index] = startTime;
+		endTimes  [index] = endTime;
+		signs     [index] = (byte)sign;
+		
+		// publish the interrupt
+		numPut.set(put + 1);
+		
+		// wake up the listener thread if it is waiting
+		if (waiting)
+			LockSupport.unpark(thread);
+	}
+	
+	
+	/**
+	 * Takes interrupts out of the buffer and passes them on until stopped. Runs on the listener thread.
+	 */
+	private void passOnInterrupts()
+	{
+		long taken = numTaken.get();
+		
+		while (true)
+		{
+			long put = numPut.get();
+			
+			// wait for more interrupts
+			if (taken == put)
+			{
+				// everything put in before we were stopped has been passed on
+				if (stopped && numPut.get() == taken)
+					return;
+				
+				waiting = true;
+				
+				// check again in case an interrupt was put in before the detection thread could see we are waiting
+				if (numPut.get() == taken && !stopped)
+					LockSupport.park(this);
+				
+				waiting = false;
+				continue;
+			}
+			
+			for (; taken < put; ++taken)
+			{
+				int index = (int)(taken & bufferMask);
+				listener.onInterrupt(startTimes[index], endTimes[index], signs[index]);
+				
+				// free up the slot
+				numTaken.lazySet(taken + 1);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stops the listener thread once all the interrupts in the buffer have been passed on.
+	 * 
+	 * @throws InterruptedException If interrupted while waiting for the listener thread to stop.
+	 */
+	public void stop() throws InterruptedException
+	{
+		stopped = true;
+		LockSupport.unpark(thread);
+		thread.join();
+	}
+	
+	/**
+	 * @return The number of interrupts dropped because the listener could not keep up.
+	 */
+	public long getNumDropped()
+	{
+		return numDropped.get();
+	}
+}
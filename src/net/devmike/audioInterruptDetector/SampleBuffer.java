@@ -0,0 +1,113 @@
+package net.devmike.audioInterruptDetector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size ring buffer for passing samples from one thread to another without locks.<br />
+ * <br />
+ * Only one thread may put samples in and only one thread may take them out. If the buffer is full, new samples are
+ * dropped and counted instead of waiting.
+ */
+class SampleBuffer
+{
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	// ring buffer of samples. Indexed by the sample number masked with the buffer mask
+	private final int     bufferMask;
+	private final long[]  times;
+	private final short[] amplitudes;
+	
+	// number of samples put in and taken out of the buffer
+	private final AtomicLong numPut   = new AtomicLong();
+	private final AtomicLong numTaken = new AtomicLong();
+	
+	// the last known number of samples taken. Saves the putting thread from reading numTaken until the buffer looks full
+	private long numTakenCache = 0;
+	
+	// number of samples dropped because the buffer was full. Only written by the putting thread
+	private volatile long numDropped = 0;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * @param capacity - Max number of samples waiting to be taken. Rounded up to a power of 2.
+	 */
+	SampleBuffer(int capacity)
+	{
+		int bufferSize = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		bufferMask = bufferSize - 1;
+		times      = new long [bufferSize];
+		amplitudes = new short[bufferSize];
+	}
+	
+	/**
+	 * Puts a sample in the buffer. Called on the putting thread.
+	 * 
+	 * @param time      - Time of the sample.
+	 * @param amplitude - Amplitude of the sample.
+	 * 
+	 * @return If the sample was put in, false if it was dropped because the buffer was full.
+	 */
+	boolean put(long time, short amplitude)
+	{
+		long put = numPut.get();
+		
+		if (put - numTakenCache > bufferMask)
+		{
+			numTakenCache = numTaken.get();
+			
+			if (put - numTakenCache > bufferMask)
+			{
+				++numDropped;
+				return false;
+			}
+		}
+		
+		int index = (int)(put & bufferMask);
+		times     [index] = time;
+		amplitudes[index] = amplitude;
+		
+		numPut.lazySet(put + 1);
+		return true;
+	}
+	
+	/**
+	 * Takes as many samples out of the buffer as are available and fit. Called on the taking thread.
+	 * 
+	 * @param times      - Array to copy the times of the samples to.
+	 * @param amplitudes - Array to copy the amplitudes of the samples to.
+	 * 
+	 * @return The number of samples taken.
+	 */
+	int take(long[] times, short[] amplitudes)
+	{
+		long taken = numTaken.get();
+		int numSamples = (int)Math.min(numPut.get() - taken, Math.min(times.length, amplitudes.length));
+		
+		for (int i = 0; i < numSamples; ++i)
+		{
+			int index = (int)((taken + i) & bufferMask);
+			times     [i] = this.times     [index];
+			amplitudes[i] = this.amplitudes[index];
+		}
+		
+		numTaken.lazySet(taken + numSamples);
+		return numSamples;
+	}
+	
+	/**
+	 * @return The number of samples dropped because the buffer was full.
+	 */
+	long getNumDropped()
+	{
+		return numDropped;
+	}
+}
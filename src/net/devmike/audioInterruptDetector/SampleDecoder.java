@@ -0,0 +1,371 @@
+package net.devmike.audioInterruptDetector;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts mono audio data of some format into the 16 bit amplitudes the detector works with.<br />
+ * <br />
+ * Each format has its own decoder with its own tight loop, so choosing the format is done once per call instead of
+ * once per sample:
+ * <ul>
+ * <li>signed and unsigned PCM of 8, 16, 24 and 32 bits - the most significant 16 bits are kept</li>
+ * <li>32 bit float PCM - scaled by 32768 and clamped</li>
+ * <li>&mu;-law and A-law - looked up in a table of the standard G.711 expansions</li>
+ * </ul>
+ * Use {@link #forFormat} or {@link #forWavFile} to get the decoder for some audio and pass it to
+ * {@link AudioInterruptDetector#processAudioData(byte[], int, int, SampleDecoder)}. Decoders don't keep any state, so
+ * one decoder can be shared by any number of detectors and threads.
+ */
+public abstract class SampleDecoder
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// largest sample size of any decoder
+	public static final int MAX_BYTES_PER_SAMPLE = 4;
+	
+	// WAV format codes besides PCM
+	private static final int WAV_FORMAT_IEEE_FLOAT = 3;
+	private static final int WAV_FORMAT_ALAW       = 6;
+	private static final int WAV_FORMAT_MULAW      = 7;
+	
+	// amplitudes of every 8 bit G.711 code
+	private static final short[] MU_LAW_AMPLITUDES = new short[256];
+	private static final short[] A_LAW_AMPLITUDES  = new short[256];
+	
+	// reads floats from byte arrays. Must be constants for the reads to be compiled into plain loads
+	private static final VarHandle FLOAT_BIG_ENDIAN    = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle FLOAT_LITTLE_ENDIAN = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+	
+	static
+	{
+		for (int code = 0; code < 256; ++code)
+		{
+			// mu-law: the bits are inverted, then sign, 3 bit exponent and 4 bit mantissa with a bias of 0x84
+			int muLaw = ~code;
+			int magnitude = ((((muLaw & 0x0F) << 3) + 0x84) << ((muLaw & 0x70) >> 4)) - 0x84;
+			MU_LAW_AMPLITUDES[code] = (short)((muLaw & 0x80) != 0 ? -magnitude : magnitude);
+			
+			// A-law: every other bit is inverted, then sign, 3 bit exponent and 4 bit mantissa
+			int aLaw = code ^ 0x55;
+			int exponent = (aLaw & 0x70) >> 4;
+			magnitude = ((aLaw & 0x0F) << 4) + (exponent == 0 ? 8 : 0x108);
+			if (exponent > 1)
+				magnitude <<= exponent - 1;
+			
+			A_LAW_AMPLITUDES[code] = (short)((aLaw & 0x80) != 0 ? magnitude : -magnitude);
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final int bytesPerSample;
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * 8 bit PCM. Unsigned samples are made signed by flipping their top bit.
+	 */
+	private static class Pcm8Decoder extends SampleDecoder
+	{
+		private final int signFlip;
+		
+		Pcm8Decoder(boolean signed)
+		{
+			super(1);
+			signFlip = signed ? 0 : 0x80;
+		}
+		
+		public void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples)
+		{
+			for (int i = 0; i < numSamples; ++i)
+				amplitudes[i] = (short)((data[dataOffset + i] ^ signFlip) << 8);
+		}
+	}
+	
+	/**
+	 * Signed 16 bit PCM, using the detector's kernels.
+	 */
+	private static class Pcm16Decoder extends SampleDecoder
+	{
+		private final boolean bigEndian;
+		
+		Pcm16Decoder(boolean bigEndian)
+		{
+			super(2);
+			this.bigEndian = bigEndian;
+		}
+		
+		public void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples)
+		{
+			AudioInterruptDetector.KERNELS.decode(data, dataOffset, amplitudes, numSamples, bigEndian);
+		}
+	}
+	
+	/**
+	 * 16, 24 or 32 bit PCM. Only the 2 most significant bytes of each sample are read.
+	 */
+	private static class WidePcmDecoder extends SampleDecoder
+	{
+		private final int highByteOffset;
+		private final int lowByteOffset;
+		private final int signFlip;
+		
+		WidePcmDecoder(int bytesPerSample, boolean bigEndian, boolean signed)
+		{
+			super(bytesPerSample);
+			
+			highByteOffset = bigEndian ? 0 : bytesPerSample - 1;
+			lowByteOffset  = bigEndian ? 1 : bytesPerSample - 2;
+			signFlip       = signed ? 0 : 0x80;
+		}
+		
+		public void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples)
+		{
+			int bytesPerSample = getBytesPerSample();
+			for (int i = 0, j = dataOffset; i < numSamples; ++i, j += bytesPerSample)
+				amplitudes[i] = (short)(((data[j + highByteOffset] ^ signFlip) << 8) | (data[j + lowByteOffset] & 0xFF));
+		}
+	}
+	
+	/**
+	 * PCM with fewer valid bits than 16. The valid bits are the most significant ones, so the rest are cleared after
+	 * decoding.
+	 */
+	private static class MaskedPcmDecoder extends SampleDecoder
+	{
+		private final SampleDecoder decoder;
+		private final short         mask;
+		
+		MaskedPcmDecoder(SampleDecoder decoder, int validBitsPerSample)
+		{
+			super(decoder.getBytesPerSample());
+			
+			this.decoder = decoder;
+			mask = (short)(0xFFFF << (16 - validBitsPerSample));
+		}
+		
+		public void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples)
+		{
+			decoder.decode(data, dataOffset, amplitudes, numSamples);
+			
+			for (int i = 0; i < numSamples; ++i)
+				amplitudes[i] &= mask;
+		}
+	}
+	
+	/**
+	 * 32 bit float PCM from -1 to 1. Values outside of the range are clamped.
+	 */
+	private static class FloatDecoder extends SampleDecoder
+	{
+		private final boolean bigEndian;
+		
+		FloatDecoder(boolean bigEndian)
+		{
+			super(4);
+			this.bigEndian = bigEndian;
+		}
+		
+		public void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples)
+		{
+			if (bigEndian)
+			{
+				for (int i = 0; i < numSamples; ++i)
+					amplitudes[i] = toAmplitude((float)FLOAT_BIG_ENDIAN.get(data, dataOffset + i * 4));
+			}
+			else
+			{
+				for (int i = 0; i < numSamples; ++i)
+					amplitudes[i] = toAmplitude((float)FLOAT_LITTLE_ENDIAN.get(data, dataOffset + i * 4));
+			}
+		}
+		
+		private static short toAmplitude(float value)
+		{
+			// min and max compile to branch-free instructions. NaN becomes 0
+			return (short)Math.max(Math.min((int)(value * 32768f), Short.MAX_VALUE), Short.MIN_VALUE);
+		}
+	}
+	
+	/**
+	 * 8 bit companded codes looked up in a table.
+	 */
+	private static class TableDecoder extends SampleDecoder
+	{
+		private final short[] amplitudes;
+		
+		TableDecoder(short[] amplitudes)
+		{
+			super(1);
+			this.amplitudes = amplitudes;
+		}
+		
+		public void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples)
+		{
+			for (int i = 0; i < numSamples; ++i)
+				amplitudes[i] = this.amplitudes[data[dataOffset + i] & 0xFF];
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * @param bytesPerSample - Number of bytes in each sample. At most {@link #MAX_BYTES_PER_SAMPLE}.
+	 */
+	protected SampleDecoder(int bytesPerSample)
+	{
+		if (bytesPerSample < 1 || bytesPerSample > MAX_BYTES_PER_SAMPLE)
+			throw new IllegalArgumentException("Invalid sample size " + bytesPerSample);
+		
+		this.bytesPerSample = bytesPerSample;
+	}
+	
+	/**
+	 * Returns the decoder for the given audio format.
+	 * 
+	 * @param audioFormat - Format of the audio data. Must be mono.
+	 * 
+	 * @return The decoder.
+	 * 
+	 * @throws IllegalArgumentException If the format is not supported.
+	 */
+	public static SampleDecoder forFormat(AudioFormat audioFormat)
+	{
+		if (audioFormat.getChannels() != 1)
+			throw new IllegalArgumentException("Only mono audio is supported");
+		
+		AudioFormat.Encoding encoding = audioFormat.getEncoding();
+		int     bitsPerSample = audioFormat.getSampleSizeInBits();
+		boolean bigEndian     = audioFormat.isBigEndian();
+		
+		if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED) || encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED))
+			return forPcm(bitsPerSample, bigEndian, encoding.equals(AudioFormat.Encoding.PCM_SIGNED));
+		
+		if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && bitsPerSample == 32)
+			return new FloatDecoder(bigEndian);
+		if (encoding.equals(AudioFormat.Encoding.ULAW) && bitsPerSample == 8)
+			return new TableDecoder(MU_LAW_AMPLITUDES);
+		if (encoding.equals(AudioFormat.Encoding.ALAW) && bitsPerSample == 8)
+			return new TableDecoder(A_LAW_AMPLITUDES);
+		
+		throw new IllegalArgumentException("Unsupported audio format " + audioFormat);
+	}
+	
+	/**
+	 * Returns the decoder for the audio data of the given WAV file. 8 bit PCM in WAV files is unsigned, all other
+	 * sizes are signed.<br />
+	 * <br />
+	 * WAVE_FORMAT_EXTENSIBLE files are decoded by the format of their subformat GUID. Samples are read by their
+	 * container size, and bits beyond the valid bits per sample are ignored.
+	 * 
+	 * @param wavFile - WAV file. Must be mono.
+	 * 
+	 * @return The decoder.
+	 * 
+	 * @throws IllegalArgumentException If the format is not supported.
+	 */
+	public static SampleDecoder forWavFile(WavFile wavFile)
+	{
+		if (wavFile.getNumChannels() != 1)
+			throw new IllegalArgumentException("Only mono audio is supported");
+		
+		int     bitsPerSample      = wavFile.getBitsPerSample();
+		int     validBitsPerSample = wavFile.getValidBitsPerSample();
+		boolean bigEndian          = wavFile.getByteOrder() == ByteOrder.BIG_ENDIAN;
+		
+		switch (wavFile.getFormat())
+		{
+			case WavFile.FORMAT_PCM:
+				SampleDecoder decoder = forPcm(bitsPerSample, bigEndian, bitsPerSample != 8);
+				
+				// only the top 16 bits are decoded, so fewer valid bits only matter if they are fewer than that
+				if (validBitsPerSample < Math.min(bitsPerSample, 16))
+					return new MaskedPcmDecoder(decoder, validBitsPerSample);
+				
+				return decoder;
+			
+			case WAV_FORMAT_IEEE_FLOAT:
+				if (bitsPerSample == 32 && validBitsPerSample == 32)
+					return new FloatDecoder(bigEndian);
+				break;
+			
+			case WAV_FORMAT_MULAW:
+				if (bitsPerSample == 8)
+					return new TableDecoder(MU_LAW_AMPLITUDES);
+				break;
+			
+			case WAV_FORMAT_ALAW:
+				if (bitsPerSample == 8)
+					return new TableDecoder(A_LAW_AMPLITUDES);
+				break;
+		}
+		
+		throw new IllegalArgumentException("Unsupported WAV format " + wavFile.getFormat() + " with " + bitsPerSample + " bits per sample");
+	}
+	
+	private static SampleDecoder forPcm(int bitsPerSample, boolean bigEndian, boolean signed)
+	{
+		switch (bitsPerSample)
+		{
+			case 8:
+				return new Pcm8Decoder(signed);
+			
+			case 16:
+				return signed ? new Pcm16Decoder(bigEndian) : new WidePcmDecoder(2, bigEndian, false);
+			
+			case 24:
+			case 32:
+				return new WidePcmDecoder(bitsPerSample / 8, bigEndian, signed);
+		}
+		
+		throw new IllegalArgumentException("Unsupported PCM sample size " + bitsPerSample);
+	}
+	
+	
+	/**
+	 * Converts samples into 16 bit amplitudes.
+	 * 
+	 * @param data       - Audio data.
+	 * @param dataOffset - Offset to start from in bytes.
+	 * @param amplitudes - Array to write the amplitudes to, starting at 0.
+	 * @param numSamples - Number of whole samples to convert.
+	 */
+	public abstract void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples);
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	/**
+	 * @return The number of bytes in each sample.
+	 */
+	public final int getBytesPerSample()
+	{
+		return bytesPerSample;
+	}
+}
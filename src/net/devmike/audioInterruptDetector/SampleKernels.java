@@ -0,0 +1,155 @@
+package net.devmike.audioInterruptDetector;
+
+/**
+ * The inner loops of {@link AudioInterruptDetector} that work on whole blocks of samples at once.<br />
+ * <br />
+ * This class is the plain Java version. If the <code>jdk.incubator.vector</code> module is available (started with
+ * <code>--add-modules jdk.incubator.vector</code>), {@link #create} returns a {@link VectorSampleKernels} instead,
+ * which does the same work with SIMD instructions. Both give exactly the same results.
+ */
+class SampleKernels
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// set this system property to false to always use the plain Java kernels
+	static final String USE_VECTOR_KERNELS_PROPERTY = "audioInterruptDetector.vectorKernels";
+	
+	private static final String VECTOR_MODULE_NAME = "jdk.incubator.vector";
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates the fastest kernels available.
+	 * 
+	 * @return SIMD kernels if the Vector API is available and not disabled, otherwise plain Java kernels.
+	 */
+	static SampleKernels create()
+	{
+		if (Boolean.parseBoolean(System.getProperty(USE_VECTOR_KERNELS_PROPERTY, "true")) &&
+				ModuleLayer.boot().findModule(VECTOR_MODULE_NAME).isPresent())
+		{
+			// load by name so this class still loads without the module
+			try
+			{
+				return (SampleKernels)Class.forName(SampleKernels.class.getPackage().getName() + ".VectorSampleKernels")
+						.getDeclaredConstructor().newInstance();
+			}
+			catch (ReflectiveOperationException | LinkageError e)
+			{
+				// fall back to plain Java
+			}
+		}
+		
+		return new SampleKernels();
+	}
+	
+	
+	/**
+	 * @return A short name for the kernels for printing.
+	 */
+	String getName()
+	{
+		return "scalar";
+	}
+	
+	/**
+	 * @return If the kernels use SIMD instructions.
+	 */
+	boolean isVectorized()
+	{
+		return false;
+	}
+	
+	
+	/**
+	 * Converts pairs of bytes into 16 bit amplitudes.
+	 * 
+	 * @param data       - Audio data.
+	 * @param dataOffset - Offset to start from in bytes.
+	 * @param amplitudes - Array to write the amplitudes to, starting at 0.
+	 * @param numSamples - Number of samples to convert.
+	 * @param bigEndian  - If the data is big-endian (true) or little-endian (false).
+	 */
+	void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples, boolean bigEndian)
+	{
+		if (bigEndian)
+		{
+			for (int i = 0, j = dataOffset; i < numSamples; ++i, j += 2)
+				amplitudes[i] = (short)((data[j] << 8) | (data[j + 1] & 0xFF));
+		}
+		else
+		{
+			for (int i = 0, j = dataOffset; i < numSamples; ++i, j += 2)
+				amplitudes[i] = (short)((data[j + 1] << 8) | (data[j] & 0xFF));
+		}
+	}
+	
+	/**
+	 * Averages each group of {@link AudioInterruptDetector#NUM_SAMPLES_IN_NORMALIZED_GROUP} raw samples into a
+	 * normalized sample.
+	 * 
+	 * @param amplitudes           - Amplitudes of the raw samples, starting at 0.
+	 * @param normalizedAmplitudes - Array to write the amplitude of each group's normalized sample to at the group's index.
+	 * @param fromGroup            - Index of the first group to average.
+	 * @param toGroup              - Index of the group to stop before.
+	 */
+	void average(short[] amplitudes, short[] normalizedAmplitudes, int fromGroup, int toGroup)
+	{
+		for (int g = fromGroup, i = fromGroup * AudioInterruptDetector.NUM_SAMPLES_IN_NORMALIZED_GROUP; g < toGroup; ++g)
+		{
+			int totalAmplitude = 0;
+			for (int end = i + AudioInterruptDetector.NUM_SAMPLES_IN_NORMALIZED_GROUP; i < end; ++i)
+				totalAmplitude += amplitudes[i];
+			
+			normalizedAmplitudes[g] = (short)(totalAmplitude / AudioInterruptDetector.NUM_SAMPLES_IN_NORMALIZED_GROUP);
+		}
+	}
+	
+	/**
+	 * Finds the loudest amplitude.
+	 * 
+	 * @param amplitudes - Amplitudes to look through.
+	 * @param from       - Index to start at.
+	 * @param to         - Index to stop before.
+	 * 
+	 * @return The largest absolute amplitude or 0 if there are none.
+	 */
+	int peak(short[] amplitudes, int from, int to)
+	{
+		int peak = 0;
+		for (int i = from; i < to; ++i)
+			peak = Math.max(peak, Math.abs(amplitudes[i]));
+		
+		return peak;
+	}
+	
+	/**
+	 * Finds the first amplitude that is above the threshold on either side.
+	 * 
+	 * @param amplitudes - Amplitudes to look through.
+	 * @param from       - Index to start at.
+	 * @param to         - Index to stop before.
+	 * @param threshold  - Threshold the absolute amplitude must exceed.
+	 * 
+	 * @return The index of the first amplitude whose absolute value is above the threshold or <code>to</code> if
+	 * there is none.
+	 */
+	int indexOfAboveThreshold(short[] amplitudes, int from, int to, short threshold)
+	{
+		for (int i = from; i < to; ++i)
+		{
+			if (Math.abs(amplitudes[i]) > threshold)
+				return i;
+		}
+		
+		return to;
+	}
+}
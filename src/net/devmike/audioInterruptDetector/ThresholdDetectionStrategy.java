@@ -0,0 +1,566 @@
+package net.devmike.audioInterruptDetector;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The default {@link DetectionStrategy}: an interrupt is a normalized amplitude above a threshold that starts with a
+ * sharp rise or fall and stays on one side of zero until it drops back under the threshold for a while.<br />
+ * <br />
+ * Interrupts must alternate sides and their durations must be within a range. Possible interrupts that go on for
+ * longer are abandoned.<br />
+ * <br />
+ * The threshold and the rise or fall are either fixed or, for signals whose level drifts or differs between meters,
+ * adaptive: half and a quarter of the peak magnitude of the normalized samples over the last while, tracked with an
+ * {@link EnvelopeTracker}. The fixed threshold is then the lowest the threshold can go so silence is never detected.<br />
+ * <br />
+ * Every normalized sample is looked at once, in order. While a possible interrupt is possibly ending, candidate
+ * restarts are run on the same samples so that when it does end, the detection carries on from the status going back
+ * to the possible end and looking at the samples again would have ended up in, without going back.
+ */
+public class ThresholdDetectionStrategy extends DetectionStrategy
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// the most candidate restarts that can be in use at once. Every restart but the last has a possible end of its own, each
+	// one after the last, and all of them are within the time it takes the potential interrupt to end
+	static final int MAX_NUM_RESTARTS = AudioInterruptDetector.DURATION_UNDER_THRESHOLD_TO_END_INTERRUPT / AudioInterruptDetector.NUM_SAMPLES_IN_NORMALIZED_GROUP + 2;
+	
+	// the lowest an adaptive threshold goes, unless another is given. Just above the noise of a quiet line so low gain
+	// signals are still picked up
+	public static final short DEFAULT_MIN_ADAPTIVE_AMPLITUDE_THRESHOLD = AudioSample.AMPLITUDE_MAX_VALUE / 64; // put the floor at ~%1.5
+	
+	// number of bytes of the detection status in a state snapshot
+	static final int STATE_SIZE =
+			1 +             // last interrupt sign
+			1 + 8 + 8 + 1;  // possible interrupt
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	// detection parameters
+	private final short amplitudeThreshold; // the lowest threshold if adaptive
+	private final int   minInterruptDuration;
+	private final int   maxInterruptDuration;
+	
+	// peak magnitude of the recent normalized samples if the threshold is adaptive, null if it is fixed
+	private final EnvelopeTracker envelope;
+	
+	// the threshold and min amplitude delta for the current normalized sample, and the thresholds of the last few
+	// normalized samples (indexed by normalized sample index modulo MAX_NUM_RESTARTS) to catch the restarts up with
+	private int           activeAmplitudeThreshold;
+	private int           activeMinAmplitudeDelta;
+	private final short[] recentAmplitudeThresholds;
+	
+	// sign of the last interrupt
+	private int lastInterruptAmplitudeSign = 0;
+	
+	// interrupt detection status
+	private boolean insidePossibleInterrupt                           = false; // if we are inside a potential interrupt
+	private long    possibleInterruptStartTime                        = 0;     // the start time of the potential interrupt
+	private long    possibleInterruptPossibleEndNormalizedSampleIndex = -1;    // the potential end normalized sample index of the potential interrupt
+	private int     possibleInterruptAmplitudeSign                    = 0;     // sign of the potential interrupt's start amplitude (1 or -1). Defines what side the "wave" is on
+	
+	// candidate restarts: restart k is the interrupt detection status we will be in if the status before it (the potential
+	// interrupt for restart 0) ends at its possible end. They are run on every normalized sample from that possible end on,
+	// alongside the potential interrupt, so once the interrupt does end we carry on from restart 0 instead of going back
+	// over those samples. Restart k is only used while the status before it has a possible end
+	private final int[]     restartLastInterruptAmplitudeSign                        = new int    [MAX_NUM_RESTARTS];
+	private final boolean[] restartInsidePossibleInterrupt                           = new boolean[MAX_NUM_RESTARTS];
+	private final long[]    restartPossibleInterruptStartTime                        = new long   [MAX_NUM_RESTARTS];
+	private final long[]    restartPossibleInterruptPossibleEndNormalizedSampleIndex = new long   [MAX_NUM_RESTARTS];
+	private final int[]     restartPossibleInterruptAmplitudeSign                    = new int    [MAX_NUM_RESTARTS];
+	private final int[]     restartNumAbandonedInterrupts                            = new int    [MAX_NUM_RESTARTS]; // recorded in the metrics once the restart is used
+	private int             numRestarts = 0; // 0 while there is a possible end only after restoring a snapshot
+	
+	// index of the last normalized sample processed
+	private long lastNormalizedSampleIndex = -1;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Creates a strategy with the default detection parameters.
+	 */
+	public ThresholdDetectionStrategy()
+	{
+		this(AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD, AudioInterruptDetector.MIN_INTERRUPT_DURATION, AudioInterruptDetector.MAX_INTERRUPT_DURATION);
+	}
+	
+	/**
+	 * Creates a strategy with the given detection parameters.
+	 * 
+	 * @param amplitudeThreshold   - Amplitude a normalized sample must exceed to be part of an interrupt.
+	 * @param minInterruptDuration - Min duration of a valid interrupt in raw samples.
+	 * @param maxInterruptDuration - Max duration of a valid interrupt in raw samples. Longer possible interrupts are
+	 *                               abandoned.
+	 * 
+	 * @throws IllegalArgumentException If the threshold is negative or the durations are not a valid range.
+	 */
+	public ThresholdDetectionStrategy(short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration)
+	{
+		this(amplitudeThreshold, minInterruptDuration, maxInterruptDuration, 0);
+	}
+	
+	/**
+	 * Creates a strategy with the given detection parameters and, if a duration is given, an adaptive threshold.<br />
+	 * <br />
+	 * The adaptive threshold is half the peak magnitude of the normalized samples over the given duration up to and
+	 * including the current one, and the min amplitude delta is a quarter, the same ratios as the defaults. The
+	 * duration should be a few times the time between interrupts so the threshold holds between them.
+	 * 
+	 * @param amplitudeThreshold   - Amplitude a normalized sample must exceed to be part of an interrupt. The lowest
+	 *                               the threshold goes if it is adaptive, usually
+	 *                               {@link #DEFAULT_MIN_ADAPTIVE_AMPLITUDE_THRESHOLD}. A high floor keeps the
+	 *                               threshold from following quiet signals down.
+	 * @param minInterruptDuration - Min duration of a valid interrupt in raw samples.
+	 * @param maxInterruptDuration - Max duration of a valid interrupt in raw samples. Longer possible interrupts are
+	 *                               abandoned.
+	 * @param envelopeDuration     - Duration in raw samples to track the peak magnitude over, or 0 for a fixed
+	 *                               threshold.
+	 * 
+	 * @throws IllegalArgumentException If the threshold or envelope duration is negative or the durations are not a
+	 *                                  valid range.
+	 */
+	public ThresholdDetectionStrategy(short amplitudeThreshold, int minInterruptDuration, int maxInterruptDuration, int envelopeDuration)
+	{
+		if (amplitudeThreshold < 0 || minInterruptDuration < 0 || maxInterruptDuration < minInterruptDuration || envelopeDuration < 0)
+			throw new IllegalArgumentException("Invalid detection parameters");
+		
+		this.amplitudeThreshold   = amplitudeThreshold;
+		this.minInterruptDuration = minInterruptDuration;
+		this.maxInterruptDuration = maxInterruptDuration;
+		
+		activeAmplitudeThreshold = amplitudeThreshold;
+		activeMinAmplitudeDelta  = AudioInterruptDetector.MIN_AMPLITUDE_DELTA_TO_START_INTERRUPT;
+		
+		if (envelopeDuration == 0)
+		{
+			envelope                  = null;
+			recentAmplitudeThresholds = null;
+		}
+		else
+		{
+			// round up to whole normalized samples
+			int groupSize = AudioInterruptDetector.NUM_SAMPLES_IN_NORMALIZED_GROUP;
+			int windowLength = (int)(((long)envelopeDuration + groupSize - 1) / groupSize);
+			
+			// samples that would only give a threshold under the lowest one don't matter
+			envelope = new EnvelopeTracker(windowLength, amplitudeThreshold * 2 + 1);
+			
+			recentAmplitudeThresholds = new short[MAX_NUM_RESTARTS];
+			Arrays.fill(recentAmplitudeThresholds, amplitudeThreshold);
+		}
+	}
+	
+	
+	/**
+	 * Runs the interrupt detection on a single normalized sample.<br />
+	 * <br />
+	 * Every sample is looked at once, in order, with at most {@link #MAX_NUM_RESTARTS} extra checks. While the potential
+	 * interrupt is possibly ending, the candidate restarts are run on the same samples so that when it does end, the
+	 * detection carries on from the first restart's status. That is exactly the status going back to the possible end
+	 * and looking at the samples again would end up in.
+	 * 
+	 * @param i                         - Index of the normalized sample.
+	 * @param normalizedSampleAmplitude - Amplitude of the normalized sample.
+	 * 
+	 * @return The number of interrupts detected.
+	 */
+	@Override
+	protected int processNormalizedSample(long i, short normalizedSampleAmplitude)
+	{
+		long normalizedSampleTime = getNormalizedSampleTime(i);
+		
+		// follow the envelope. Samples skipped while quiet are not louder than the lowest threshold so they could not
+		// have raised it
+		if (envelope != null)
+		{
+			int envelopeAmplitudeThreshold = Math.max(envelope.add(i, normalizedSampleAmplitude) >> 1, amplitudeThreshold);
+			recentAmplitudeThresholds[(int)(i % MAX_NUM_RESTARTS)] = (short)envelopeAmplitudeThreshold;
+			
+			useAmplitudeThreshold(envelopeAmplitudeThreshold);
+		}
+		
+		// samples skipped while quiet could not have changed anything
+		long previousNormalizedSampleIndex = lastNormalizedSampleIndex;
+		lastNormalizedSampleIndex = i;
+		
+		// we are not already inside a possible interrupt
+		// look for the start of an interrupt
+		if (!insidePossibleInterrupt)
+		{
+			if (isInterruptStart(i, normalizedSampleAmplitude, lastInterruptAmplitudeSign))
+			{
+				// start interrupt
+				insidePossibleInterrupt        = true;
+				possibleInterruptStartTime     = normalizedSampleTime;
+				possibleInterruptAmplitudeSign = normalizedSampleAmplitude < 0 ? -1 : 1;
+			}
+			
+			return 0;
+		}
+		
+		// check if we are below the interrupt amplitude threshold. Using possibleInterruptSign instead of Math.abs accounts for dramatic shifts from one sign to the other
+		if (normalizedSampleAmplitude * possibleInterruptAmplitudeSign > activeAmplitudeThreshold)
+		{
+			// we are above the threshold, the interrupt is not ending. The candidate restarts are dropped with the possible end
+			possibleInterruptPossibleEndNormalizedSampleIndex = -1;
+			numRestarts = 0;
+			
+			// don't go over the max interrupt length
+			if (normalizedSampleTime - possibleInterruptStartTime > maxInterruptDuration)
+			{
+				recordAbandonedInterrupt();
+				
+				// reset
+				insidePossibleInterrupt = false;
+				possibleInterruptStartTime = 0;
+			}
+			
+			return 0;
+		}
+		
+		// we are below the threshold, the interrupt is POSSIBLY ending
+		// set the possible end if it has not been set yet
+		if (possibleInterruptPossibleEndNormalizedSampleIndex == -1)
+		{
+			possibleInterruptPossibleEndNormalizedSampleIndex = i;
+			startRestart(0, normalizedSampleTime - possibleInterruptStartTime >= minInterruptDuration ? possibleInterruptAmplitudeSign : lastInterruptAmplitudeSign);
+		}
+		else if (numRestarts == 0)
+		{
+			// the status was restored from a snapshot. Catch the restarts up on the samples since the possible end,
+			// which are still in the history
+			restartFromPossibleEnd(previousNormalizedSampleIndex);
+		}
+		
+		// the samples from the possible end on are looked at by the candidate restarts as well
+		lookForRestartInterrupts(i, normalizedSampleTime, normalizedSampleAmplitude);
+		
+		// check if we have been bellow the threshold for a while now...
+		long possibleInterruptEndTime = getNormalizedSampleTime(possibleInterruptPossibleEndNormalizedSampleIndex);
+		if (normalizedSampleTime - possibleInterruptEndTime <= AudioInterruptDetector.DURATION_UNDER_THRESHOLD_TO_END_INTERRUPT)
+			return 0;
+		
+		// we have been bellow the threshold for long enough. This interrupt has ended
+		int numInterrupts = 0;
+		
+		// make sure the interrupt isn't too short
+		if (possibleInterruptEndTime - possibleInterruptStartTime >= minInterruptDuration)
+		{
+			// there was an interrupt!
+			++numInterrupts;
+			
+			notifyInterrupt(possibleInterruptStartTime, possibleInterruptEndTime, possibleInterruptAmplitudeSign);
+		}
+		
+		// carry on from the first candidate restart. It already has the sign of this interrupt as the last sign if it was valid
+		lastInterruptAmplitudeSign                        = restartLastInterruptAmplitudeSign[0];
+		insidePossibleInterrupt                           = restartInsidePossibleInterrupt[0];
+		possibleInterruptStartTime                        = restartPossibleInterruptStartTime[0];
+		possibleInterruptPossibleEndNormalizedSampleIndex = restartPossibleInterruptPossibleEndNormalizedSampleIndex[0];
+		possibleInterruptAmplitudeSign                    = restartPossibleInterruptAmplitudeSign[0];
+		
+		for (int j = 0; j < restartNumAbandonedInterrupts[0]; ++j)
+			recordAbandonedInterrupt();
+		
+		// the restarts after it now restart from it
+		--numRestarts;
+		System.arraycopy(restartLastInterruptAmplitudeSign,                        1, restartLastInterruptAmplitudeSign,                        0, numRestarts);
+		System.arraycopy(restartInsidePossibleInterrupt,                           1, restartInsidePossibleInterrupt,                           0, numRestarts);
+		System.arraycopy(restartPossibleInterruptStartTime,                        1, restartPossibleInterruptStartTime,                        0, numRestarts);
+		System.arraycopy(restartPossibleInterruptPossibleEndNormalizedSampleIndex, 1, restartPossibleInterruptPossibleEndNormalizedSampleIndex, 0, numRestarts);
+		System.arraycopy(restartPossibleInterruptAmplitudeSign,                    1, restartPossibleInterruptAmplitudeSign,                    0, numRestarts);
+		System.arraycopy(restartNumAbandonedInterrupts,                            1, restartNumAbandonedInterrupts,                            0, numRestarts);
+		
+		return numInterrupts;
+	}
+	
+	/**
+	 * Starts a candidate restart, and drops the ones after it.
+	 * 
+	 * @param k                          - Index of the restart.
+	 * @param lastInterruptAmplitudeSign - Sign of the last interrupt if the status before the restart ends at its possible end.
+	 */
+	private void startRestart(int k, int lastInterruptAmplitudeSign)
+	{
+		restartLastInterruptAmplitudeSign[k]                        = lastInterruptAmplitudeSign;
+		restartInsidePossibleInterrupt[k]                           = false;
+		restartPossibleInterruptStartTime[k]                        = 0;
+		restartPossibleInterruptPossibleEndNormalizedSampleIndex[k] = -1;
+		restartPossibleInterruptAmplitudeSign[k]                    = 0;
+		restartNumAbandonedInterrupts[k]                            = 0;
+		
+		numRestarts = k + 1;
+	}
+	
+	/**
+	 * Runs the candidate restarts' interrupt detection on a normalized sample.<br />
+	 * <br />
+	 * A restart can start a potential interrupt of its own but never has to end one: its possible end is always
+	 * after the possible end of the potential interrupt, so it can't have been below the threshold for long enough
+	 * before the potential interrupt has ended.
+	 * 
+	 * @param i                         - Index of the normalized sample.
+	 * @param normalizedSampleTime      - Time of the normalized sample.
+	 * @param normalizedSampleAmplitude - Amplitude of the normalized sample.
+	 */
+	private void lookForRestartInterrupts(long i, long normalizedSampleTime, short normalizedSampleAmplitude)
+	{
+		// restarts started on this sample are run on it as well
+		for (int k = 0; k < numRestarts; ++k)
+		{
+			if (!restartInsidePossibleInterrupt[k])
+			{
+				if (isInterruptStart(i, normalizedSampleAmplitude, restartLastInterruptAmplitudeSign[k]))
+				{
+					restartInsidePossibleInterrupt[k]        = true;
+					restartPossibleInterruptStartTime[k]     = normalizedSampleTime;
+					restartPossibleInterruptAmplitudeSign[k] = normalizedSampleAmplitude < 0 ? -1 : 1;
+				}
+			}
+			else if (normalizedSampleAmplitude * restartPossibleInterruptAmplitudeSign[k] > activeAmplitudeThreshold)
+			{
+				restartPossibleInterruptPossibleEndNormalizedSampleIndex[k] = -1;
+				numRestarts = k + 1;
+				
+				if (normalizedSampleTime - restartPossibleInterruptStartTime[k] > maxInterruptDuration)
+				{
+					++restartNumAbandonedInterrupts[k];
+					
+					restartInsidePossibleInterrupt[k]    = false;
+					restartPossibleInterruptStartTime[k] = 0;
+				}
+			}
+			else if (restartPossibleInterruptPossibleEndNormalizedSampleIndex[k] == -1)
+			{
+				restartPossibleInterruptPossibleEndNormalizedSampleIndex[k] = i;
+				startRestart(k + 1, normalizedSampleTime - restartPossibleInterruptStartTime[k] >= minInterruptDuration ? restartPossibleInterruptAmplitudeSign[k] : restartLastInterruptAmplitudeSign[k]);
+			}
+		}
+	}
+	
+	/**
+	 * Starts the candidate restarts over from the possible end of the potential interrupt and runs them on the
+	 * normalized samples since, up to the given one.
+	 * 
+	 * @param lastNormalizedSampleIndex - Index of the last normalized sample to run the restarts on.
+	 */
+	private void restartFromPossibleEnd(long lastNormalizedSampleIndex)
+	{
+		long possibleInterruptEndTime = getNormalizedSampleTime(possibleInterruptPossibleEndNormalizedSampleIndex);
+		startRestart(0, possibleInterruptEndTime - possibleInterruptStartTime >= minInterruptDuration ? possibleInterruptAmplitudeSign : lastInterruptAmplitudeSign);
+		
+		// every sample since the possible end was processed, so their adaptive thresholds are known
+		for (long i = possibleInterruptPossibleEndNormalizedSampleIndex; i <= lastNormalizedSampleIndex; ++i)
+		{
+			if (envelope != null)
+				useAmplitudeThreshold(recentAmplitudeThresholds[(int)(i % MAX_NUM_RESTARTS)]);
+			
+			lookForRestartInterrupts(i, getNormalizedSampleTime(i), getNormalizedSampleAmplitude(i));
+		}
+		
+		if (envelope != null)
+			useAmplitudeThreshold(recentAmplitudeThresholds[(int)(this.lastNormalizedSampleIndex % MAX_NUM_RESTARTS)]);
+	}
+	
+	/**
+	 * Checks if a normalized sample starts a potential interrupt.
+	 * 
+	 * @param i                          - Index of the normalized sample.
+	 * @param normalizedSampleAmplitude  - Amplitude of the normalized sample.
+	 * @param lastInterruptAmplitudeSign - Sign of the last interrupt.
+	 * 
+	 * @return If the sample starts a potential interrupt.
+	 */
+	private boolean isInterruptStart(long i, short normalizedSampleAmplitude, int lastInterruptAmplitudeSign)
+	{
+		// check if we are above the threshold
+		if (Math.abs(normalizedSampleAmplitude) <= activeAmplitudeThreshold)
+			return false;
+		
+		// get the sign of the amplitude
+		int tempPossibleInterruptAmplitudeSign = normalizedSampleAmplitude < 0 ? -1 : 1;
+		
+		// make sure we are on the opposite side of the last interrupt
+		if (tempPossibleInterruptAmplitudeSign == lastInterruptAmplitudeSign)
+			return false;
+		
+		// interrupts create a large difference in the amplitude, there should be a substantial change in amplitude (delta) from a previous sample to this one
+		// go a couple of samples back
+		short previousNormalizedSampleAmplitude = i < AudioInterruptDetector.AMPLITUDE_DELTA_DURATION ? 0 : getNormalizedSampleAmplitude(i - AudioInterruptDetector.AMPLITUDE_DELTA_DURATION);
+		
+		// make sure the amplitude delta is great enough
+		int dAmplitude = (normalizedSampleAmplitude - previousNormalizedSampleAmplitude);
+		
+		// using the sign instead of Math.abs keeps deltas in the wrong direction from passing
+		return dAmplitude * tempPossibleInterruptAmplitudeSign > activeMinAmplitudeDelta;
+	}
+	
+	/**
+	 * Sets the adaptive threshold and min amplitude delta to use from the given threshold.
+	 * 
+	 * @param envelopeAmplitudeThreshold - Threshold to use.
+	 */
+	private void useAmplitudeThreshold(int envelopeAmplitudeThreshold)
+	{
+		activeAmplitudeThreshold = envelopeAmplitudeThreshold;
+		activeMinAmplitudeDelta  = envelopeAmplitudeThreshold >> 1;
+	}
+	
+	
+	/**
+	 * @return The threshold while not inside a possible interrupt (the lowest if adaptive). Samples under it can't start
+	 * one.
+	 */
+	@Override
+	protected int getQuietAmplitude()
+	{
+		return insidePossibleInterrupt ? -1 : amplitudeThreshold;
+	}
+	
+	/**
+	 * @return The number of normalized samples since the possible end of the possible interrupt. The candidate
+	 * restarts have been run on them while waiting for the interrupt to end.
+	 */
+	@Override
+	protected long getNumPendingNormalizedSamples()
+	{
+		if (!insidePossibleInterrupt || possibleInterruptPossibleEndNormalizedSampleIndex == -1)
+			return 0;
+		
+		return lastNormalizedSampleIndex + 1 - possibleInterruptPossibleEndNormalizedSampleIndex;
+	}
+	
+	
+	/**
+	 * @return {@link #STATE_SIZE} with a fixed threshold. An adaptive threshold adds the recent thresholds and the
+	 * samples in the envelope's window, so the size changes as the stream goes on.
+	 */
+	@Override
+	protected int getStateSize(long nextNormalizedSampleIndex)
+	{
+		if (envelope == null)
+			return STATE_SIZE;
+		
+		return STATE_SIZE + MAX_NUM_RESTARTS * 2 + envelope.getStateSize(nextNormalizedSampleIndex);
+	}
+	
+	@Override
+	protected void saveState(ByteBuffer state, long nextNormalizedSampleIndex)
+	{
+		state.put((byte)lastInterruptAmplitudeSign);
+		
+		state.put((byte)(insidePossibleInterrupt ? 1 : 0));
+		state.putLong(possibleInterruptStartTime);
+		state.putLong(possibleInterruptPossibleEndNormalizedSampleIndex);
+		state.put((byte)possibleInterruptAmplitudeSign);
+		
+		if (envelope == null)
+			return;
+		
+		// the thresholds of the last few normalized samples, oldest first
+		for (long i = nextNormalizedSampleIndex - MAX_NUM_RESTARTS; i < nextNormalizedSampleIndex; ++i)
+			state.putShort(recentAmplitudeThresholds[(int)Math.floorMod(i, (long)MAX_NUM_RESTARTS)]);
+		
+		envelope.saveState(state, nextNormalizedSampleIndex);
+	}
+	
+	/**
+	 * {@inheritDoc}<br />
+	 * <br />
+	 * The candidate restarts are not part of the snapshot. They are caught up from the history at the next normalized
+	 * sample, so the possible end must be within the history. An adaptive threshold also needs the thresholds the
+	 * samples since were looked at with, which are.
+	 */
+	@Override
+	protected void restoreState(ByteBuffer state, long nextNormalizedSampleIndex)
+	{
+		int     newLastInterruptAmplitudeSign = state.get();
+		boolean newInsidePossibleInterrupt    = state.get() != 0;
+		long    newPossibleInterruptStartTime = state.getLong();
+		long    newPossibleInterruptPossibleEndNormalizedSampleIndex = state.getLong();
+		int     newPossibleInterruptAmplitudeSign                    = state.get();
+		
+		// the interrupt would have ended if the possible end was any further back
+		if (Math.abs(newLastInterruptAmplitudeSign) > 1 || Math.abs(newPossibleInterruptAmplitudeSign) > 1 ||
+				(newInsidePossibleInterrupt && newPossibleInterruptPossibleEndNormalizedSampleIndex != -1 && (
+						newPossibleInterruptPossibleEndNormalizedSampleIndex >= nextNormalizedSampleIndex ||
+						nextNormalizedSampleIndex - newPossibleInterruptPossibleEndNormalizedSampleIndex >= MAX_NUM_RESTARTS)))
+			throw new IllegalArgumentException("Invalid state");
+		
+		if (envelope != null)
+		{
+			short[] newRecentAmplitudeThresholds = new short[MAX_NUM_RESTARTS];
+			for (int k = 0; k < MAX_NUM_RESTARTS; ++k)
+			{
+				newRecentAmplitudeThresholds[k] = state.getShort();
+				if (newRecentAmplitudeThresholds[k] < amplitudeThreshold)
+					throw new IllegalArgumentException("Invalid state");
+			}
+			
+			// changes nothing if not valid
+			envelope.restoreState(state, nextNormalizedSampleIndex);
+			
+			for (int k = 0; k < MAX_NUM_RESTARTS; ++k)
+				recentAmplitudeThresholds[(int)Math.floorMod(nextNormalizedSampleIndex - MAX_NUM_RESTARTS + k, (long)MAX_NUM_RESTARTS)] = newRecentAmplitudeThresholds[k];
+		}
+		
+		lastInterruptAmplitudeSign                        = newLastInterruptAmplitudeSign;
+		insidePossibleInterrupt                           = newInsidePossibleInterrupt;
+		possibleInterruptStartTime                        = newPossibleInterruptStartTime;
+		possibleInterruptPossibleEndNormalizedSampleIndex = newPossibleInterruptPossibleEndNormalizedSampleIndex;
+		possibleInterruptAmplitudeSign                    = newPossibleInterruptAmplitudeSign;
+		
+		numRestarts               = 0;
+		lastNormalizedSampleIndex = nextNormalizedSampleIndex - 1;
+	}
+	
+	
+	@Override
+	void resetState()
+	{
+		lastInterruptAmplitudeSign                        = 0;
+		insidePossibleInterrupt                           = false;
+		possibleInterruptStartTime                        = 0;
+		possibleInterruptPossibleEndNormalizedSampleIndex = -1;
+		possibleInterruptAmplitudeSign                    = 0;
+		numRestarts                                       = 0;
+	}
+	
+	/**
+	 * {@inheritDoc} Always false if either threshold is adaptive: the envelopes are not compared.
+	 */
+	@Override
+	boolean hasSameState(DetectionStrategy otherStrategy)
+	{
+		if (!(otherStrategy instanceof ThresholdDetectionStrategy))
+			return false;
+		
+		ThresholdDetectionStrategy other = (ThresholdDetectionStrategy)otherStrategy;
+		
+		if (envelope != null || other.envelope != null)
+			return false;
+		
+		if (lastInterruptAmplitudeSign != other.lastInterruptAmplitudeSign || insidePossibleInterrupt != other.insidePossibleInterrupt)
+			return false;
+		
+		// the rest of the status is only used while inside a possible interrupt
+		return !insidePossibleInterrupt || (
+				possibleInterruptStartTime                        == other.possibleInterruptStartTime &&
+				possibleInterruptPossibleEndNormalizedSampleIndex == other.possibleInterruptPossibleEndNormalizedSampleIndex &&
+				possibleInterruptAmplitudeSign                    == other.possibleInterruptAmplitudeSign);
+	}
+}
@@ -0,0 +1,115 @@
+package net.devmike.audioInterruptDetector;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link SampleKernels} using the Vector API so each instruction works on as many samples as the CPU's widest
+ * registers hold.<br />
+ * <br />
+ * Only created by {@link SampleKernels#create} when the <code>jdk.incubator.vector</code> module is available.
+ * Averaging is left to the plain Java version: groups of 10 samples don't line up with the register widths, and
+ * the shuffles or gathers needed to sum them cost more than they save.
+ */
+class VectorSampleKernels extends SampleKernels
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	private static final VectorSpecies<Byte>  BYTE_SPECIES  = ByteVector .SPECIES_PREFERRED;
+	private static final VectorSpecies<Short> SHORT_SPECIES = ShortVector.SPECIES_PREFERRED;
+	
+	// swaps each pair of bytes. Vectors are always reinterpreted as little-endian, so big-endian data is swapped first
+	private static final VectorShuffle<Byte> SWAP_BYTE_PAIRS = VectorShuffle.fromOp(BYTE_SPECIES, i -> i ^ 1);
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	String getName()
+	{
+		return "vector " + SHORT_SPECIES.vectorBitSize() + " bit";
+	}
+	
+	boolean isVectorized()
+	{
+		return true;
+	}
+	
+	
+	void decode(byte[] data, int dataOffset, short[] amplitudes, int numSamples, boolean bigEndian)
+	{
+		int i = 0;
+		for (; i <= numSamples - SHORT_SPECIES.length(); i += SHORT_SPECIES.length())
+		{
+			ByteVector bytes = ByteVector.fromArray(BYTE_SPECIES, data, dataOffset + i * 2);
+			if (bigEndian)
+				bytes = bytes.rearrange(SWAP_BYTE_PAIRS);
+			
+			bytes.reinterpretAsShorts().intoArray(amplitudes, i);
+		}
+		
+		// the rest don't fill a vector
+		if (bigEndian)
+		{
+			for (int j = dataOffset + i * 2; i < numSamples; ++i, j += 2)
+				amplitudes[i] = (short)((data[j] << 8) | (data[j + 1] & 0xFF));
+		}
+		else
+		{
+			for (int j = dataOffset + i * 2; i < numSamples; ++i, j += 2)
+				amplitudes[i] = (short)((data[j + 1] << 8) | (data[j] & 0xFF));
+		}
+	}
+	
+	
+	int peak(short[] amplitudes, int from, int to)
+	{
+		// track both sides instead of taking the absolute value, which overflows for the min amplitude
+		ShortVector max = ShortVector.zero(SHORT_SPECIES);
+		ShortVector min = ShortVector.zero(SHORT_SPECIES);
+		
+		int i = from;
+		for (; i <= to - SHORT_SPECIES.length(); i += SHORT_SPECIES.length())
+		{
+			ShortVector block = ShortVector.fromArray(SHORT_SPECIES, amplitudes, i);
+			max = max.max(block);
+			min = min.min(block);
+		}
+		
+		int peak = Math.max(max.reduceLanes(VectorOperators.MAX), -min.reduceLanes(VectorOperators.MIN));
+		
+		// the rest don't fill a vector
+		return Math.max(peak, super.peak(amplitudes, i, to));
+	}
+	
+	
+	int indexOfAboveThreshold(short[] amplitudes, int from, int to, short threshold)
+	{
+		// compare against both sides instead of taking the absolute value, which overflows for the min amplitude
+		short negativeThreshold = (short)-threshold;
+		
+		int i = from;
+		for (; i <= to - SHORT_SPECIES.length(); i += SHORT_SPECIES.length())
+		{
+			ShortVector block = ShortVector.fromArray(SHORT_SPECIES, amplitudes, i);
+			VectorMask<Short> aboveThreshold = block.compare(VectorOperators.GT, threshold)
+					.or(block.compare(VectorOperators.LT, negativeThreshold));
+			
+			if (aboveThreshold.anyTrue())
+				return i + aboveThreshold.firstTrue();
+		}
+		
+		// the rest don't fill a vector
+		return super.indexOfAboveThreshold(amplitudes, i, to, threshold);
+	}
+}
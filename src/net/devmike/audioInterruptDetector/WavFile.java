@@ -0,0 +1,313 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A WAV file whose audio data is read by memory-mapping the file.<br />
+ * <br />
+ * The RIFF header and the "fmt " and "data" chunks are parsed directly instead of going through
+ * {@link javax.sound.sampled.AudioSystem}, so no audio line or decoding stream is needed. Both little-endian
+ * (RIFF) and big-endian (RIFX) files are supported.<br />
+ * <br />
+ * For WAVE_FORMAT_EXTENSIBLE files, the format is the one given by the subformat GUID, so they look the same as
+ * files with a plain format code. Their valid bits per sample may be less than the size of a sample.
+ */
+public class WavFile implements Closeable
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// format code for uncompressed PCM
+	public static final int FORMAT_PCM = 1;
+	
+	// format code for formats given by a subformat GUID in the extension of the fmt chunk
+	public static final int FORMAT_EXTENSIBLE = 0xFFFE;
+	
+	// size of a chunk header (4 byte ID + 4 byte size)
+	private static final int CHUNK_HEADER_SIZE = 8;
+	
+	// size of the fmt chunk without and with the WAVE_FORMAT_EXTENSIBLE extension
+	private static final int FORMAT_CHUNK_SIZE            = 16;
+	private static final int EXTENSIBLE_FORMAT_CHUNK_SIZE = 40;
+	
+	// size of the WAVE_FORMAT_EXTENSIBLE extension (valid bits, channel mask and subformat GUID)
+	private static final int EXTENSION_SIZE = 22;
+	
+	// last 8 bytes of the subformat GUIDs of the formats with a plain format code. The format code is the first 2 bytes
+	// of the GUID, followed by 0x0000 and 0x0010
+	private static final byte[] SUBFORMAT_GUID_SUFFIX = {(byte)0x80, 0x00, 0x00, (byte)0xAA, 0x00, 0x38, (byte)0x9B, 0x71};
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private final FileChannel channel;
+	private final ByteOrder   byteOrder;
+	
+	// "fmt " chunk
+	private int format;
+	private int numChannels;
+	private int sampleRate;
+	private int frameSize;
+	private int bitsPerSample;
+	private int validBitsPerSample;
+	
+	// "data" chunk
+	private long dataOffset = -1; // offset of the audio data in the file
+	private long dataLength = 0;  // length of the audio data in bytes
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	/**
+	 * Opens the given WAV file and parses its header.
+	 * 
+	 * @param file - WAV file to open.
+	 * 
+	 * @return The opened WAV file.
+	 * 
+	 * @throws IOException If the file can not be read or is not a valid WAV file.
+	 */
+	public static WavFile open(File file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		
+		try
+		{
+			return new WavFile(channel);
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private WavFile(FileChannel channel) throws IOException
+	{
+		this.channel = channel;
+		
+		// -------------------------------------------------------------------
+		// RIFF header
+		
+		ByteBuffer header = readFully(0, 12);
+		
+		String riffId = readId(header);
+		if (riffId.equals("RIFF"))
+			byteOrder = ByteOrder.LITTLE_ENDIAN;
+		else if (riffId.equals("RIFX"))
+			byteOrder = ByteOrder.BIG_ENDIAN;
+		else
+			throw new IOException("Not a RIFF file");
+		
+		header.order(byteOrder);
+		header.getInt(); // RIFF size. Not trusted, we use the file size instead
+		
+		if (!readId(header).equals("WAVE"))
+			throw new IOException("Not a WAVE file");
+		
+		
+		// -------------------------------------------------------------------
+		// chunks
+		
+		boolean foundFormatChunk = false;
+		long fileSize = channel.size();
+		long position = 12;
+		
+		// walk the chunks until we find the data
+		while (position + CHUNK_HEADER_SIZE <= fileSize)
+		{
+			ByteBuffer chunkHeader = readFully(position, CHUNK_HEADER_SIZE);
+			chunkHeader.order(byteOrder);
+			
+			String chunkId   = readId(chunkHeader);
+			long   chunkSize = chunkHeader.getInt() & 0xFFFFFFFFL; // sizes are unsigned
+			
+			position += CHUNK_HEADER_SIZE;
+			
+			if (chunkId.equals("fmt "))
+			{
+				if (chunkSize < FORMAT_CHUNK_SIZE)
+					throw new IOException("Invalid fmt chunk size: " + chunkSize);
+				
+				ByteBuffer formatChunk = readFully(position, FORMAT_CHUNK_SIZE);
+				formatChunk.order(byteOrder);
+				
+				format        = formatChunk.getShort() & 0xFFFF;
+				numChannels   = formatChunk.getShort() & 0xFFFF;
+				sampleRate    = formatChunk.getInt();
+				formatChunk.getInt(); // byte rate. Can be calculated from the rest
+				frameSize     = formatChunk.getShort() & 0xFFFF;
+				bitsPerSample = formatChunk.getShort() & 0xFFFF;
+				
+				validBitsPerSample = bitsPerSample;
+				if (format == FORMAT_EXTENSIBLE)
+					readExtension(position, chunkSize);
+				
+				foundFormatChunk = true;
+			}
+			else if (chunkId.equals("data"))
+			{
+				dataOffset = position;
+				
+				// recordings that were never finalized may have a size of 0 or one that is too large, so stop at the end of the file
+				dataLength = fileSize - position;
+				if (chunkSize > 0 && chunkSize < dataLength)
+					dataLength = chunkSize;
+				
+				break;
+			}
+			
+			// chunks are padded to an even size
+			position += chunkSize + (chunkSize & 1);
+		}
+		
+		if (!foundFormatChunk)
+			throw new IOException("Missing fmt chunk");
+		
+		if (dataOffset == -1)
+			throw new IOException("Missing data chunk");
+	}
+	
+	
+	/**
+	 * Reads the WAVE_FORMAT_EXTENSIBLE extension of the fmt chunk and replaces the format with the one given by the
+	 * subformat GUID, if it has a plain format code.
+	 * 
+	 * @param position  - Position of the fmt chunk's data in the file.
+	 * @param chunkSize - Size of the fmt chunk.
+	 * 
+	 * @throws IOException If the extension could not be read or is invalid.
+	 */
+	private void readExtension(long position, long chunkSize) throws IOException
+	{
+		if (chunkSize < EXTENSIBLE_FORMAT_CHUNK_SIZE)
+			throw new IOException("Invalid fmt chunk size for WAVE_FORMAT_EXTENSIBLE: " + chunkSize);
+		
+		ByteBuffer extension = readFully(position + FORMAT_CHUNK_SIZE, EXTENSIBLE_FORMAT_CHUNK_SIZE - FORMAT_CHUNK_SIZE);
+		extension.order(byteOrder);
+		
+		int extensionSize = extension.getShort() & 0xFFFF;
+		if (extensionSize < EXTENSION_SIZE)
+			throw new IOException("Invalid WAVE_FORMAT_EXTENSIBLE extension size: " + extensionSize);
+		
+		// 0 means the writer did not say, so all the bits are valid
+		int validBits = extension.getShort() & 0xFFFF;
+		if (validBits > bitsPerSample)
+			throw new IOException("Invalid valid bits per sample: " + validBits + " of " + bitsPerSample);
+		
+		if (validBits != 0)
+			validBitsPerSample = validBits;
+		
+		extension.getInt(); // channel mask. Only mono audio is used
+		
+		// subformat GUID. The first 3 fields are in the byte order of the file, the last 8 bytes are not
+		int    subformat = extension.getInt();
+		short  guidData2 = extension.getShort();
+		short  guidData3 = extension.getShort();
+		byte[] guidData4 = new byte[SUBFORMAT_GUID_SUFFIX.length];
+		extension.get(guidData4);
+		
+		if ((subformat & 0xFFFF0000) == 0 && guidData2 == 0x0000 && guidData3 == 0x0010 && Arrays.equals(guidData4, SUBFORMAT_GUID_SUFFIX))
+			format = subformat;
+	}
+	
+	/**
+	 * Maps a region of the audio data into memory.<br />
+	 * <br />
+	 * The returned buffer uses the byte order of the file.
+	 * 
+	 * @param position - Position in the audio data to start at in bytes.
+	 * @param length   - Number of bytes to map.
+	 * 
+	 * @return The mapped audio data.
+	 * 
+	 * @throws IOException If the region could not be mapped.
+	 */
+	public ByteBuffer mapData(long position, int length) throws IOException
+	{
+		if (position < 0 || length < 0 || position + length > dataLength)
+			throw new IndexOutOfBoundsException("Region " + position + "+" + length + " is outside of the audio data (" + dataLength + " bytes)");
+		
+		return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + position, length).order(byteOrder);
+	}
+	
+	
+	/**
+	 * Reads the given number of bytes from the file into a new buffer.
+	 * 
+	 * @param position - Position in the file to read from.
+	 * @param length   - Number of bytes to read.
+	 * 
+	 * @return The bytes read, ready to be read from.
+	 * 
+	 * @throws IOException If the bytes could not be read.
+	 */
+	private ByteBuffer readFully(long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of file");
+		}
+		
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Reads a 4 character ID from the buffer.
+	 * 
+	 * @param buffer - Buffer to read from.
+	 * 
+	 * @return The ID.
+	 */
+	private static String readId(ByteBuffer buffer)
+	{
+		char[] id = new char[4];
+		for (int i = 0; i < id.length; ++i)
+			id[i] = (char)(buffer.get() & 0xFF);
+		
+		return new String(id);
+	}
+	
+	
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+	
+	
+	
+	// ===================================================================
+	// Getters
+	//
+	// ===================================================================
+	
+	public int       getFormat            () { return format;             }
+	public int       getNumChannels       () { return numChannels;        }
+	public int       getSampleRate        () { return sampleRate;         }
+	public int       getFrameSize         () { return frameSize;          }
+	public int       getBitsPerSample     () { return bitsPerSample;      }
+	public int       getValidBitsPerSample() { return validBitsPerSample; }
+	public ByteOrder getByteOrder         () { return byteOrder;          }
+	public long      getDataLength        () { return dataLength;         }
+}
@@ -0,0 +1,400 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that the detectors find exactly the interrupts the detector found before it was changed to detect in one
+ * forward pass.<br />
+ * <br />
+ * The expected interrupts of the WAV files in res and of some seeded noise are in {@link #GOLDEN_FILE}, generated by
+ * that detector. Noise that jumps between levels at random gives far more possible interrupts, restarts and abandoned
+ * interrupts than the recordings do. Each input is run through:
+ * <ul>
+ * <li>{@link AudioInterruptDetector} - in random sized pieces, restoring a snapshot into a new detector now and then</li>
+ * <li>{@link ParallelAudioInterruptDetector} - the long inputs are split into chunks and reconciled at the seams</li>
+ * <li>{@link MultiChannelAudioInterruptDetector} - with the inputs interleaved as channels</li>
+ * </ul>
+ * Run from the project directory. Pass -write to generate the golden file again, only when detection is meant to
+ * change.
+ */
+public class DetectorRegressionTest
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	private static final File GOLDEN_FILE = new File("test/res/interrupts.golden");
+	
+	private static final String[] WAV_FILES = {"res/testFlowMeter.wav", "res/testFlowMeterFast.wav", "res/testFlowMeterVeryFast.wav"};
+	
+	// noise signals with golden interrupts. The odd ones use a short max interrupt duration so most possible
+	// interrupts are abandoned
+	private static final int NUM_NOISE_SIGNALS = 4;
+	private static final int NOISE_NUM_SAMPLES = 200_000;
+	
+	private static final int SHORT_MAX_INTERRUPT_DURATION = 60;
+	
+	// noise long enough for ParallelAudioInterruptDetector to split up. Only compared to AudioInterruptDetector
+	private static final int LONG_NOISE_NUM_SAMPLES = 1_200_000;
+	
+	// threads to split the long inputs between
+	private static final int NUM_THREADS = 4;
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * Audio to detect interrupts in: 16 bit little-endian mono PCM.
+	 */
+	private static class Input
+	{
+		final String name;
+		final byte[] data;
+		final int    maxInterruptDuration;
+		
+		Input(String name, byte[] data, int maxInterruptDuration)
+		{
+			this.name                 = name;
+			this.data                 = data;
+			this.maxInterruptDuration = maxInterruptDuration;
+		}
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	public static void main(String[] args) throws IOException
+	{
+		List<Input> inputs = createInputs();
+		
+		if (args.length > 0 && args[0].equals("-write"))
+		{
+			writeGolden(inputs);
+			return;
+		}
+		
+		Map<String, List<String>> golden = readGolden();
+		int numFailures = 0;
+		
+		// single detector, against the golden interrupts
+		Random random = new Random(1);
+		for (Input input : inputs)
+			numFailures += check("serial " + input.name, golden.get(input.name), detect(input, random));
+		
+		// parallel detector, against the golden interrupts and the single detector on noise long enough to split up
+		ForkJoinPool pool = new ForkJoinPool(NUM_THREADS);
+		for (Input input : inputs)
+			numFailures += check("parallel " + input.name, golden.get(input.name), detectParallel(input, pool));
+		
+		Input longNoise = new Input("long noise", createNoise(NUM_NOISE_SIGNALS, LONG_NOISE_NUM_SAMPLES), AudioInterruptDetector.MAX_INTERRUPT_DURATION);
+		numFailures += check("parallel " + longNoise.name, detect(longNoise, null), detectParallel(longNoise, pool));
+		
+		pool.shutdown();
+		
+		// multi-channel detector, against the single detector on each channel on its own. The channels are padded with
+		// silence to the longest input, so the end of a channel can differ from its golden interrupts
+		List<Input> channels = new ArrayList<Input>();
+		for (Input input : inputs)
+		{
+			if (input.maxInterruptDuration == AudioInterruptDetector.MAX_INTERRUPT_DURATION)
+				channels.add(input);
+		}
+		
+		List<List<String>> channelInterrupts = detectMultiChannel(channels);
+		for (int c = 0; c < channels.size(); ++c)
+			numFailures += check("multi-channel " + channels.get(c).name, detect(pad(channels.get(c), channels), null), channelInterrupts.get(c));
+		
+		if (numFailures > 0)
+		{
+			System.out.println(numFailures + " failed");
+			System.exit(1);
+		}
+		
+		System.out.println("all passed");
+	}
+	
+	
+	/**
+	 * @return The WAV files and the noise signals with golden interrupts.
+	 */
+	private static List<Input> createInputs() throws IOException
+	{
+		List<Input> inputs = new ArrayList<Input>();
+		
+		for (String fileName : WAV_FILES)
+			inputs.add(new Input(new File(fileName).getName(), readWavFile(new File(fileName)), AudioInterruptDetector.MAX_INTERRUPT_DURATION));
+		
+		for (int seed = 0; seed < NUM_NOISE_SIGNALS; ++seed)
+		{
+			int maxInterruptDuration = seed % 2 == 0 ? AudioInterruptDetector.MAX_INTERRUPT_DURATION : SHORT_MAX_INTERRUPT_DURATION;
+			inputs.add(new Input("noise " + seed, createNoise(seed, NOISE_NUM_SAMPLES), maxInterruptDuration));
+		}
+		
+		return inputs;
+	}
+	
+	/**
+	 * Reads the audio data of a 16 bit mono PCM WAV file.
+	 */
+	private static byte[] readWavFile(File file) throws IOException
+	{
+		try (WavFile wavFile = WavFile.open(file))
+		{
+			if (wavFile.getFormat() != WavFile.FORMAT_PCM || wavFile.getBitsPerSample() != 16 || wavFile.getNumChannels() != 1)
+				throw new IOException("Not 16 bit mono PCM: " + file);
+			
+			ByteBuffer mappedData = wavFile.mapData(0, (int)wavFile.getDataLength());
+			
+			byte[] data = new byte[mappedData.remaining()];
+			mappedData.get(data);
+			
+			return data;
+		}
+	}
+	
+	/**
+	 * Creates noise that jumps between silence and random levels on either side of zero, at random times.
+	 * 
+	 * @param seed       - Seed of the noise.
+	 * @param numSamples - Number of samples to create.
+	 * 
+	 * @return The noise as 16 bit little-endian PCM.
+	 */
+	private static byte[] createNoise(long seed, int numSamples)
+	{
+		Random random = new Random(seed);
+		byte[] data = new byte[numSamples * 2];
+		
+		int level = 0;
+		for (int i = 0; i < numSamples; ++i)
+		{
+			if (random.nextInt(random.nextBoolean() ? 8 : 60) == 0)
+				level = random.nextInt(5) == 0 ? 0 : (random.nextBoolean() ? 1 : -1) * (8000 + random.nextInt(26000));
+			
+			int amplitude = Math.max(Math.min(level + (int)(random.nextGaussian() * 9000), Short.MAX_VALUE), Short.MIN_VALUE);
+			
+			data[i * 2]     = (byte)amplitude;
+			data[i * 2 + 1] = (byte)(amplitude >> 8);
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * Pads an input with silence to the length of the longest of the given inputs.
+	 */
+	private static Input pad(Input input, List<Input> inputs)
+	{
+		int length = 0;
+		for (Input other : inputs)
+			length = Math.max(length, other.data.length);
+		
+		byte[] data = new byte[length];
+		System.arraycopy(input.data, 0, data, 0, input.data.length);
+		
+		return new Input(input.name, data, input.maxInterruptDuration);
+	}
+	
+	
+	/**
+	 * Detects the interrupts in an input with a single detector.
+	 * 
+	 * @param input  - Input to detect the interrupts in.
+	 * @param random - Random to pick the size of each piece of data passed to the detector and when to restore a
+	 *                 snapshot into a new detector, or null to pass all the data at once.
+	 * 
+	 * @return The interrupts found.
+	 */
+	private static List<String> detect(Input input, Random random)
+	{
+		List<String> interrupts = new ArrayList<String>();
+		InterruptListener listener = (startTime, endTime, sign) -> interrupts.add(format(startTime, endTime, sign));
+		
+		AudioInterruptDetector detector = createDetector(input);
+		detector.addInterruptListener(listener);
+		
+		if (random == null)
+		{
+			detector.processAudioData(input.data, 0, input.data.length, false);
+			return interrupts;
+		}
+		
+		for (int position = 0; position < input.data.length;)
+		{
+			int length = Math.min(1 + random.nextInt(random.nextBoolean() ? 64 : 20_000), input.data.length - position);
+			detector.processAudioData(input.data, position, length, false);
+			position += length;
+			
+			if (random.nextInt(20) == 0)
+			{
+				byte[] state = detector.saveState();
+				
+				detector = createDetector(input);
+				detector.restoreState(state);
+				detector.addInterruptListener(listener);
+			}
+		}
+		
+		return interrupts;
+	}
+	
+	private static AudioInterruptDetector createDetector(Input input)
+	{
+		return new AudioInterruptDetector(null, AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD, AudioInterruptDetector.MIN_INTERRUPT_DURATION, input.maxInterruptDuration);
+	}
+	
+	/**
+	 * Detects the interrupts in an input with a parallel detector.
+	 */
+	private static List<String> detectParallel(Input input, ForkJoinPool pool)
+	{
+		List<String> interrupts = new ArrayList<String>();
+		
+		ParallelAudioInterruptDetector detector = new ParallelAudioInterruptDetector(pool, AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD, AudioInterruptDetector.MIN_INTERRUPT_DURATION, input.maxInterruptDuration);
+		detector.addInterruptListener((startTime, endTime, sign) -> interrupts.add(format(startTime, endTime, sign)));
+		detector.processAudioData(ByteBuffer.wrap(input.data).order(ByteOrder.LITTLE_ENDIAN));
+		
+		return interrupts;
+	}
+	
+	/**
+	 * Detects the interrupts in the inputs interleaved as the channels of one stream, padded with silence to the
+	 * longest. All the inputs must use the same max interrupt duration.
+	 * 
+	 * @return The interrupts found in each channel.
+	 */
+	private static List<List<String>> detectMultiChannel(List<Input> inputs)
+	{
+		int numChannels = inputs.size();
+		int numSamples  = 0;
+		for (Input input : inputs)
+			numSamples = Math.max(numSamples, input.data.length / 2);
+		
+		byte[] data = new byte[numSamples * numChannels * 2];
+		for (int c = 0; c < numChannels; ++c)
+		{
+			byte[] channelData = inputs.get(c).data;
+			for (int i = 0; i < channelData.length / 2; ++i)
+			{
+				data[(i * numChannels + c) * 2]     = channelData[i * 2];
+				data[(i * numChannels + c) * 2 + 1] = channelData[i * 2 + 1];
+			}
+		}
+		
+		List<List<String>> interrupts = new ArrayList<List<String>>();
+		for (int c = 0; c < numChannels; ++c)
+			interrupts.add(new ArrayList<String>());
+		
+		MultiChannelAudioInterruptDetector detector = new MultiChannelAudioInterruptDetector(numChannels, AudioInterruptDetector.INTERRUPT_AMPLITUDE_THRESHOLD, AudioInterruptDetector.MIN_INTERRUPT_DURATION, inputs.get(0).maxInterruptDuration);
+		detector.addInterruptListener((channel, startTime, endTime, sign) -> interrupts.get(channel).add(format(startTime, endTime, sign)));
+		
+		// odd sized pieces so frames are split between calls
+		for (int position = 0; position < data.length; position += 12_345)
+			detector.processAudioData(data, position, Math.min(12_345, data.length - position), false);
+		
+		return interrupts;
+	}
+	
+	
+	/**
+	 * Compares the interrupts found to the expected ones and prints the result.
+	 * 
+	 * @return 1 if they differ, 0 if they are the same.
+	 */
+	private static int check(String name, List<String> expected, List<String> actual)
+	{
+		if (expected == null)
+		{
+			System.out.println("FAIL " + name + ": no golden interrupts");
+			return 1;
+		}
+		
+		if (expected.equals(actual))
+		{
+			System.out.println("ok   " + name + " (" + actual.size() + " interrupts)");
+			return 0;
+		}
+		
+		int i = 0;
+		while (i < expected.size() && i < actual.size() && expected.get(i).equals(actual.get(i)))
+			++i;
+		
+		System.out.println("FAIL " + name + ": " + actual.size() + " interrupts instead of " + expected.size() + ", first difference at " + i + ": " +
+				(i < actual.size() ? actual.get(i) : "none") + " instead of " + (i < expected.size() ? expected.get(i) : "none"));
+		return 1;
+	}
+	
+	/**
+	 * Formats an interrupt the way it is in the golden file: start and end as raw sample indexes, then the sign.
+	 */
+	private static String format(long startTime, long endTime, int sign)
+	{
+		return (startTime - AudioSample.TIME_MIN_VALUE) + " " + (endTime - AudioSample.TIME_MIN_VALUE) + " " + sign;
+	}
+	
+	
+	/**
+	 * Reads the golden file: the name of each input on a line starting with #, followed by its interrupts.
+	 */
+	private static Map<String, List<String>> readGolden() throws IOException
+	{
+		Map<String, List<String>> golden = new LinkedHashMap<String, List<String>>();
+		
+		try (BufferedReader reader = new BufferedReader(new FileReader(GOLDEN_FILE)))
+		{
+			List<String> interrupts = null;
+			
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.startsWith("# "))
+				{
+					interrupts = new ArrayList<String>();
+					golden.put(line.substring(2), interrupts);
+				}
+				else if (interrupts != null && !line.isEmpty())
+					interrupts.add(line);
+			}
+		}
+		
+		return golden;
+	}
+	
+	/**
+	 * Writes the interrupts a single detector finds in each input to the golden file.
+	 */
+	private static void writeGolden(List<Input> inputs) throws IOException
+	{
+		try (PrintWriter writer = new PrintWriter(new FileWriter(GOLDEN_FILE)))
+		{
+			for (Input input : inputs)
+			{
+				writer.println("# " + input.name);
+				for (String interrupt : detect(input, null))
+					writer.println(interrupt);
+			}
+		}
+	}
+}
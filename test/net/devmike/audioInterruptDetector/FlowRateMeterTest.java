@@ -0,0 +1,158 @@
+package net.devmike.audioInterruptDetector;
+
+/**
+ * Checks the rates and volume a {@link FlowRateMeter} calculates from pulses at known times, while the flow is
+ * steady, slows down and stops, and while the rate is read from another thread.<br />
+ * <br />
+ * Times count from {@link AudioSample#TIME_MIN_VALUE}, like the detector's, with 1000 time units per second and a
+ * window of 1 second, so the smoothed rate is the number of pulses in the last 1000 time units.
+ */
+public class FlowRateMeterTest
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	private static final long T0 = AudioSample.TIME_MIN_VALUE;
+	
+	private static final int SAMPLE_RATE = 1000;
+	
+	// pulses added while another thread reads the rate
+	private static final int NUM_CONCURRENT_PULSES = 2_000_000;
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private static int numFailures = 0;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	public static void main(String[] args) throws InterruptedException
+	{
+		checkSlowingAndStopping();
+		checkManyPulses();
+		checkConcurrentReads();
+		
+		if (numFailures > 0)
+		{
+			System.out.println(numFailures + " failed");
+			System.exit(1);
+		}
+		
+		System.out.println("all passed");
+	}
+	
+	/**
+	 * Pulses every 100 time units for 1 second, then none.
+	 */
+	private static void checkSlowingAndStopping()
+	{
+		FlowRateMeter meter = new FlowRateMeter(2, 1, SAMPLE_RATE);
+		for (int i = 0; i < 10; ++i)
+			meter.onInterrupt(T0 + i * 100, T0 + i * 100 + 20, 1);
+		
+		// 10 pulses a second at 2 pulses per unit
+		check("instantaneous rate",     5, meter.getInstantaneousRate());
+		check("rate at the last pulse", 5, meter.getSmoothedRate());
+		check("rate at the last pulse", 5, meter.getSmoothedRate(T0 + 900));
+		check("total volume",           5, meter.getTotalVolume());
+		
+		// the window before the first pulse starts before the first possible time
+		check("rate in the first second", 0.5, meter.getSmoothedRate(T0));
+		
+		// the pulses at 0 to 400 have slid out of the window
+		check("rate while slowing down", 2.5, meter.getSmoothedRate(T0 + 1450));
+		check("rate before stopping",    0.5, meter.getSmoothedRate(T0 + 1899));
+		check("rate after stopping",     0,   meter.getSmoothedRate(T0 + 1900));
+		
+		// the values from the last pulse are kept
+		check("rate at the last pulse after stopping", 5, meter.getSmoothedRate());
+		
+		// pulses every 200 time units from then on
+		for (int i = 0; i < 10; ++i)
+			meter.onInterrupt(T0 + 3000 + i * 200, T0 + 3000 + i * 200 + 20, 1);
+		
+		check("instantaneous rate when slower", 2.5, meter.getInstantaneousRate());
+		check("rate when slower",               2.5, meter.getSmoothedRate());
+		check("rate after the slower pulses",   1.5, meter.getSmoothedRate(T0 + 5300));
+		check("total volume when slower",       10,  meter.getTotalVolume());
+	}
+	
+	/**
+	 * Far more pulses in the window than the meter starts out with room for.
+	 */
+	private static void checkManyPulses()
+	{
+		FlowRateMeter meter = new FlowRateMeter(1, 1, SAMPLE_RATE);
+		for (int i = 0; i < 5000; ++i)
+			meter.onInterrupt(T0 + i, T0 + i + 1, 1);
+		
+		check("rate of many pulses",                   1000, meter.getSmoothedRate());
+		check("rate of many pulses at the last pulse", 1000, meter.getSmoothedRate(T0 + 4999));
+		check("rate of many pulses half a window on",  500,  meter.getSmoothedRate(T0 + 5499));
+	}
+	
+	/**
+	 * Reads the rate as of the last pulse from another thread while pulses are added every time unit. Every rate read
+	 * has to be one the pulses can give.
+	 */
+	private static void checkConcurrentReads() throws InterruptedException
+	{
+		FlowRateMeter meter = new FlowRateMeter(1, 1, SAMPLE_RATE);
+		
+		Thread detectionThread = new Thread(() ->
+		{
+			for (int i = 0; i < NUM_CONCURRENT_PULSES; ++i)
+				meter.onInterrupt(T0 + i, T0 + i + 1, 1);
+		});
+		detectionThread.start();
+		
+		long    numReads    = 0;
+		boolean valid       = true;
+		double  invalidRate = 0;
+		while (detectionThread.isAlive())
+		{
+			// the window of an older last pulse may have lost some of its pulses already, but never has more
+			double rate = meter.getSmoothedRate(meter.getLastPulseTime());
+			if (rate < 0 || rate > 1000 || rate != Math.rint(rate))
+			{
+				valid       = false;
+				invalidRate = rate;
+			}
+			
+			++numReads;
+		}
+		
+		detectionThread.join();
+		
+		if (!valid)
+			fail("concurrent reads", "read a rate of " + invalidRate + " out of " + numReads);
+		else
+			check("rate after concurrent reads", 1000, meter.getSmoothedRate(T0 + NUM_CONCURRENT_PULSES - 1));
+	}
+	
+	
+	private static void check(String name, double expected, double actual)
+	{
+		if (Math.abs(expected - actual) < 1e-9)
+			System.out.println("ok   " + name);
+		else
+			fail(name, actual + " instead of " + expected);
+	}
+	
+	private static void fail(String name, String reason)
+	{
+		System.out.println("FAIL " + name + ": " + reason);
+		++numFailures;
+	}
+}
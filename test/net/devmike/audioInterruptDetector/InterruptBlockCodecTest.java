@@ -0,0 +1,267 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that interrupts encoded by an {@link InterruptBlockEncoder} come back the same from an
+ * {@link InterruptBlockDecoder}, for several block sizes and kinds of buffers.<br />
+ * <br />
+ * The interrupts include the detector's times, times with no common unit, interrupts starting at the same time and
+ * gaps and durations too large for a short varint.
+ */
+public class InterruptBlockCodecTest
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	// a single interrupt per block, a block size the interrupts are not a multiple of, and the default
+	private static final int[] BLOCK_SIZES = {1, 7, InterruptBlockEncoder.DEFAULT_BLOCK_SIZE};
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private static int numFailures = 0;
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	public static void main(String[] args) throws IOException
+	{
+		Random random = new Random(1);
+		
+		List<long[]> detector     = new ArrayList<long[]>();
+		List<long[]> mixedUnits   = new ArrayList<long[]>();
+		List<long[]> equalStarts  = new ArrayList<long[]>();
+		List<long[]> large        = new ArrayList<long[]>();
+		List<long[]> oneInterrupt = new ArrayList<long[]>();
+		
+		// the detector's times: multiples of the normalized group size apart
+		long startTime = AudioSample.TIME_MIN_VALUE;
+		for (int i = 0; i < 5000; ++i)
+		{
+			startTime += 10 + random.nextInt(50) * 10;
+			detector.add(new long[] {startTime, startTime + 20 + random.nextInt(400) * 10, random.nextBoolean() ? 1 : -1});
+		}
+		
+		// mostly multiples of 4 with the odd one out, so some blocks have a time unit of 4 and some of 1
+		startTime = -1000;
+		for (int i = 0; i < 3000; ++i)
+		{
+			startTime += random.nextInt(100) == 0 ? 1 + random.nextInt(3) : random.nextInt(20) * 4;
+			mixedUnits.add(new long[] {startTime, startTime + random.nextInt(30) * 4, random.nextBoolean() ? 1 : -1});
+		}
+		
+		// runs of interrupts starting at the same time, with durations of 0
+		startTime = 0;
+		for (int i = 0; i < 1000; ++i)
+		{
+			if (random.nextInt(5) == 0)
+				startTime += 10;
+			
+			equalStarts.add(new long[] {startTime, startTime + (random.nextBoolean() ? 0 : 10), random.nextBoolean() ? 1 : -1});
+		}
+		
+		// gaps and durations that take up to 9 bytes as varints
+		startTime = Long.MIN_VALUE / 2;
+		for (int i = 0; i < 30; ++i)
+		{
+			startTime += random.nextLong() >>> 7;
+			large.add(new long[] {startTime, startTime + (random.nextLong() >>> 8), random.nextBoolean() ? 1 : -1});
+		}
+		
+		oneInterrupt.add(new long[] {123, 456, -1});
+		
+		for (int blockSize : BLOCK_SIZES)
+		{
+			check("detector times, block size "   + blockSize, detector,     blockSize);
+			check("mixed time units, block size " + blockSize, mixedUnits,   blockSize);
+			check("equal starts, block size "     + blockSize, equalStarts,  blockSize);
+			check("large values, block size "     + blockSize, large,        blockSize);
+			check("one interrupt, block size "    + blockSize, oneInterrupt, blockSize);
+		}
+		
+		checkRejected();
+		
+		if (numFailures > 0)
+		{
+			System.out.println(numFailures + " failed");
+			System.exit(1);
+		}
+		
+		System.out.println("all passed");
+	}
+	
+	/**
+	 * Encodes the interrupts and checks that they decode the same from heap buffers of both byte orders, a direct
+	 * buffer and a buffer that does not start at 0.
+	 * 
+	 * @param name       - Name of the check.
+	 * @param interrupts - Interrupts to encode, as start time, end time and sign.
+	 * @param blockSize  - Max number of interrupts per block.
+	 */
+	private static void check(String name, List<long[]> interrupts, int blockSize) throws IOException
+	{
+		ByteArrayOutputStream out     = new ByteArrayOutputStream();
+		InterruptBlockEncoder encoder = new InterruptBlockEncoder(out, blockSize);
+		
+		for (long[] interrupt : interrupts)
+			encoder.add(interrupt[0], interrupt[1], (int)interrupt[2]);
+		
+		encoder.close();
+		byte[] data = out.toByteArray();
+		
+		if (encoder.getNumInterruptsWritten() != interrupts.size() || encoder.getNumBytesWritten() != data.length)
+		{
+			fail(name, "encoder counted " + encoder.getNumInterruptsWritten() + " interrupts in " + encoder.getNumBytesWritten() + " bytes instead of " + interrupts.size() + " in " + data.length);
+			return;
+		}
+		
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		
+		// garbage before and after the blocks
+		byte[] padded = new byte[data.length + 20];
+		Arrays.fill(padded, (byte)0xFF);
+		System.arraycopy(data, 0, padded, 13, data.length);
+		ByteBuffer offset = ByteBuffer.wrap(padded, 13, data.length);
+		
+		List<String> expected = new ArrayList<String>();
+		long durationSum = 0;
+		for (long[] interrupt : interrupts)
+		{
+			expected.add(interrupt[0] + " " + interrupt[1] + " " + interrupt[2]);
+			durationSum += interrupt[1] - interrupt[0];
+		}
+		
+		String reason = null;
+		for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.wrap(data), ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN), direct, offset})
+		{
+			reason = check(buffer, interrupts, expected, durationSum, blockSize);
+			if (reason != null)
+			{
+				reason += " (" + (buffer.isDirect() ? "direct" : buffer.position() > 0 ? "offset" : buffer.order()) + " buffer)";
+				break;
+			}
+		}
+		
+		if (reason == null)
+			pass(name);
+		else
+			fail(name, reason);
+	}
+	
+	/**
+	 * @return Why the blocks in the buffer did not decode to the interrupts, or null if they did.
+	 */
+	private static String check(ByteBuffer data, List<long[]> interrupts, List<String> expected, long durationSum, int blockSize)
+	{
+		int position = data.position();
+		
+		List<String> decoded = new ArrayList<String>();
+		long numDecoded = new InterruptBlockDecoder(data).decodeAll((startTime, endTime, sign) -> decoded.add(startTime + " " + endTime + " " + sign));
+		
+		if (numDecoded != interrupts.size() || !decoded.equals(expected))
+			return "decoded different interrupts";
+		if (new InterruptBlockDecoder(data).countAll() != interrupts.size())
+			return "counted a different number of interrupts";
+		if (new InterruptBlockDecoder(data).sumAllDurations() != durationSum)
+			return "summed different durations";
+		
+		// step through the blocks from their headers alone
+		InterruptBlockDecoder decoder = new InterruptBlockDecoder(data);
+		for (int first = 0; first < interrupts.size(); first += blockSize)
+		{
+			int numInterrupts = Math.min(blockSize, interrupts.size() - first);
+			if (!decoder.hasNextBlock() || decoder.getNextBlockFirstStartTime() != interrupts.get(first)[0] ||
+					decoder.getNextBlockNumInterrupts() != numInterrupts || decoder.skipBlock() != numInterrupts)
+				return "skipped to a different block at interrupt " + first;
+		}
+		
+		if (decoder.hasNextBlock())
+			return "more blocks than written";
+		
+		if (data.position() != position)
+			return "moved the buffer's position";
+		
+		// cut off the last byte
+		try
+		{
+			ByteBuffer truncated = data.duplicate();
+			truncated.limit(truncated.limit() - 1);
+			new InterruptBlockDecoder(truncated).decodeAll((startTime, endTime, sign) -> {});
+			
+			return "decoded truncated blocks";
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Checks that the encoder rejects interrupts that can not be encoded.
+	 */
+	private static void checkRejected() throws IOException
+	{
+		InterruptBlockEncoder encoder = new InterruptBlockEncoder(new ByteArrayOutputStream(), 4);
+		encoder.add(100, 120, 1);
+		
+		long[][] invalid = {
+			{90,  120, 1},  // out of order
+			{110, 100, 1},  // ends before it starts
+			{110, 120, 0},  // no sign
+		};
+		
+		for (long[] interrupt : invalid)
+		{
+			try
+			{
+				encoder.add(interrupt[0], interrupt[1], (int)interrupt[2]);
+				fail("rejected " + Arrays.toString(interrupt), "was added");
+			}
+			catch (IllegalArgumentException e)
+			{
+				pass("rejected " + Arrays.toString(interrupt));
+			}
+		}
+		
+		try
+		{
+			new InterruptBlockEncoder(new ByteArrayOutputStream(), 0);
+			fail("rejected block size 0", "encoder was created");
+		}
+		catch (IllegalArgumentException e)
+		{
+			pass("rejected block size 0");
+		}
+	}
+	
+	
+	private static void pass(String name)
+	{
+		System.out.println("ok   " + name);
+	}
+	
+	private static void fail(String name, String reason)
+	{
+		System.out.println("FAIL " + name + ": " + reason);
+		++numFailures;
+	}
+}
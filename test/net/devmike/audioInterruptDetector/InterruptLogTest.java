@@ -0,0 +1,324 @@
+package net.devmike.audioInterruptDetector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that interrupts appended to an {@link InterruptLog} come back the same from range queries, across segments,
+ * after the log is opened again and after a crash left the last segment partly written.<br />
+ * <br />
+ * Small segments are used so the interrupts are spread over several of them.
+ */
+public class InterruptLogTest
+{
+	// ===================================================================
+	// Constants
+	//
+	// ===================================================================
+	
+	private static final int SEGMENT_CAPACITY = 1000;
+	private static final int NUM_INTERRUPTS   = 3500;
+	private static final int NUM_BEFORE_CRASH = 3100; // interrupts appended before the log is opened the last time
+	
+	
+	
+	// ===================================================================
+	// Variables
+	//
+	// ===================================================================
+	
+	private static int numFailures = 0;
+	
+	
+	
+	// ===================================================================
+	// Private Classes
+	//
+	// ===================================================================
+	
+	/**
+	 * Checks run against a log in a new directory.
+	 */
+	private interface LogCheck
+	{
+		void run(Path directory, List<long[]> interrupts, Random random) throws IOException;
+	}
+	
+	
+	
+	// ===================================================================
+	// Methods
+	//
+	// ===================================================================
+	
+	public static void main(String[] args) throws IOException
+	{
+		run(InterruptLogTest::checkAppendAndRecover);
+		run(InterruptLogTest::checkFullSegment);
+		run(InterruptLogTest::checkUnflushedTail);
+		
+		if (numFailures > 0)
+		{
+			System.out.println(numFailures + " failed");
+			System.exit(1);
+		}
+		
+		System.out.println("all passed");
+	}
+	
+	/**
+	 * Runs checks against a log in a new temporary directory.
+	 */
+	private static void run(LogCheck check) throws IOException
+	{
+		// interrupts a few samples apart, some starting at the same time. The times are positive, so a missing index
+		// read as zeros would send queries past the records
+		Random random = new Random(1);
+		List<long[]> interrupts = new ArrayList<long[]>();
+		
+		long startTime = 1000;
+		for (int i = 0; i < NUM_INTERRUPTS; ++i)
+		{
+			startTime += random.nextInt(4) * 10;
+			interrupts.add(new long[] {startTime, startTime + 20 + random.nextInt(100), i % 2 == 0 ? 1 : -1});
+		}
+		
+		Path directory = Files.createTempDirectory("interruptLogTest");
+		try
+		{
+			check.run(directory, interrupts, random);
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+	
+	/**
+	 * Appends to a log across several segments, opens it again, and recovers it after a crash cut off the records
+	 * appended after the last flush.
+	 */
+	private static void checkAppendAndRecover(Path directory, List<long[]> interrupts, Random random) throws IOException
+	{
+		// -------------------------------------------------------------------
+		// append and query
+		
+		InterruptLog log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		append(log, interrupts, 0, NUM_INTERRUPTS / 2);
+		
+		checkQueries("appended", log, interrupts.subList(0, NUM_INTERRUPTS / 2), random);
+		
+		try
+		{
+			log.append(0, 20, 1);
+			fail("out of order append", "was not rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			pass("out of order append");
+		}
+		
+		log.close();
+		
+		// -------------------------------------------------------------------
+		// open again and carry on
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("reopened", log, interrupts.subList(0, NUM_INTERRUPTS / 2), random);
+		
+		append(log, interrupts, NUM_INTERRUPTS / 2, NUM_BEFORE_CRASH);
+		
+		checkQueries("appended after reopening", log, interrupts.subList(0, NUM_BEFORE_CRASH), random);
+		log.close();
+		
+		// -------------------------------------------------------------------
+		// crash: the log is left without being closed after only the first 100 of the records appended since it was
+		// opened were flushed, and one record after them never made it to disk. The records after that one must not
+		// be counted even though they are complete
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("reopened with sealed segments", log, interrupts.subList(0, NUM_BEFORE_CRASH), random);
+		
+		append(log, interrupts, NUM_BEFORE_CRASH, NUM_BEFORE_CRASH + 100);
+		log.flush();
+		append(log, interrupts, NUM_BEFORE_CRASH + 100, NUM_INTERRUPTS);
+		
+		int lastSegmentFirstRecord = NUM_INTERRUPTS / SEGMENT_CAPACITY * SEGMENT_CAPACITY;
+		int tornRecord             = NUM_BEFORE_CRASH + 200;
+		
+		Path lastSegment = directory.resolve(String.format("%020d.seg", lastSegmentFirstRecord));
+		try (FileChannel channel = FileChannel.open(lastSegment, StandardOpenOption.WRITE))
+		{
+			channel.write(ByteBuffer.allocate(InterruptLog.RECORD_SIZE), InterruptLog.SEGMENT_HEADER_SIZE + (long)(tornRecord - lastSegmentFirstRecord) * InterruptLog.RECORD_SIZE);
+		}
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("recovered", log, interrupts.subList(0, tornRecord), random);
+		
+		// new records take the place of the lost ones, and the old records after them don't come back
+		append(log, interrupts, tornRecord, tornRecord + 10);
+		log.close();
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("appended after recovering", log, interrupts.subList(0, tornRecord + 10), random);
+		log.close();
+	}
+	
+	/**
+	 * Fills a segment exactly and closes the log before anything rolls it over, so the segment is sealed by the close
+	 * and its index has to be on disk for queries after it is opened again.
+	 */
+	private static void checkFullSegment(Path directory, List<long[]> interrupts, Random random) throws IOException
+	{
+		InterruptLog log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		append(log, interrupts, 0, SEGMENT_CAPACITY);
+		log.close();
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("closed when full", log, interrupts.subList(0, SEGMENT_CAPACITY), random);
+		
+		append(log, interrupts, SEGMENT_CAPACITY, SEGMENT_CAPACITY * 3 / 2);
+		log.close();
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("appended after closing when full", log, interrupts.subList(0, SEGMENT_CAPACITY * 3 / 2), random);
+		log.close();
+	}
+	
+	
+	/**
+	 * Opens a log twice after crashes left records appended after the last flush, each time appending more without
+	 * flushing. The records found after one crash must still be there after the next.
+	 */
+	private static void checkUnflushedTail(Path directory, List<long[]> interrupts, Random random) throws IOException
+	{
+		InterruptLog log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		append(log, interrupts, 0, 10);
+		log.flush();
+		append(log, interrupts, 10, 15);
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("recovered unflushed", log, interrupts.subList(0, 15), random);
+		append(log, interrupts, 15, 18);
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("recovered unflushed twice", log, interrupts.subList(0, 18), random);
+		
+		// the segment fills up without being flushed, so it is sealed when it is recovered
+		append(log, interrupts, 18, SEGMENT_CAPACITY);
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("recovered unflushed full segment", log, interrupts.subList(0, SEGMENT_CAPACITY), random);
+		
+		log = new InterruptLog(directory, SEGMENT_CAPACITY);
+		checkQueries("reopened recovered full segment", log, interrupts.subList(0, SEGMENT_CAPACITY), random);
+		log.close();
+	}
+	
+	
+	/**
+	 * Appends the interrupts from the first index up to the second.
+	 */
+	private static void append(InterruptLog log, List<long[]> interrupts, int from, int to) throws IOException
+	{
+		for (int i = from; i < to; ++i)
+			log.append(interrupts.get(i)[0], interrupts.get(i)[1], (int)interrupts.get(i)[2]);
+	}
+	
+	/**
+	 * Checks the number of interrupts in the log and queries of the whole log, of no interrupts and of random ranges
+	 * against the expected interrupts.
+	 * 
+	 * @param name       - Name of the check.
+	 * @param log        - Log to query.
+	 * @param interrupts - Interrupts the log should hold, as start time, end time and sign.
+	 * @param random     - Random to pick the ranges.
+	 */
+	private static void checkQueries(String name, InterruptLog log, List<long[]> interrupts, Random random)
+	{
+		if (log.getNumInterrupts() != interrupts.size())
+		{
+			fail(name, log.getNumInterrupts() + " interrupts instead of " + interrupts.size());
+			return;
+		}
+		
+		long firstStartTime = interrupts.get(0)[0];
+		long lastStartTime  = interrupts.get(interrupts.size() - 1)[0];
+		
+		boolean same = query(log, Long.MIN_VALUE, Long.MAX_VALUE).equals(filter(interrupts, Long.MIN_VALUE, Long.MAX_VALUE)) &&
+				query(log, lastStartTime + 1, Long.MAX_VALUE).isEmpty();
+		
+		for (int i = 0; i < 200 && same; ++i)
+		{
+			long fromTime = firstStartTime + (long)(random.nextDouble() * (lastStartTime - firstStartTime + 100)) - 50;
+			long toTime   = fromTime + random.nextInt(random.nextBoolean() ? 50 : 5000);
+			
+			same = query(log, fromTime, toTime).equals(filter(interrupts, fromTime, toTime));
+		}
+		
+		if (same)
+			pass(name);
+		else
+			fail(name, "queries returned different interrupts");
+	}
+	
+	/**
+	 * @return The interrupts the log returns for the range, formatted.
+	 */
+	private static List<String> query(InterruptLog log, long fromTime, long toTime)
+	{
+		List<String> interrupts = new ArrayList<String>();
+		log.query(fromTime, toTime, (startTime, endTime, sign) -> interrupts.add(startTime + " " + endTime + " " + sign));
+		
+		return interrupts;
+	}
+	
+	/**
+	 * @return The interrupts that start within the range, formatted.
+	 */
+	private static List<String> filter(List<long[]> interrupts, long fromTime, long toTime)
+	{
+		List<String> filtered = new ArrayList<String>();
+		for (long[] interrupt : interrupts)
+		{
+			if (interrupt[0] >= fromTime && interrupt[0] < toTime)
+				filtered.add(interrupt[0] + " " + interrupt[1] + " " + interrupt[2]);
+		}
+		
+		return filtered;
+	}
+	
+	
+	private static void pass(String name)
+	{
+		System.out.println("ok   " + name);
+	}
+	
+	private static void fail(String name, String reason)
+	{
+		System.out.println("FAIL " + name + ": " + reason);
+		++numFailures;
+	}
+	
+	/**
+	 * Deletes the log's directory and its segment files.
+	 */
+	private static void delete(Path directory) throws IOException
+	{
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+		{
+			for (Path file : files)
+				Files.delete(file);
+		}
+		
+		Files.delete(directory);
+	}
+}